@@ -0,0 +1,96 @@
+package io.engineblock.activitytypes.http;
+
+import com.codahale.metrics.Timer;
+import io.engineblock.activityapi.core.BaseAsyncAction;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.StartedOp;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.TrackedOp;
+import io.engineblock.activityapi.planning.OpSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * <p>An async version of {@link HttpAction}, which puts requests in flight without
+ * waiting for them. The number of requests in flight for each thread is controlled by
+ * the async parameter, as with other async actions.</p>
+ *
+ * <p>Requests are sent with the shared non-blocking client of the {@link HttpActivity},
+ * which keeps connections open and reuses them across cycles. Each op is completed
+ * from the client's callback when the response body has been read.</p>
+ */
+public class AsyncHttpAction extends BaseAsyncAction<HttpRequest, HttpActivity> {
+
+    private final static Logger logger = LoggerFactory.getLogger(AsyncHttpAction.class);
+
+    private HttpClient client;
+    private HttpResponseReader responseReader;
+    private boolean showstmts;
+    private OpSequence<HttpRequestTemplate> sequencer;
+    private final StringBuilder buffer = new StringBuilder();
+
+    public AsyncHttpAction(HttpActivity activity, int slot) {
+        super(activity, slot);
+    }
+
+    @Override
+    public void init() {
+        this.client = activity.getHttpClient();
+        this.showstmts = activity.getShowstmts();
+        this.sequencer = activity.getOpSequence();
+        this.responseReader = activity.newResponseReader();
+    }
+
+    @Override
+    public LongFunction<HttpRequest> getOpInitFunction() {
+        return this::bindRequest;
+    }
+
+    private HttpRequest bindRequest(long cycleValue) {
+        try (Timer.Context bindTime = activity.bindTimer.time()) {
+            HttpRequestTemplate template = sequencer.get(cycleValue);
+            String uri = template.bindUri(cycleValue, activity.getHostPrefix(cycleValue), buffer);
+            if (showstmts) {
+                logger.info("STMT(cycle=" + cycleValue + "):\n" + template.getMethod() + " " + uri);
+            }
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(uri));
+            for (int i = 0; i < template.getHeaderCount(); i++) {
+                builder.header(template.getHeaderName(i), template.bindHeader(i, cycleValue, buffer));
+            }
+            builder.method(template.getMethod(), template.hasBody() ?
+                    HttpRequest.BodyPublishers.ofString(template.bindBody(cycleValue, buffer)) :
+                    HttpRequest.BodyPublishers.noBody());
+            return builder.build();
+        }
+    }
+
+    @Override
+    public void startOpCycle(TrackedOp<HttpRequest> opc) {
+        long expected = checksumFor(opc.getCycle());
+        StartedOp<HttpRequest> started = opc.start();
+        client.sendAsync(started.getData(), responseReader.handler(expected))
+                .whenComplete((response, error) -> complete(started, response, error));
+    }
+
+    private long checksumFor(long cycleValue) {
+        return sequencer.get(cycleValue).bindChecksum(cycleValue, buffer);
+    }
+
+    private void complete(StartedOp<HttpRequest> started, HttpResponse<Integer> response, Throwable error) {
+        long serviceNanos = started.getCurrentServiceTimeNanos();
+        if (error != null) {
+            logger.warn("Error for cycle " + started.getCycle() + " with " + started.getData().uri() + ": " + error);
+            started.fail(HttpResults.EXCEPTION);
+        } else if (response.body() != HttpResults.OK) {
+            started.fail(response.body());
+        } else {
+            activity.resultSuccessTimer.update(serviceNanos, TimeUnit.NANOSECONDS);
+            started.succeed(HttpResults.OK);
+        }
+    }
+}
@@ -11,12 +11,12 @@ import io.engineblock.activityapi.core.SyncAction;
 import io.engineblock.activityapi.planning.OpSequence;
 import io.engineblock.activityimpl.ActivityDef;
 import io.virtdata.core.ContextualBindingsTemplate;
-import io.virtdata.templates.StringBindings;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.TimeUnit;
 
 
@@ -28,7 +28,10 @@ public class HttpAction implements SyncAction {
     private int maxTries = 1;
     private boolean showstmts;
 
-    private OpSequence<StringBindings> sequencer;
+    private OpSequence<HttpRequestTemplate> sequencer;
+    private final StringBuilder buffer = new StringBuilder();
+    private String[] headers = new String[0];
+    private HttpResponseReader responseReader;
 
 
     public HttpAction(ActivityDef activityDef, int slot, HttpActivity httpActivity) {
@@ -39,93 +42,91 @@ public class HttpAction implements SyncAction {
     @Override
     public void init() {
         this.sequencer = httpActivity.getOpSequence();
+        this.responseReader = httpActivity.newResponseReader();
+        this.maxTries = httpActivity.getMaxTries();
     }
 
     @Override
     public int runCycle(long cycleValue) {
-        StringBindings stringBindings;
-        String statement = null;
+        HttpRequestTemplate template;
+        URL hostUrl;
+        String path;
+        int headerCount;
+        String body = null;
+        long expected;
         InputStream result = null;
 
         try (Timer.Context bindTime = httpActivity.bindTimer.time()) {
-            stringBindings = sequencer.get(cycleValue);
-            statement = stringBindings.bind(cycleValue);
-
-            String[] splitStatement = statement.split("\\?");
-            String path, query;
-
-            String host = httpActivity.getHosts()[(int) cycleValue % httpActivity.getHosts().length];
-
-            path = splitStatement[0];
-            query = "";
-
-            if (splitStatement.length >= 2) {
-                query = splitStatement[1];
+            template = sequencer.get(cycleValue);
+            hostUrl = httpActivity.getHostUrl(cycleValue);
+            path = template.bindPath(cycleValue, buffer);
+            headerCount = template.getHeaderCount();
+            if (headers.length < headerCount) {
+                headers = new String[headerCount];
             }
-
-            URI uri = new URI(
-                "http",
-                null,
-                host,
-                httpActivity.getPort(),
-                path,
-                query,
-                null);
-
-                statement = uri.toString();
+            for (int i = 0; i < headerCount; i++) {
+                headers[i] = template.bindHeader(i, cycleValue, buffer);
+            }
+            if (template.hasBody()) {
+                body = template.bindBody(cycleValue, buffer);
+            }
+            expected = template.bindChecksum(cycleValue, buffer);
 
             showstmts = httpActivity.getShowstmts();
             if (showstmts) {
-                logger.info("STMT(cycle=" + cycleValue + "):\n" + statement);
+                logger.info("STMT(cycle=" + cycleValue + "):\n" + template.getMethod() + " " + hostUrl + path);
             }
-        } catch (URISyntaxException e) {
-            e.printStackTrace();
         }
 
         long nanoStartTime=System.nanoTime();
         int tries = 0;
+        int cycleResult = HttpResults.EXCEPTION;
 
         while (tries < maxTries) {
             tries++;
+            int status;
 
             try (Timer.Context executeTime = httpActivity.executeTimer.time()) {
-                URL url = new URL(statement);
-//
+                URL url = new URL(hostUrl.getProtocol(), hostUrl.getHost(), hostUrl.getPort(), path);
                 HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                result = conn.getInputStream();
+                conn.setRequestMethod(template.getMethod());
+                for (int i = 0; i < headerCount; i++) {
+                    conn.setRequestProperty(template.getHeaderName(i), headers[i]);
+                }
+                if (body != null) {
+                    conn.setDoOutput(true);
+                    try (OutputStream out = conn.getOutputStream()) {
+                        out.write(body.getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+                status = conn.getResponseCode();
+                result = (status >= 400) ? conn.getErrorStream() : conn.getInputStream();
             } catch (Exception e) {
-                throw new RuntimeException("Error writing output:" + e, e);
+                logger.warn("Error for cycle " + cycleValue + " with " + hostUrl + path + " (try " + tries + "/" + maxTries + "): " + e);
+                cycleResult = HttpResults.EXCEPTION;
+                continue;
             }
 
-            Timer.Context resultTime = httpActivity.resultTimer.time();
-            try {
-                StringBuilder res = new StringBuilder();
-
-                BufferedReader rd = new BufferedReader(new InputStreamReader(result));
-                String line;
-                while ((line = rd.readLine()) != null) {
-                    res.append(line);
-                }
-                rd.close();
-
+            try (Timer.Context resultTime = httpActivity.resultTimer.time()) {
+                cycleResult = responseReader.read(status, result, expected);
             } catch (Exception e) {
-                long resultNanos = resultTime.stop();
-                resultTime=null;
-            } finally {
-                if (resultTime!=null) {
-                    resultTime.stop();
-                }
-
+                logger.warn("Error reading response for cycle " + cycleValue + ": " + e);
+                cycleResult = HttpResults.EXCEPTION;
             }
 
+            if (cycleResult == HttpResults.OK) {
+                break;
+            }
         }
-        long resultNanos=System.nanoTime() - nanoStartTime;
-        httpActivity.resultSuccessTimer.update(resultNanos, TimeUnit.NANOSECONDS);
 
+        if (cycleResult == HttpResults.OK) {
+            long resultNanos = System.nanoTime() - nanoStartTime;
+            httpActivity.resultSuccessTimer.update(resultNanos, TimeUnit.NANOSECONDS);
+        }
 
-        return 0;
+        return cycleResult;
     }
+
     protected HttpActivity getHttpActivity() {
         return httpActivity;
     }
@@ -12,6 +12,9 @@ public class HttpActionDispenser implements ActionDispenser {
 
     @Override
     public Action getAction(int i) {
+        if (httpActivity.isAsync()) {
+            return new AsyncHttpAction(httpActivity, i);
+        }
         return new HttpAction(httpActivity.getActivityDef(), i, httpActivity);
     }
 }
\ No newline at end of file
@@ -1,6 +1,5 @@
 package io.engineblock.activitytypes.http;
 
-import activityconfig.ParsedStmt;
 import activityconfig.StatementsLoader;
 import activityconfig.yaml.StmtDef;
 import activityconfig.yaml.StmtsDocList;
@@ -15,14 +14,13 @@ import io.engineblock.activityapi.planning.SequencerType;
 import io.engineblock.activityimpl.ActivityDef;
 import io.engineblock.activityimpl.SimpleActivity;
 import io.engineblock.metrics.ActivityMetrics;
-import io.virtdata.core.BindingsTemplate;
-import io.virtdata.templates.StringBindings;
-import io.virtdata.templates.StringBindingsTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.http.HttpClient;
 import java.util.*;
-import java.util.function.Function;
 
 public class HttpActivity extends SimpleActivity implements Activity, ActivityDefObserver {
     private final static Logger logger = LoggerFactory.getLogger(HttpActivity.class);
@@ -45,11 +43,16 @@ public class HttpActivity extends SimpleActivity implements Activity, ActivityDe
     public Meter rowCounter;
     public Histogram skippedTokens;
     public Timer resultSuccessTimer;
+    public Meter responseBytesMeter;
 
     private String[] hosts;
+    private String[] hostPrefixes;
+    private URL[] hostUrls;
     private int port;
 
-    private OpSequence<StringBindings> opSequence;
+    private OpSequence<HttpRequestTemplate> opSequence;
+    private HttpClient httpClient;
+    private HttpResponseReader.Mode responseMode;
 
     public HttpActivity(ActivityDef activityDef) {
         super(activityDef);
@@ -74,6 +77,15 @@ public class HttpActivity extends SimpleActivity implements Activity, ActivityDe
 
         hosts = activityDef.getParams().getOptionalString("host").orElse("localhost").split(",");
         port = activityDef.getParams().getOptionalInteger("port").orElse(80);
+        hostPrefixes = Arrays.stream(hosts).map(h -> "http://" + h + ":" + port).toArray(String[]::new);
+        hostUrls = new URL[hosts.length];
+        for (int i = 0; i < hosts.length; i++) {
+            try {
+                hostUrls[i] = new URL("http", hosts[i], port, "");
+            } catch (MalformedURLException e) {
+                throw new RuntimeException("Unable to use host '" + hosts[i] + "' with port " + port + ": " + e, e);
+            }
+        }
 
 
         opSequence = initOpSequencer();
@@ -86,35 +98,66 @@ public class HttpActivity extends SimpleActivity implements Activity, ActivityDe
         rowCounter = ActivityMetrics.meter(activityDef, "rows");
         skippedTokens = ActivityMetrics.histogram(activityDef, "skipped-tokens");
         resultSuccessTimer = ActivityMetrics.timer(activityDef,"result-success");
+        responseBytesMeter = ActivityMetrics.meter(activityDef, "response-bytes");
+
+        String response = activityDef.getParams().getOptionalString("response").orElse("discard");
+        try {
+            responseMode = HttpResponseReader.Mode.valueOf(response);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown response type '" + response + "', valid values are discard, count or checksum");
+        }
+
+        if (isAsync()) {
+            httpClient = newHttpClient();
+        }
 
         onActivityDefUpdate(activityDef);
     }
 
-    private OpSequence<StringBindings> initOpSequencer() {
+    /**
+     * Create the client which is shared by all async actions of this activity. The
+     * client keeps a pool of open connections to each host, so that requests reuse
+     * them instead of connecting for each cycle.
+     */
+    private HttpClient newHttpClient() {
+        String version = activityDef.getParams().getOptionalString("version").orElse("http1.1");
+        HttpClient.Version clientVersion;
+        switch (version) {
+            case "http1.1":
+                clientVersion = HttpClient.Version.HTTP_1_1;
+                break;
+            case "http2":
+                clientVersion = HttpClient.Version.HTTP_2;
+                break;
+            default:
+                throw new RuntimeException("Unknown version type '" + version + "', valid values are http1.1 or http2");
+        }
+        return HttpClient.newBuilder()
+                .version(clientVersion)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .build();
+    }
+
+    private OpSequence<HttpRequestTemplate> initOpSequencer() {
         SequencerType sequencerType = SequencerType.valueOf(
                 getParams().getOptionalString("seq").orElse("bucket")
         );
-        SequencePlanner<StringBindings> sequencer = new SequencePlanner<>(sequencerType);
+        SequencePlanner<HttpRequestTemplate> sequencer = new SequencePlanner<>(sequencerType);
 
         String tagfilter = activityDef.getParams().getOptionalString("tags").orElse("");
         List<StmtDef> stmts = stmtsDocList.getStmts(tagfilter);
 
         if (stmts.size() > 0) {
             for (StmtDef stmt : stmts) {
-                ParsedStmt parsed = stmt.getParsed().orError();
-                BindingsTemplate bt = new BindingsTemplate(parsed.getBindPoints());
-                String statement = parsed.getPositionalStatement(Function.identity());
-                Objects.requireNonNull(statement);
-
-                StringBindingsTemplate sbt = new StringBindingsTemplate(stmt.getStmt(), bt);
-                StringBindings sb = sbt.resolve();
-                sequencer.addOp(sb,Long.valueOf(stmt.getParams().getOrDefault("ratio","1")));
+                HttpRequestTemplate template = new HttpRequestTemplate(stmt);
+                logger.debug("Compiled " + template);
+                sequencer.addOp(template, Long.valueOf(stmt.getParams().getOrDefault("ratio","1")));
             }
         } else {
             logger.error("Unable to create an HTTP statement if no bindings or statements are defined.");
         }
-//
-        OpSequence<StringBindings> opSequence = sequencer.resolve();
+
+        OpSequence<HttpRequestTemplate> opSequence = sequencer.resolve();
         return opSequence;
     }
 
@@ -139,7 +182,44 @@ public class HttpActivity extends SimpleActivity implements Activity, ActivityDe
         return port;
     }
 
-    public OpSequence<StringBindings> getOpSequence() {
+    public OpSequence<HttpRequestTemplate> getOpSequence() {
         return opSequence;
     }
+
+    /**
+     * @param cycleValue The cycle to select a host for
+     * @return The scheme, host and port which prefix request URIs for the cycle
+     */
+    public String getHostPrefix(long cycleValue) {
+        return hostPrefixes[(int) (cycleValue % hostPrefixes.length)];
+    }
+
+    /**
+     * @param cycleValue The cycle to select a host for
+     * @return The URL with the scheme, host and port of request URLs for the cycle, which is resolved
+     * once so that only the path needs to be parsed for each request
+     */
+    public URL getHostUrl(long cycleValue) {
+        return hostUrls[(int) (cycleValue % hostUrls.length)];
+    }
+
+    /**
+     * @return a new response reader for the response mode of this activity, for use by a single action
+     */
+    public HttpResponseReader newResponseReader() {
+        return new HttpResponseReader(responseMode, responseBytesMeter);
+    }
+
+    @Override
+    public Map<Integer, String> getResultLegend() {
+        return HttpResults.getLegend();
+    }
+
+    public boolean isAsync() {
+        return activityDef.getParams().getOptionalInteger("async").isPresent();
+    }
+
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
 }
\ No newline at end of file
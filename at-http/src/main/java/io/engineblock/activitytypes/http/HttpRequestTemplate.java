@@ -0,0 +1,309 @@
+package io.engineblock.activitytypes.http;
+
+import activityconfig.yaml.StmtDef;
+import io.virtdata.api.DataMapper;
+import io.virtdata.core.VirtData;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>An HTTP request which is compiled once from a statement, so that only the
+ * bindings need to be generated for each cycle. The statement may be a plain URI,
+ * as in <pre>/search?q={term}</pre>, or it may be in the form of an HTTP request,
+ * with a request line, header lines, and a body after an empty line:</p>
+ *
+ * <pre>
+ * POST /item/{id}
+ * Content-Type: application/json
+ *
+ * {"id":"{id}","name":"{name}"}
+ * </pre>
+ *
+ * <p>When the statement has no request line, the method is taken from the
+ * <em>method</em> statement param, or the older <em>requestType</em> param,
+ * and is otherwise GET.</p>
+ *
+ * <p>Each part of the request is split into literal text and bind points, with a
+ * data mapper resolved for each bind point. Rendering a part appends the literal text
+ * and the generated values into a buffer which is provided, and reused, by the caller.
+ * Only the <pre>{name}</pre> bind point form is recognized, so that query strings
+ * are never mistaken for bind points.</p>
+ */
+public class HttpRequestTemplate {
+
+    private final static Pattern bindPoint = Pattern.compile("\\{(\\w+[-_\\d\\w.]*)}");
+    private final static Pattern requestLine = Pattern.compile("^([A-Z]+)\\s+(\\S+)(\\s+HTTP/\\S+)?$");
+    private final static Pattern headerLine = Pattern.compile("^([^:\\s]+):\\s*(.*)$");
+
+    private final String name;
+    private final String method;
+    private final PartTemplate uri;
+    private final String[] headerNames;
+    private final PartTemplate[] headerValues;
+    private final PartTemplate body;
+    private final PartTemplate checksum;
+    private final long checksumValue;
+
+    public HttpRequestTemplate(StmtDef stmtDef) {
+        this(stmtDef.getName(), stmtDef.getStmt(), stmtDef.getParams(), stmtDef.getBindings());
+    }
+
+    public HttpRequestTemplate(String name, String stmt, Map<String, String> params, Map<String, String> bindings) {
+        this.name = name;
+        String[] lines = stmt.trim().split("\r?\n", -1);
+
+        Matcher requestMatcher = requestLine.matcher(lines[0].trim());
+        if (requestMatcher.matches()) {
+            this.method = requestMatcher.group(1);
+            this.uri = new PartTemplate(requestMatcher.group(2), bindings, true);
+        } else {
+            this.method = params.getOrDefault("method", params.getOrDefault("requestType", "GET")).toUpperCase();
+            this.uri = new PartTemplate(lines[0].trim(), bindings, true);
+        }
+
+        List<String> names = new ArrayList<>();
+        List<PartTemplate> values = new ArrayList<>();
+        int line = 1;
+        for (; line < lines.length && !lines[line].trim().isEmpty(); line++) {
+            Matcher headerMatcher = headerLine.matcher(lines[line].trim());
+            if (!headerMatcher.matches()) {
+                throw new RuntimeException("Unable to parse header line '" + lines[line] + "' in statement " + name);
+            }
+            names.add(headerMatcher.group(1));
+            values.add(new PartTemplate(headerMatcher.group(2), bindings, false));
+        }
+        this.headerNames = names.toArray(new String[0]);
+        this.headerValues = values.toArray(new PartTemplate[0]);
+
+        if (line + 1 < lines.length) {
+            this.body = new PartTemplate(String.join("\n", Arrays.copyOfRange(lines, line + 1, lines.length)),
+                    bindings, false);
+        } else {
+            this.body = null;
+        }
+
+        String checksumParam = params.get("checksum");
+        this.checksum = (checksumParam != null) ? new PartTemplate(checksumParam, bindings, false) : null;
+        this.checksumValue = (checksum != null && checksum.isLiteral()) ?
+                parseChecksum(checksumParam, name) : HttpResponseReader.NO_CHECKSUM;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Render the URI for a cycle, with generated values escaped as needed for a URI.
+     *
+     * @param cycle  The cycle to generate values for
+     * @param prefix The scheme and authority of the URI, such as <pre>http://host:80</pre>
+     * @param buffer A buffer to render into, which is cleared first
+     * @return the URI for this cycle
+     */
+    public String bindUri(long cycle, String prefix, StringBuilder buffer) {
+        buffer.setLength(0);
+        buffer.append(prefix);
+        uri.render(cycle, buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Render only the path and query of the URI for a cycle, to be resolved against a
+     * URL which already holds the scheme, host and port.
+     *
+     * @param cycle  The cycle to generate values for
+     * @param buffer A buffer to render into, which is cleared first
+     * @return the path and query of the URI for this cycle
+     */
+    public String bindPath(long cycle, StringBuilder buffer) {
+        buffer.setLength(0);
+        uri.render(cycle, buffer);
+        return buffer.toString();
+    }
+
+    public int getHeaderCount() {
+        return headerNames.length;
+    }
+
+    public String getHeaderName(int index) {
+        return headerNames[index];
+    }
+
+    public String bindHeader(int index, long cycle, StringBuilder buffer) {
+        buffer.setLength(0);
+        headerValues[index].render(cycle, buffer);
+        return buffer.toString();
+    }
+
+    public boolean hasBody() {
+        return body != null;
+    }
+
+    public String bindBody(long cycle, StringBuilder buffer) {
+        buffer.setLength(0);
+        body.render(cycle, buffer);
+        return buffer.toString();
+    }
+
+    public boolean hasChecksum() {
+        return checksum != null;
+    }
+
+    /**
+     * Render the expected checksum of the response body for a cycle, from the
+     * <em>checksum</em> statement param. A checksum without bind points is parsed
+     * once, when the template is created.
+     *
+     * @param cycle  The cycle to generate values for
+     * @param buffer A buffer to render into, which is cleared first
+     * @return the expected checksum, or {@link HttpResponseReader#NO_CHECKSUM} if none is defined
+     * @throws RuntimeException if the rendered value is not an unsigned decimal CRC32
+     */
+    public long bindChecksum(long cycle, StringBuilder buffer) {
+        if (checksum == null || checksumValue != HttpResponseReader.NO_CHECKSUM) {
+            return checksumValue;
+        }
+        buffer.setLength(0);
+        checksum.render(cycle, buffer);
+        return parseChecksum(buffer.toString(), name);
+    }
+
+    /**
+     * Parse an expected checksum, which must be an unsigned decimal CRC32.
+     *
+     * @param value The text of the checksum
+     * @param name  The name of the statement, for error messages
+     * @return the checksum
+     * @throws RuntimeException if the value is not a valid CRC32
+     */
+    static long parseChecksum(String value, String name) {
+        long parsed;
+        try {
+            parsed = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            parsed = -1L;
+        }
+        if (parsed < 0L || parsed > 0xFFFFFFFFL) {
+            throw new RuntimeException("Invalid checksum '" + value + "' for statement " + name
+                    + ", it must be an unsigned decimal CRC32 between 0 and " + 0xFFFFFFFFL);
+        }
+        return parsed;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpRequestTemplate(" + name + ": " + method + " " + uri + ", headers=" + headerNames.length
+                + ", body=" + (body != null) + ")";
+    }
+
+    /**
+     * A part of a request, as alternating literal text and bind points. There is
+     * always one more literal than the number of bind points.
+     */
+    private final static class PartTemplate {
+        private final String[] literals;
+        private final String[] anchors;
+        private final DataMapper<Object>[] mappers;
+        private final boolean escaped;
+
+        @SuppressWarnings("unchecked")
+        private PartTemplate(String template, Map<String, String> bindings, boolean escaped) {
+            this.escaped = escaped;
+            List<String> literalList = new ArrayList<>();
+            List<String> anchorList = new ArrayList<>();
+            Matcher matcher = bindPoint.matcher(template);
+            int last = 0;
+            while (matcher.find()) {
+                literalList.add(template.substring(last, matcher.start()));
+                anchorList.add(matcher.group(1));
+                last = matcher.end();
+            }
+            literalList.add(template.substring(last));
+
+            this.literals = new String[literalList.size()];
+            for (int i = 0; i < literals.length; i++) {
+                literals[i] = escaped ? escape(literalList.get(i), false) : literalList.get(i);
+            }
+            this.anchors = anchorList.toArray(new String[0]);
+            this.mappers = new DataMapper[anchors.length];
+            for (int i = 0; i < anchors.length; i++) {
+                String spec = bindings.get(anchors[i]);
+                if (spec == null) {
+                    throw new RuntimeException("No binding named '" + anchors[i] + "' was found for '" + template + "'");
+                }
+                mappers[i] = VirtData.getMapper(spec);
+            }
+        }
+
+        private boolean isLiteral() {
+            return anchors.length == 0;
+        }
+
+        private void render(long cycle, StringBuilder buffer) {
+            buffer.append(literals[0]);
+            for (int i = 0; i < mappers.length; i++) {
+                String value = String.valueOf(mappers[i].get(cycle));
+                buffer.append(escaped ? escape(value, true) : value);
+                buffer.append(literals[i + 1]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(literals[0]);
+            for (int i = 0; i < anchors.length; i++) {
+                sb.append('{').append(anchors[i]).append('}').append(literals[i + 1]);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Percent-encode the characters of a value which may not appear in a URI.
+     * Characters which are reserved in URIs, like '/', '?' and '&amp;', are kept.
+     *
+     * @param value      The text to escape
+     * @param escapePct  Whether '%' should also be escaped, which it should be for generated values
+     * @return The value, or an escaped copy of it if needed
+     */
+    static String escape(String value, boolean escapePct) {
+        int i = 0;
+        while (i < value.length() && isUriChar(value.charAt(i), escapePct)) {
+            i++;
+        }
+        if (i == value.length()) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 16).append(value, 0, i);
+        for (byte b : value.substring(i).getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xFF);
+            if (c < 0x80 && isUriChar(c, escapePct)) {
+                sb.append(c);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit((c >> 4) & 0xF, 16)))
+                        .append(Character.toUpperCase(Character.forDigit(c & 0xF, 16)));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isUriChar(char c, boolean escapePct) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+            return true;
+        }
+        if (c == '%') {
+            return !escapePct;
+        }
+        return "-._~!$&'()*+,;=:@/?".indexOf(c) >= 0;
+    }
+}
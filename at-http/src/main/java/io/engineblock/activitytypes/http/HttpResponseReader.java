@@ -0,0 +1,148 @@
+package io.engineblock.activitytypes.http;
+
+import com.codahale.metrics.Meter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.zip.CRC32;
+
+/**
+ * <p>Reads response bodies according to the <em>response</em> mode of the
+ * activity, and maps each response to a cycle result with {@link HttpResults}.</p>
+ *
+ * <ul>
+ * <li><em>discard</em> - The body is read and dropped, so that the connection can be reused.</li>
+ * <li><em>count</em> - As with discard, but the size of each body is added to the response-bytes meter.</li>
+ * <li><em>checksum</em> - As with count, but the CRC32 of each body is compared to the value of the
+ * <em>checksum</em> statement param.</li>
+ * </ul>
+ *
+ * <p>Bodies are never held in memory. Blocking reads use a single buffer which is reused
+ * for each response, so one reader should be used for each sync action.</p>
+ */
+public class HttpResponseReader {
+
+    public enum Mode {
+        discard,
+        count,
+        checksum
+    }
+
+    /**
+     * The expected checksum value which means that no checksum is verified
+     */
+    public final static long NO_CHECKSUM = -1L;
+
+    private final Mode mode;
+    private final Meter bytesMeter;
+    private final byte[] buffer = new byte[8192];
+    private final CRC32 crc = new CRC32();
+
+    public HttpResponseReader(Mode mode, Meter bytesMeter) {
+        this.mode = mode;
+        this.bytesMeter = bytesMeter;
+    }
+
+    /**
+     * Read a response body to the end, blocking as needed.
+     *
+     * @param status   The response status code
+     * @param body     The response body, which may be null if there is none
+     * @param expected The expected checksum, or {@link #NO_CHECKSUM}
+     * @return the cycle result for the response
+     * @throws IOException if the body can not be read
+     */
+    public int read(int status, InputStream body, long expected) throws IOException {
+        long count = 0L;
+        crc.reset();
+        if (body != null) {
+            try (InputStream in = body) {
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    count += read;
+                    if (mode == Mode.checksum) {
+                        crc.update(buffer, 0, read);
+                    }
+                }
+            }
+        }
+        return complete(status, count, crc, expected);
+    }
+
+    /**
+     * Create a body handler for an async response, which completes with the cycle result.
+     *
+     * @param expected The expected checksum, or {@link #NO_CHECKSUM}
+     * @return A body handler for the cycle
+     */
+    public HttpResponse.BodyHandler<Integer> handler(long expected) {
+        if (mode == Mode.discard) {
+            return info -> HttpResponse.BodySubscribers.replacing(HttpResults.forStatus(info.statusCode()));
+        }
+        return info -> new BodyReader(info.statusCode(), expected);
+    }
+
+    private int complete(int status, long count, CRC32 checksum, long expected) {
+        if (mode != Mode.discard) {
+            bytesMeter.mark(count);
+        }
+        int result = HttpResults.forStatus(status);
+        if (result == HttpResults.OK && mode == Mode.checksum && expected != NO_CHECKSUM
+                && checksum.getValue() != expected) {
+            return HttpResults.CHECKSUM_MISMATCH;
+        }
+        return result;
+    }
+
+    /**
+     * Counts and optionally checksums an async response body as it arrives, without keeping it.
+     */
+    private class BodyReader implements HttpResponse.BodySubscriber<Integer> {
+        private final int status;
+        private final long expected;
+        private final CRC32 bodyCrc = (mode == Mode.checksum) ? new CRC32() : null;
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+        private long count = 0L;
+
+        private BodyReader(int status, long expected) {
+            this.status = status;
+            this.expected = expected;
+        }
+
+        @Override
+        public CompletionStage<Integer> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            for (ByteBuffer item : items) {
+                count += item.remaining();
+                if (bodyCrc != null) {
+                    bodyCrc.update(item);
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            result.complete(HttpResponseReader.this.complete(status, count, bodyCrc, expected));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package io.engineblock.activitytypes.http;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The cycle results of the http activity type. Cycle results are stored in
+ * cycle logs as a single byte, so status codes are mapped to their class rather
+ * than kept as they are. Only {@link #OK} is counted as a successful op.
+ */
+public class HttpResults {
+
+    /**
+     * A response with a 1xx or 2xx status, which passed any checksum verification
+     */
+    public final static int OK = 0;
+    /**
+     * A request which failed without a response
+     */
+    public final static int EXCEPTION = 1;
+    /**
+     * A response with a 2xx status, but with a body which did not match the expected checksum
+     */
+    public final static int CHECKSUM_MISMATCH = 2;
+    /**
+     * A response with a 3xx status
+     */
+    public final static int REDIRECT = 3;
+    /**
+     * A response with a 4xx status
+     */
+    public final static int CLIENT_ERROR = 4;
+    /**
+     * A response with a 5xx status
+     */
+    public final static int SERVER_ERROR = 5;
+
+    private final static Map<Integer, String> legend;
+
+    static {
+        Map<Integer, String> names = new LinkedHashMap<>();
+        names.put(OK, "OK");
+        names.put(EXCEPTION, "EXCEPTION");
+        names.put(CHECKSUM_MISMATCH, "CHECKSUM_MISMATCH");
+        names.put(REDIRECT, "REDIRECT");
+        names.put(CLIENT_ERROR, "CLIENT_ERROR");
+        names.put(SERVER_ERROR, "SERVER_ERROR");
+        legend = Collections.unmodifiableMap(names);
+    }
+
+    /**
+     * @return The names of the cycle results, by result code
+     */
+    public static Map<Integer, String> getLegend() {
+        return legend;
+    }
+
+    /**
+     * @param status An HTTP status code
+     * @return The cycle result for a response with this status code
+     */
+    public static int forStatus(int status) {
+        if (status < 300) {
+            return OK;
+        } else if (status < 400) {
+            return REDIRECT;
+        } else if (status < 500) {
+            return CLIENT_ERROR;
+        } else {
+            return SERVER_ERROR;
+        }
+    }
+}
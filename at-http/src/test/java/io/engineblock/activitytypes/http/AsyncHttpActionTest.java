@@ -0,0 +1,132 @@
+package io.engineblock.activitytypes.http;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import com.sun.net.httpserver.HttpServer;
+import io.engineblock.activityapi.core.Action;
+import io.engineblock.activityapi.core.ops.fluent.OpTrackerImpl;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.*;
+import io.engineblock.activityimpl.ActivityDef;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpRequest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class AsyncHttpActionTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            int status = exchange.getRequestURI().getPath().startsWith("/missing") ? 404 : 200;
+            byte[] body = "ok".getBytes();
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testAsyncActionIsDispensed() {
+        HttpActivity activity = newActivity("http-google.yaml");
+        Action action = new HttpActivityType().getActionDispenser(activity).getAction(0);
+        assertThat(action).isInstanceOf(AsyncHttpAction.class);
+    }
+
+    @Test
+    public void testRequestsCompleteAsync() throws InterruptedException {
+        Map<Long, Integer> results = runCycles(newActivity("http-google.yaml"), 20);
+        assertThat(results).hasSize(20);
+        assertThat(results.values()).containsOnly(HttpResults.OK);
+    }
+
+    @Test
+    public void testErrorStatusFailsOp() throws InterruptedException {
+        Map<Long, Integer> results = runCycles(newActivity("http-missing.yaml"), 4);
+        assertThat(results).hasSize(4);
+        assertThat(results.values()).containsOnly(HttpResults.CLIENT_ERROR);
+    }
+
+    @Test
+    public void testChecksumIsVerified() throws InterruptedException {
+        Map<Long, Integer> results = runCycles(newActivity("http-checksum.yaml", "response=checksum;"), 4);
+        assertThat(results).hasSize(4);
+        assertThat(results.values()).containsOnly(HttpResults.OK);
+    }
+
+    private HttpActivity newActivity(String yaml) {
+        return newActivity(yaml, "");
+    }
+
+    private HttpActivity newActivity(String yaml, String extraParams) {
+        ActivityDef ad = ActivityDef.parseActivityDef("type=http; yaml=" + yaml + "; host=localhost; port="
+                + server.getAddress().getPort() + "; async=4;" + extraParams);
+        HttpActivity activity = new HttpActivityType().getActivity(ad);
+        activity.initActivity();
+        return activity;
+    }
+
+    private Map<Long, Integer> runCycles(HttpActivity activity, int cycles) throws InterruptedException {
+        AsyncHttpAction action = new AsyncHttpAction(activity, 0);
+        action.init();
+
+        OpTrackerImpl<HttpRequest> tracker =
+                new OpTrackerImpl<>("test", 0, new Timer(), new Timer(), new Counter());
+        tracker.setMaxPendingOps(4);
+        tracker.setCycleOpFunction(action.getOpInitFunction());
+
+        Map<Long, Integer> results = new ConcurrentHashMap<>();
+        OpEvents<HttpRequest> events = new OpEvents<HttpRequest>() {
+            @Override
+            public void onOpStarted(StartedOp<HttpRequest> op) {
+                tracker.onOpStarted(op);
+            }
+
+            @Override
+            public void onOpSuccess(SucceededOp<HttpRequest> op) {
+                results.put(op.getCycle(), op.getResult());
+                tracker.onOpSuccess(op);
+            }
+
+            @Override
+            public void onOpSkipped(SkippedOp<HttpRequest> op) {
+                tracker.onOpSkipped(op);
+            }
+
+            @Override
+            public void onOpFailure(FailedOp<HttpRequest> op) {
+                results.put(op.getCycle(), op.getResult());
+                tracker.onOpFailure(op);
+            }
+        };
+
+        for (long cycle = 0; cycle < cycles; cycle++) {
+            while (tracker.isFull()) {
+                tracker.awaitCapacity(1000);
+            }
+            TrackedOp<HttpRequest> op = tracker.newOp(cycle, events);
+            action.enqueue(op.setWaitTime(0L));
+        }
+        assertThat(tracker.awaitCompletion(10000)).isTrue();
+        return results;
+    }
+}
@@ -0,0 +1,76 @@
+package io.engineblock.activitytypes.http;
+
+import com.sun.net.httpserver.HttpServer;
+import io.engineblock.activityimpl.ActivityDef;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class HttpActionTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @BeforeClass
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            int status = exchange.getRequestURI().getPath().startsWith("/missing") ? 404 : 200;
+            byte[] body = "ok".getBytes();
+            exchange.sendResponseHeaders(status, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterClass
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testSuccessIsNotRetried() {
+        HttpAction action = newAction(server.getAddress().getPort(), "http-google.yaml");
+        requests.set(0);
+        assertThat(action.runCycle(1L)).isEqualTo(HttpResults.OK);
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testFailedStatusIsRetried() {
+        HttpAction action = newAction(server.getAddress().getPort(), "http-missing.yaml");
+        requests.set(0);
+        assertThat(action.runCycle(1L)).isEqualTo(HttpResults.CLIENT_ERROR);
+        assertThat(requests.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void testRefusedConnectionIsAResult() throws IOException {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        HttpAction action = newAction(closedPort, "http-google.yaml");
+        assertThat(action.runCycle(1L)).isEqualTo(HttpResults.EXCEPTION);
+    }
+
+    private HttpAction newAction(int port, String yaml) {
+        ActivityDef ad = ActivityDef.parseActivityDef("type=http; yaml=" + yaml + "; host=localhost; port="
+                + port + "; maxTries=3;");
+        HttpActivity activity = new HttpActivityType().getActivity(ad);
+        activity.initActivity();
+        HttpAction action = new HttpAction(ad, 0, activity);
+        action.init();
+        return action;
+    }
+}
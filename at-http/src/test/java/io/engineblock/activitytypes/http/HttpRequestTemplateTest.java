@@ -0,0 +1,107 @@
+package io.engineblock.activitytypes.http;
+
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@Test
+public class HttpRequestTemplateTest {
+
+    @Test
+    public void testPlainUriStatement() {
+        Map<String, String> bindings = new HashMap<>();
+        bindings.put("id", "Identity()");
+        HttpRequestTemplate template = new HttpRequestTemplate("plain", "/item/{id}?q=a b",
+                Collections.singletonMap("requestType", "GET"), bindings);
+
+        StringBuilder buffer = new StringBuilder();
+        assertThat(template.getMethod()).isEqualTo("GET");
+        assertThat(template.bindUri(42L, "http://localhost:80", buffer)).isEqualTo("http://localhost:80/item/42?q=a%20b");
+        assertThat(template.bindPath(42L, buffer)).isEqualTo("/item/42?q=a%20b");
+        assertThat(template.getHeaderCount()).isEqualTo(0);
+        assertThat(template.hasBody()).isFalse();
+    }
+
+    @Test
+    public void testRequestStatement() {
+        Map<String, String> bindings = new HashMap<>();
+        bindings.put("id", "Identity()");
+        String stmt = "POST /item/{id} HTTP/1.1\n" +
+                "Content-Type: application/json\n" +
+                "X-Item: item-{id}\n" +
+                "\n" +
+                "{\"id\":{id}}";
+        HttpRequestTemplate template = new HttpRequestTemplate("request", stmt, Collections.emptyMap(), bindings);
+
+        StringBuilder buffer = new StringBuilder();
+        assertThat(template.getMethod()).isEqualTo("POST");
+        assertThat(template.bindUri(7L, "http://localhost:80", buffer)).isEqualTo("http://localhost:80/item/7");
+        assertThat(template.getHeaderCount()).isEqualTo(2);
+        assertThat(template.getHeaderName(1)).isEqualTo("X-Item");
+        assertThat(template.bindHeader(1, 7L, buffer)).isEqualTo("item-7");
+        assertThat(template.bindBody(7L, buffer)).isEqualTo("{\"id\":7}");
+    }
+
+    @Test
+    public void testMissingBinding() {
+        try {
+            new HttpRequestTemplate("missing", "/item/{id}", Collections.emptyMap(), Collections.emptyMap());
+            fail("A statement with an undefined binding should not compile");
+        } catch (RuntimeException expected) {
+            assertThat(expected.getMessage()).contains("id");
+        }
+    }
+
+    @Test
+    public void testChecksum() {
+        Map<String, String> bindings = new HashMap<>();
+        bindings.put("crc", "Identity()");
+        StringBuilder buffer = new StringBuilder();
+
+        HttpRequestTemplate literal = new HttpRequestTemplate("literal", "/item",
+                Collections.singletonMap("checksum", " 2044517703 "), bindings);
+        assertThat(literal.bindChecksum(3L, buffer)).isEqualTo(2044517703L);
+
+        HttpRequestTemplate bound = new HttpRequestTemplate("bound", "/item",
+                Collections.singletonMap("checksum", "{crc}"), bindings);
+        assertThat(bound.bindChecksum(3L, buffer)).isEqualTo(3L);
+
+        HttpRequestTemplate none = new HttpRequestTemplate("none", "/item", Collections.emptyMap(), bindings);
+        assertThat(none.bindChecksum(3L, buffer)).isEqualTo(HttpResponseReader.NO_CHECKSUM);
+    }
+
+    @Test
+    public void testInvalidChecksum() {
+        try {
+            new HttpRequestTemplate("hex", "/item", Collections.singletonMap("checksum", "79dd4a07"),
+                    Collections.emptyMap());
+            fail("A checksum which is not a decimal CRC32 should not compile");
+        } catch (RuntimeException expected) {
+            assertThat(expected.getMessage()).contains("79dd4a07").contains("hex");
+        }
+
+        Map<String, String> bindings = new HashMap<>();
+        bindings.put("crc", "Identity()");
+        HttpRequestTemplate bound = new HttpRequestTemplate("bound", "/item",
+                Collections.singletonMap("checksum", "0x{crc}"), bindings);
+        try {
+            bound.bindChecksum(2L, new StringBuilder());
+            fail("A bound checksum which is not a CRC32 should not be used");
+        } catch (RuntimeException expected) {
+            assertThat(expected.getMessage()).contains("0x2");
+        }
+    }
+
+    @Test
+    public void testEscape() {
+        assertThat(HttpRequestTemplate.escape("a/b?c=d&e", true)).isEqualTo("a/b?c=d&e");
+        assertThat(HttpRequestTemplate.escape("100%", true)).isEqualTo("100%25");
+        assertThat(HttpRequestTemplate.escape("100%25", false)).isEqualTo("100%25");
+        assertThat(HttpRequestTemplate.escape("é", true)).isEqualTo("%C3%A9");
+    }
+}
@@ -0,0 +1,52 @@
+package io.engineblock.activitytypes.http;
+
+import com.codahale.metrics.Meter;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class HttpResponseReaderTest {
+
+    private static ByteArrayInputStream body(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStatusMapping() {
+        assertThat(HttpResults.forStatus(200)).isEqualTo(HttpResults.OK);
+        assertThat(HttpResults.forStatus(302)).isEqualTo(HttpResults.REDIRECT);
+        assertThat(HttpResults.forStatus(404)).isEqualTo(HttpResults.CLIENT_ERROR);
+        assertThat(HttpResults.forStatus(503)).isEqualTo(HttpResults.SERVER_ERROR);
+    }
+
+    @Test
+    public void testCountMode() throws IOException {
+        Meter meter = new Meter();
+        HttpResponseReader reader = new HttpResponseReader(HttpResponseReader.Mode.count, meter);
+        assertThat(reader.read(200, body("0123456789"), HttpResponseReader.NO_CHECKSUM)).isEqualTo(HttpResults.OK);
+        assertThat(reader.read(500, body("error"), HttpResponseReader.NO_CHECKSUM)).isEqualTo(HttpResults.SERVER_ERROR);
+        assertThat(meter.getCount()).isEqualTo(15L);
+    }
+
+    @Test
+    public void testChecksumMode() throws IOException {
+        HttpResponseReader reader = new HttpResponseReader(HttpResponseReader.Mode.checksum, new Meter());
+        assertThat(reader.read(200, body("ok"), 2044517703L)).isEqualTo(HttpResults.OK);
+        assertThat(reader.read(200, body("not ok"), 2044517703L)).isEqualTo(HttpResults.CHECKSUM_MISMATCH);
+        assertThat(reader.read(404, body("ok"), 2044517703L)).isEqualTo(HttpResults.CLIENT_ERROR);
+    }
+
+    @Test
+    public void testDiscardMode() throws IOException {
+        Meter meter = new Meter();
+        HttpResponseReader reader = new HttpResponseReader(HttpResponseReader.Mode.discard, meter);
+        assertThat(reader.read(204, null, HttpResponseReader.NO_CHECKSUM)).isEqualTo(HttpResults.OK);
+        assertThat(reader.read(200, body("ignored"), 1L)).isEqualTo(HttpResults.OK);
+        assertThat(meter.getCount()).isEqualTo(0L);
+    }
+}
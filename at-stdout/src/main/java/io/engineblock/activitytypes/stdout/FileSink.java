@@ -0,0 +1,336 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activitytypes.stdout;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>A file writer for high rates of output. Each writing thread encodes statements
+ * into its own direct buffer, without contending with other threads. Full buffers are
+ * handed to a single flusher thread, which writes all of the buffers which are waiting
+ * with one gathering write to the file channel, and then returns them to a fixed pool.
+ * When the pool is empty, writers wait for the flusher, so that memory use is bounded.
+ * Buffers which are only partly filled are also flushed after the flush interval.</p>
+ *
+ * <p>Lines from the same thread stay in order, but lines from different threads are
+ * interleaved a buffer at a time. Each statement is kept whole within one buffer, so
+ * statements from different threads are never mixed together.</p>
+ *
+ * <p>Output may optionally be compressed with gzip, and may be rotated to a new file
+ * after a number of bytes has been written. Rotated files are named with the
+ * file name, a sequence number, and a .gz suffix if compressed.</p>
+ */
+public class FileSink {
+    private final static Logger logger = LoggerFactory.getLogger(FileSink.class);
+    private final static int GATHER = 16;
+
+    private final String fileName;
+    private final long rotateBytes;
+    private final boolean gzip;
+    private final long flushNanos;
+    private final BlockingQueue<ByteBuffer> pool;
+    private final BlockingQueue<ByteBuffer> full;
+    private final List<ThreadBuffer> threadBuffers = new ArrayList<>();
+    private final ThreadLocal<ThreadBuffer> threadBuffer;
+    private final Thread flusher;
+    private final byte[] gzipCopy;
+
+    private FileChannel channel;
+    private OutputStream gzipOut;
+    private int fileIndex = 0;
+    private long fileBytes = 0L;
+    private long totalBytes = 0L;
+    private volatile boolean running = true;
+    private volatile IOException error;
+
+    /**
+     * @param fileName    The file to write
+     * @param bufferSize  The size of each direct buffer
+     * @param bufferCount The number of buffers in the pool, which must be more than the number of writing threads
+     * @param rotateBytes The number of bytes after which to start a new file, or 0 to never rotate
+     * @param gzip        Whether to compress the output
+     * @param flushMillis The longest time that a partly filled buffer may wait before being written
+     */
+    public FileSink(String fileName, int bufferSize, int bufferCount, long rotateBytes, boolean gzip, long flushMillis) {
+        this.fileName = fileName;
+        this.rotateBytes = rotateBytes;
+        this.gzip = gzip;
+        this.flushNanos = flushMillis * 1_000_000L;
+        this.gzipCopy = gzip ? new byte[bufferSize] : null;
+        this.pool = new ArrayBlockingQueue<>(bufferCount);
+        this.full = new LinkedBlockingQueue<>();
+        for (int i = 0; i < bufferCount; i++) {
+            pool.add(ByteBuffer.allocateDirect(bufferSize));
+        }
+        this.threadBuffer = ThreadLocal.withInitial(this::newThreadBuffer);
+
+        try {
+            openFile();
+        } catch (IOException e) {
+            throw new RuntimeException("Error opening file " + fileName + ": " + e, e);
+        }
+
+        this.flusher = new Thread(this::flushLoop);
+        flusher.setName("FileSink/" + fileName);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private synchronized ThreadBuffer newThreadBuffer() {
+        ThreadBuffer buffer = new ThreadBuffer();
+        threadBuffers.add(buffer);
+        return buffer;
+    }
+
+    private synchronized List<ThreadBuffer> getThreadBuffers() {
+        return new ArrayList<>(threadBuffers);
+    }
+
+    public void write(String statement) {
+        if (error != null) {
+            throw new RuntimeException("Error writing to " + fileName + ": " + error, error);
+        }
+        threadBuffer.get().write(statement);
+    }
+
+    /**
+     * @return The total number of bytes written to files so far, before compression
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Write all buffered data, and close the file. This should be called once all writing threads are done.
+     */
+    public void close() {
+        for (ThreadBuffer buffer : getThreadBuffers()) {
+            buffer.handOff();
+        }
+        running = false;
+        try {
+            flusher.join();
+        } catch (InterruptedException ignored) {
+        }
+        try {
+            closeFile();
+        } catch (IOException e) {
+            throw new RuntimeException("Error closing " + fileName + ": " + e, e);
+        }
+    }
+
+    private ByteBuffer takeFromPool() {
+        while (true) {
+            try {
+                return pool.take();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private void flushLoop() {
+        ByteBuffer[] gathered = new ByteBuffer[GATHER];
+        long lastPartialFlush = System.nanoTime();
+        while (running || !full.isEmpty()) {
+            ByteBuffer first = null;
+            try {
+                first = full.poll(Math.max(1L, flushNanos / 2_000_000L), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            if (first != null) {
+                int count = 1;
+                gathered[0] = first;
+                ByteBuffer next;
+                while (count < gathered.length && (next = full.poll()) != null) {
+                    gathered[count++] = next;
+                }
+                try {
+                    if (error == null) {
+                        writeBuffers(gathered, count);
+                    }
+                } catch (IOException e) {
+                    logger.error("Error writing to " + fileName + ": " + e, e);
+                    error = e;
+                } finally {
+                    for (int i = 0; i < count; i++) {
+                        if (gathered[i].isDirect()) {
+                            gathered[i].clear();
+                            pool.add(gathered[i]);
+                        }
+                        gathered[i] = null;
+                    }
+                }
+            }
+            long now = System.nanoTime();
+            if (running && now - lastPartialFlush >= flushNanos) {
+                lastPartialFlush = now;
+                for (ThreadBuffer buffer : getThreadBuffers()) {
+                    buffer.handOffIfOlderThan(now - flushNanos);
+                }
+            }
+        }
+    }
+
+    private void writeBuffers(ByteBuffer[] buffers, int count) throws IOException {
+        long bytes = 0L;
+        for (int i = 0; i < count; i++) {
+            buffers[i].flip();
+            bytes += buffers[i].remaining();
+        }
+        if (gzip) {
+            for (int i = 0; i < count; i++) {
+                ByteBuffer buffer = buffers[i];
+                if (buffer.hasArray()) {
+                    gzipOut.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                } else {
+                    int length = buffer.remaining();
+                    buffer.get(gzipCopy, 0, length);
+                    gzipOut.write(gzipCopy, 0, length);
+                }
+            }
+        } else {
+            long remaining = bytes;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers, 0, count);
+            }
+        }
+        synchronized (this) {
+            totalBytes += bytes;
+        }
+        fileBytes += bytes;
+        if (rotateBytes > 0 && fileBytes >= rotateBytes) {
+            closeFile();
+            fileIndex++;
+            openFile();
+        }
+    }
+
+    private void openFile() throws IOException {
+        String name = fileName;
+        if (rotateBytes > 0) {
+            name = name + "." + fileIndex;
+        }
+        if (gzip) {
+            name = name + ".gz";
+        }
+        Path path = Paths.get(name);
+        channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        if (gzip) {
+            gzipOut = new GZIPOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 65536), 65536);
+        }
+        fileBytes = 0L;
+        logger.info("Writing to " + path);
+    }
+
+    private void closeFile() throws IOException {
+        if (gzipOut != null) {
+            gzipOut.close();
+            gzipOut = null;
+        } else if (channel != null) {
+            channel.close();
+        }
+        channel = null;
+    }
+
+    /**
+     * The buffer which one writing thread is currently filling. It is only locked by
+     * its own thread, except when the flusher takes a partly filled buffer. After a
+     * buffer is handed off, the writing thread takes another from the pool when it
+     * next writes. It does so without holding the lock, so that the flusher never
+     * waits for a writer which is itself waiting for the pool.
+     */
+    private final class ThreadBuffer {
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private ByteBuffer buffer;
+        private long filledSince;
+
+        private void write(String statement) {
+            CharBuffer chars = CharBuffer.wrap(statement);
+            while (!encode(chars)) {
+                ByteBuffer next = takeFromPool();
+                synchronized (this) {
+                    buffer = next;
+                    filledSince = System.nanoTime();
+                }
+            }
+        }
+
+        /**
+         * Encode a whole statement into the current buffer, so that statements are never
+         * split between buffers. A statement which is larger than an empty buffer is
+         * handed off in a buffer of its own.
+         *
+         * @return true, if the statement was encoded, or false if a new buffer is needed
+         */
+        private synchronized boolean encode(CharBuffer chars) {
+            if (buffer == null) {
+                return false;
+            }
+            int start = buffer.position();
+            encoder.reset();
+            if (!encoder.encode(chars, buffer, true).isOverflow()) {
+                return true;
+            }
+            buffer.position(start);
+            chars.rewind();
+            if (start == 0) {
+                byte[] bytes = chars.toString().getBytes(StandardCharsets.UTF_8);
+                full.add(ByteBuffer.allocate(bytes.length).put(bytes));
+                return true;
+            }
+            handOff();
+            return false;
+        }
+
+        private synchronized void handOffIfOlderThan(long filledBefore) {
+            if (buffer != null && filledSince - filledBefore <= 0) {
+                handOff();
+            }
+        }
+
+        private synchronized void handOff() {
+            if (buffer == null || buffer.position() == 0) {
+                return;
+            }
+            full.add(buffer);
+            buffer = null;
+        }
+    }
+}
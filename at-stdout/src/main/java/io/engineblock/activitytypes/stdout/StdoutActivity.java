@@ -58,6 +58,7 @@ public class StdoutActivity extends SimpleActivity implements ActivityDefObserve
     public Timer resultTimer;
     public Histogram triesHisto;
     private Writer pw;
+    private FileSink fileSink;
     private String fileName;
     private ExceptionMeterMetrics exceptionMeterMetrics;
     private int retry_delay = 0;
@@ -112,6 +113,8 @@ public class StdoutActivity extends SimpleActivity implements ActivityDefObserve
         PrintWriter pw;
         if (fileName.toLowerCase().equals("stdout")) {
             pw = new PrintWriter(System.out);
+        } else if (getParams().getOptionalString("sink").orElse("writer").equals("channel")) {
+            return createFileSinkWriter();
         } else {
             try {
                 pw = new PrintWriter(fileName);
@@ -124,6 +127,18 @@ public class StdoutActivity extends SimpleActivity implements ActivityDefObserve
         return pw;
     }
 
+    private Writer createFileSinkWriter() {
+        ParameterMap params = getParams();
+        int bufferSize = params.getOptionalLongBytes("buffersize").orElse(262144L).intValue();
+        int bufferCount = params.getOptionalInteger("buffers")
+                .orElse(activityDef.getThreads() * 2 + 2);
+        long rotateBytes = params.getOptionalLongBytes("rotate").orElse(0L);
+        boolean gzip = params.getOptionalBoolean("gzip").orElse(false);
+        long flushMillis = params.getOptionalLong("flushmillis").orElse(1000L);
+        this.fileSink = new FileSink(fileName, bufferSize, bufferCount, rotateBytes, gzip, flushMillis);
+        return new FileSinkWriterAdapter(fileSink);
+    }
+
     private OpSequence<StringBindings> initOpSequencer() {
         //List<StringBindingsTemplate> stringBindingsTemplates = new ArrayList<>();
         SequencerType sequencerType = SequencerType.valueOf(
@@ -185,7 +200,15 @@ public class StdoutActivity extends SimpleActivity implements ActivityDefObserve
         this.retries = params.getOptionalInteger("retries").orElse(3);
     }
 
-    public synchronized void write(String statement) {
+    public void write(String statement) {
+        if (fileSink != null) {
+            fileSink.write(statement);
+        } else {
+            writeWithRetries(statement);
+        }
+    }
+
+    private synchronized void writeWithRetries(String statement) {
         int tries = 0;
         Exception e = null;
         while (tries < retries) {
@@ -213,4 +236,29 @@ public class StdoutActivity extends SimpleActivity implements ActivityDefObserve
     public Boolean getShowstmts() {
         return showstmts;
     }
-}
\ No newline at end of file
+
+    /**
+     * Allows the file sink to be used and closed as the writer of this activity.
+     */
+    private static class FileSinkWriterAdapter extends Writer {
+        private final FileSink fileSink;
+
+        private FileSinkWriterAdapter(FileSink fileSink) {
+            this.fileSink = fileSink;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            fileSink.write(new String(cbuf, off, len));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            fileSink.close();
+        }
+    }
+}
@@ -5,4 +5,8 @@ import io.virtdata.templates.StringBindings;
 public class StdoutOpContext {
     StringBindings stringBindings;
     String statement;
+
+    public String getStatement() {
+        return statement;
+    }
 }
@@ -0,0 +1,132 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activitytypes.stdout;
+
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class FileSinkTest {
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        File dir = Files.createTempDirectory("filesink").toFile();
+        String fileName = new File(dir, "out.txt").getPath();
+        FileSink sink = new FileSink(fileName, 1024, 10, 0L, false, 10L);
+        writeLines(sink, 4, 5000);
+        sink.close();
+
+        List<String> lines = readLines(new FileInputStream(fileName));
+        assertThat(lines).hasSize(20000);
+        assertThat(new HashSet<>(lines)).hasSize(20000);
+        assertThat(sink.getTotalBytes()).isEqualTo(new File(fileName).length());
+    }
+
+    @Test
+    public void testPartialBuffersAreFlushed() throws Exception {
+        File dir = Files.createTempDirectory("filesink").toFile();
+        File file = new File(dir, "partial.txt");
+        FileSink sink = new FileSink(file.getPath(), 65536, 4, 0L, false, 10L);
+        sink.write("one line\n");
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (file.length() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(file.length()).isEqualTo(9L);
+        sink.close();
+    }
+
+    @Test
+    public void testStatementLargerThanBuffer() throws Exception {
+        File dir = Files.createTempDirectory("filesink").toFile();
+        String fileName = new File(dir, "large.txt").getPath();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            large.append("large");
+        }
+        FileSink sink = new FileSink(fileName, 64, 2, 0L, false, 10L);
+        sink.write("before\n");
+        sink.write(large + "\n");
+        sink.write("after\n");
+        sink.close();
+
+        List<String> lines = readLines(new FileInputStream(fileName));
+        assertThat(lines).containsExactly("before", large.toString(), "after");
+    }
+
+    @Test
+    public void testRotationWithGzip() throws Exception {
+        File dir = Files.createTempDirectory("filesink").toFile();
+        String fileName = new File(dir, "rotated.txt").getPath();
+        FileSink sink = new FileSink(fileName, 1024, 6, 10240L, true, 10L);
+        writeLines(sink, 2, 2000);
+        sink.close();
+
+        List<String> lines = new ArrayList<>();
+        int files = 0;
+        File rotated;
+        while ((rotated = new File(fileName + "." + files + ".gz")).exists()) {
+            lines.addAll(readLines(new GZIPInputStream(new FileInputStream(rotated))));
+            files++;
+        }
+        assertThat(files).isGreaterThan(1);
+        assertThat(lines).hasSize(4000);
+        assertThat(new HashSet<>(lines)).hasSize(4000);
+    }
+
+    private void writeLines(FileSink sink, int threadCount, int linesPerThread) throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < linesPerThread; i++) {
+                    sink.write("thread " + thread + " line " + i + "\n");
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    private List<String> readLines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activitytypes.tcpclient;
+
+import com.codahale.metrics.Timer;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.StartedOp;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.TrackedOp;
+import io.engineblock.activitytypes.stdout.AsyncStdoutAction;
+import io.engineblock.activitytypes.stdout.StdoutOpContext;
+
+/**
+ * An async action for pooled tcpclient connections. Each op is completed when
+ * the buffer which holds its statement has been sent, rather than when it has been
+ * written into the buffer, so that the async limit bounds the unsent statements.
+ */
+public class AsyncTCPClientAction extends AsyncStdoutAction {
+
+    private final TCPClientActivity tcpActivity;
+
+    public AsyncTCPClientAction(int slot, TCPClientActivity activity) {
+        super(slot, activity);
+        this.tcpActivity = activity;
+    }
+
+    @Override
+    public void startOpCycle(TrackedOp<StdoutOpContext> opc) {
+        StartedOp<StdoutOpContext> started = opc.start();
+        try (Timer.Context executeTime = tcpActivity.executeTimer.time()) {
+            tcpActivity.write(started.getData().getStatement(), error -> {
+                if (error == null) {
+                    started.succeed(0);
+                } else {
+                    started.fail(1);
+                }
+            });
+        }
+    }
+}
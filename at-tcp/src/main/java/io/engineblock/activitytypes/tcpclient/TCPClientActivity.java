@@ -26,10 +26,13 @@ import org.slf4j.LoggerFactory;
 import javax.net.SocketFactory;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.Socket;
+import java.util.function.Consumer;
 
 public class TCPClientActivity extends StdoutActivity {
     private final static Logger logger = LoggerFactory.getLogger(TCPClientActivity.class);
+    private TCPConnectionPool connectionPool;
 
     public TCPClientActivity(ActivityDef activityDef) {
         super(activityDef);
@@ -40,6 +43,33 @@ public class TCPClientActivity extends StdoutActivity {
         super.onActivityDefUpdate(activityDef);
     }
 
+    @Override
+    public void write(String statement) {
+        if (connectionPool != null) {
+            connectionPool.write(statement, null);
+        } else {
+            super.write(statement);
+        }
+    }
+
+    /**
+     * Write a statement, and call back when it has been sent. This is only supported
+     * with pooled connections.
+     *
+     * @param statement The statement to write
+     * @param onSent    A callback for when the statement has been sent, with the error if it could not be
+     */
+    public void write(String statement, Consumer<Exception> onSent) {
+        if (connectionPool == null) {
+            throw new RuntimeException("Callbacks on sent statements require the connections parameter");
+        }
+        connectionPool.write(statement, onSent);
+    }
+
+    public boolean isPooled() {
+        return activityDef.getParams().getOptionalInteger("connections").isPresent();
+    }
+
     @Override
     protected PrintWriter createPrintWriter() {
 
@@ -52,6 +82,14 @@ public class TCPClientActivity extends StdoutActivity {
         String host = getActivityDef().getParams().getOptionalString("host").orElse("localhost");
         int port = getActivityDef().getParams().getOptionalInteger("port").orElse(12345);
 
+        if (isPooled()) {
+            int connections = getActivityDef().getParams().getOptionalInteger("connections").orElse(1);
+            int bufferSize = getActivityDef().getParams().getOptionalInteger("buffersize").orElse(65536);
+            long flushMillis = getActivityDef().getParams().getOptionalLong("flushmillis").orElse(10L);
+            connectionPool = new TCPConnectionPool(socketFactory, host, port, connections, bufferSize, flushMillis);
+            return new PrintWriter(new PoolWriterAdapter(connectionPool));
+        }
+
         try {
             Socket socket = socketFactory.createSocket(host, port);
             logger.info("connected to " + socket.toString());
@@ -61,5 +99,26 @@ public class TCPClientActivity extends StdoutActivity {
         }
     }
 
+    private static class PoolWriterAdapter extends Writer {
+        private final TCPConnectionPool pool;
+
+        private PoolWriterAdapter(TCPConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            pool.write(new String(cbuf, off, len), null);
+        }
 
+        @Override
+        public void flush() {
+            pool.flush();
+        }
+
+        @Override
+        public void close() {
+            pool.close();
+        }
+    }
 }
@@ -18,7 +18,6 @@
 package io.engineblock.activitytypes.tcpclient;
 
 import io.engineblock.activitytypes.stdout.StdoutAction;
-import io.engineblock.activitytypes.stdout.StdoutActivity;
 import io.engineblock.activityapi.core.Action;
 import io.engineblock.activityapi.core.ActionDispenser;
 import io.engineblock.activityapi.core.ActivityType;
@@ -44,14 +43,34 @@ public class TCPClientActivityType implements ActivityType<TCPClientActivity> {
     }
 
     private static class Dispenser implements ActionDispenser {
-        private StdoutActivity activity;
+        private TCPClientActivity activity;
 
-        private Dispenser(StdoutActivity activity) {
+        private Dispenser(TCPClientActivity activity) {
             this.activity = activity;
+            if (isAsync() && !activity.isPooled()) {
+                throw new RuntimeException("The async parameter requires the connections parameter for tcpclient," +
+                        " since ops can only be completed when pooled connections have sent them.");
+            }
+            if (activity.isPooled() && hasRetryParams()) {
+                throw new RuntimeException("The retries and retry_delay parameters can not be used with the" +
+                        " connections parameter for tcpclient, since pooled connections do not retry failed writes.");
+            }
+        }
+
+        private boolean isAsync() {
+            return activity.getActivityDef().getParams().getOptionalString("async").isPresent();
+        }
+
+        private boolean hasRetryParams() {
+            return activity.getActivityDef().getParams().getOptionalString("retries").isPresent()
+                    || activity.getActivityDef().getParams().getOptionalString("retry_delay").isPresent();
         }
 
         @Override
         public Action getAction(int slot) {
+            if (isAsync()) {
+                return new AsyncTCPClientAction(slot, this.activity);
+            }
             return new StdoutAction(slot,this.activity);
         }
     }
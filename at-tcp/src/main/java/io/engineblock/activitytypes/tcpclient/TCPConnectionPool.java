@@ -0,0 +1,276 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activitytypes.tcpclient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * <p>A fixed number of client connections, each with its own write buffer and lock.
+ * Each writing thread is assigned to one connection the first time it writes, in
+ * round-robin order, so that threads only contend with the other threads which share
+ * their connection.</p>
+ *
+ * <p>Statements are encoded directly into the buffer of the connection. The buffer is
+ * sent when it is full, and by a background flusher thread when data has been waiting
+ * for longer than the flush interval. Writers may provide a callback which is called
+ * once their statement has been sent, or has failed to be sent.</p>
+ */
+public class TCPConnectionPool {
+    private final static Logger logger = LoggerFactory.getLogger(TCPConnectionPool.class);
+
+    private final PooledConnection[] connections;
+    private final AtomicInteger nextConnection = new AtomicInteger(0);
+    private final ThreadLocal<PooledConnection> assigned;
+    private final long flushNanos;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public TCPConnectionPool(SocketFactory socketFactory, String host, int port, int connectionCount,
+                             int bufferSize, long flushMillis) {
+        this.connections = new PooledConnection[connectionCount];
+        try {
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = new PooledConnection(socketFactory.createSocket(host, port), bufferSize);
+                logger.info("connected pooled connection " + i + " to " + connections[i].socket);
+            }
+        } catch (IOException e) {
+            close();
+            throw new RuntimeException("Error opening socket:" + e, e);
+        }
+        this.assigned = ThreadLocal.withInitial(
+                () -> connections[(nextConnection.getAndIncrement() & Integer.MAX_VALUE) % connections.length]);
+
+        this.flushNanos = flushMillis * 1_000_000L;
+        this.flusher = new Thread(this::flushLoop);
+        flusher.setName("TCPConnectionPool/flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Write a statement to the connection of the calling thread.
+     *
+     * @param statement The statement to write
+     * @param onSent    A callback for when the statement has been sent, with the error if it
+     *                  could not be, or null if none is needed
+     */
+    public void write(String statement, Consumer<Exception> onSent) {
+        assigned.get().write(statement, onSent);
+    }
+
+    public int getConnectionCount() {
+        return connections.length;
+    }
+
+    /**
+     * Send any buffered data on all connections.
+     */
+    public void flush() {
+        for (PooledConnection connection : connections) {
+            connection.flush();
+        }
+    }
+
+    /**
+     * Stop the flusher, then send any buffered data and close all connections.
+     */
+    public void close() {
+        running = false;
+        if (flusher != null && flusher != Thread.currentThread()) {
+            flusher.interrupt();
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (PooledConnection connection : connections) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(Math.max(1L, flushNanos / 2_000_000L));
+            } catch (InterruptedException e) {
+                continue;
+            }
+            long now = System.nanoTime();
+            for (PooledConnection connection : connections) {
+                try {
+                    connection.flushIfOlderThan(now - flushNanos);
+                } catch (Exception e) {
+                    logger.warn("Error while flushing pooled connection: " + e);
+                }
+            }
+        }
+    }
+
+    private final static class PooledConnection {
+        private final Socket socket;
+        private final OutputStream out;
+        private final ByteBuffer buffer;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private List<Consumer<Exception>> callbacks = new ArrayList<>();
+        private long firstBufferedAt;
+        private boolean closed = false;
+
+        private PooledConnection(Socket socket, int bufferSize) throws IOException {
+            this.socket = socket;
+            this.out = socket.getOutputStream();
+            this.buffer = ByteBuffer.allocate(bufferSize);
+        }
+
+        private void write(String statement, Consumer<Exception> onSent) {
+            List<Consumer<Exception>> completed = null;
+            IOException error = null;
+            synchronized (this) {
+                if (closed) {
+                    throw new RuntimeException("Unable to write to closed connection " + socket);
+                }
+                if (buffer.position() == 0) {
+                    firstBufferedAt = System.nanoTime();
+                }
+                if (onSent != null) {
+                    callbacks.add(onSent);
+                }
+                try {
+                    CharBuffer chars = CharBuffer.wrap(statement);
+                    encoder.reset();
+                    while (encoder.encode(chars, buffer, true).isOverflow()) {
+                        send();
+                    }
+                    while (encoder.flush(buffer).isOverflow()) {
+                        send();
+                    }
+                    if (!buffer.hasRemaining()) {
+                        completed = sendAndTakeCallbacks();
+                    }
+                } catch (IOException e) {
+                    error = e;
+                    buffer.clear();
+                    completed = takeCallbacks();
+                }
+            }
+            complete(completed, error);
+            if (error != null) {
+                throw new RuntimeException("Error writing to " + socket + ": " + error, error);
+            }
+        }
+
+        private void flushIfOlderThan(long bufferedBefore) {
+            boolean due;
+            synchronized (this) {
+                due = buffer.position() > 0 && firstBufferedAt - bufferedBefore <= 0;
+            }
+            if (due) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            List<Consumer<Exception>> completed;
+            IOException error = null;
+            synchronized (this) {
+                if (buffer.position() == 0 && callbacks.isEmpty()) {
+                    return;
+                }
+                try {
+                    completed = sendAndTakeCallbacks();
+                } catch (IOException e) {
+                    error = e;
+                    buffer.clear();
+                    completed = takeCallbacks();
+                }
+            }
+            complete(completed, error);
+            if (error != null) {
+                throw new RuntimeException("Error writing to " + socket + ": " + error, error);
+            }
+        }
+
+        private void send() throws IOException {
+            out.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+            firstBufferedAt = System.nanoTime();
+        }
+
+        private List<Consumer<Exception>> sendAndTakeCallbacks() throws IOException {
+            send();
+            out.flush();
+            return takeCallbacks();
+        }
+
+        /**
+         * Detach the callbacks of the sent or failed buffer, so that they can be called
+         * after the lock of this connection has been released.
+         */
+        private List<Consumer<Exception>> takeCallbacks() {
+            if (callbacks.isEmpty()) {
+                return null;
+            }
+            List<Consumer<Exception>> taken = callbacks;
+            callbacks = new ArrayList<>();
+            return taken;
+        }
+
+        private static void complete(List<Consumer<Exception>> completed, Exception error) {
+            if (completed == null) {
+                return;
+            }
+            for (int i = 0; i < completed.size(); i++) {
+                completed.get(i).accept(error);
+            }
+        }
+
+        private void close() {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.warn("Error while flushing before close: " + e);
+            }
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
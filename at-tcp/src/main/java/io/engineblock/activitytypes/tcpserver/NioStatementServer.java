@@ -0,0 +1,347 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activitytypes.tcpserver;
+
+import com.codahale.metrics.Meter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.*;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A selector based server which sends statements to any number of connected
+ * clients from a small fixed number of I/O threads. As with the thread per
+ * connection server, each statement is sent to one of the connected clients,
+ * whichever is ready for more data first.</p>
+ *
+ * <p>Statements are encoded by the calling thread into direct buffers, which are
+ * pooled and reused once they have been sent. Each I/O thread takes as many
+ * encoded statements as are waiting, up to a batch size, and sends them together
+ * with a single gathering write. When a client can not take all of the data, the
+ * rest is kept for that client until its channel is writable again.</p>
+ */
+public class NioStatementServer {
+
+    private final static Logger logger = LoggerFactory.getLogger(NioStatementServer.class);
+    private final static int BATCH = 64;
+    private final static long IDLE_POLL_MILLIS = 10L;
+
+    private final BlockingQueue<ByteBuffer> queue;
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final int bufferSize;
+    private final ThreadLocal<CharsetEncoder> encoders =
+            ThreadLocal.withInitial(StandardCharsets.UTF_8::newEncoder);
+    private final ServerSocketChannel serverChannel;
+    private final IoThread[] ioThreads;
+    private final Meter bytesMeter;
+    private final AtomicInteger connections = new AtomicInteger(0);
+    private volatile boolean running = true;
+    private int nextIoThread = 0;
+
+    public NioStatementServer(InetSocketAddress address, int ioThreadCount, int queueDepth, int bufferSize,
+                              Meter bytesMeter) throws IOException {
+        this.queue = new ArrayBlockingQueue<>(queueDepth);
+        this.bufferSize = bufferSize;
+        this.bytesMeter = bytesMeter;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, 10);
+        serverChannel.configureBlocking(false);
+
+        this.ioThreads = new IoThread[ioThreadCount];
+        for (int i = 0; i < ioThreads.length; i++) {
+            ioThreads[i] = new IoThread(i);
+        }
+        serverChannel.register(ioThreads[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public void start() {
+        for (IoThread ioThread : ioThreads) {
+            ioThread.thread.start();
+        }
+        logger.info("Started " + ioThreads.length + " I/O threads for " + getLocalAddress());
+    }
+
+    /**
+     * Encode a statement and queue it to be sent, waiting for space in the queue if needed.
+     *
+     * @param statement The statement to send
+     */
+    public void write(String statement) {
+        ByteBuffer buffer = encode(statement);
+        while (true) {
+            try {
+                queue.put(buffer);
+                return;
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private ByteBuffer encode(String statement) {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        CharsetEncoder encoder = encoders.get().reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(statement), buffer, true);
+        if (!result.isOverflow()) {
+            result = encoder.flush(buffer);
+        }
+        if (result.isOverflow()) {
+            release(buffer);
+            return ByteBuffer.wrap(statement.getBytes(StandardCharsets.UTF_8));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == bufferSize) {
+            buffer.clear();
+            pool.offer(buffer);
+        }
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    public InetSocketAddress getLocalAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+        for (IoThread ioThread : ioThreads) {
+            ioThread.selector.wakeup();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            IoThread ioThread = ioThreads[nextIoThread++ % ioThreads.length];
+            ioThread.accepted.add(channel);
+            ioThread.selector.wakeup();
+            connections.incrementAndGet();
+            logger.info("Accepted " + channel.getRemoteAddress() + " on I/O thread " + ioThread.thread.getName());
+        }
+    }
+
+    private final class IoThread implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        private final List<Connection> connections = new ArrayList<>();
+
+        private IoThread(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this);
+            thread.setName("NioStatementServer/" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    SocketChannel channel;
+                    while ((channel = accepted.poll()) != null) {
+                        connections.add(new Connection(this, channel));
+                    }
+
+                    boolean sent = false;
+                    boolean pending = false;
+                    Connection idle = null;
+                    for (int i = 0; i < connections.size(); i++) {
+                        Connection connection = connections.get(i);
+                        if (connection.hasPending()) {
+                            pending = true;
+                        } else if (connection.fill(null)) {
+                            sent |= connection.flush();
+                        } else if (idle == null) {
+                            idle = connection;
+                        }
+                    }
+
+                    if (sent) {
+                        selector.selectNow();
+                    } else if (idle != null && !pending) {
+                        // nothing is in flight, so wait for the next statement rather than for the selector
+                        ByteBuffer first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                        if (first != null && idle.fill(first)) {
+                            idle.flush();
+                        }
+                        selector.selectNow();
+                    } else {
+                        selector.select(idle != null ? 1L : IDLE_POLL_MILLIS);
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isWritable()) {
+                            ((Connection) key.attachment()).flush();
+                        }
+                    }
+                    connections.removeIf(Connection::isClosed);
+                }
+            } catch (Exception e) {
+                logger.error("Error in I/O thread " + thread.getName() + ": " + e, e);
+            } finally {
+                for (Connection connection : connections) {
+                    connection.close(null);
+                }
+                try {
+                    if (this == ioThreads[0]) {
+                        serverChannel.close();
+                    }
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * A client connection, with the encoded statements which have been taken for it but not yet sent.
+     */
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer[] batch = new ByteBuffer[BATCH];
+        private int head = 0;
+        private int count = 0;
+        private boolean closed = false;
+
+        private Connection(IoThread ioThread, SocketChannel channel) throws ClosedChannelException {
+            this.channel = channel;
+            this.key = channel.register(ioThread.selector, 0, this);
+        }
+
+        private boolean hasPending() {
+            return head < count;
+        }
+
+        private boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Take as many queued statements as are waiting, up to the batch size.
+         *
+         * @param first A statement which has already been taken from the queue, or null
+         * @return true, if any statements were taken
+         */
+        private boolean fill(ByteBuffer first) {
+            head = 0;
+            count = 0;
+            if (first != null) {
+                batch[count++] = first;
+            }
+            ByteBuffer next;
+            while (count < batch.length && (next = queue.poll()) != null) {
+                batch[count++] = next;
+            }
+            return count > 0;
+        }
+
+        /**
+         * Send as much of the taken statements as the channel will accept, with one gathering write.
+         *
+         * @return true, if any bytes were sent
+         */
+        private boolean flush() {
+            long written;
+            try {
+                written = channel.write(batch, head, count - head);
+            } catch (IOException e) {
+                close(e);
+                return false;
+            }
+            bytesMeter.mark(written);
+            while (head < count && !batch[head].hasRemaining()) {
+                release(batch[head]);
+                batch[head++] = null;
+            }
+            key.interestOps(hasPending() ? SelectionKey.OP_WRITE : 0);
+            return written > 0;
+        }
+
+        /**
+         * Close this connection. Statements which were taken for it but not started are queued
+         * again for other connections.
+         */
+        private void close(Exception cause) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            NioStatementServer.this.connections.decrementAndGet();
+            if (cause != null) {
+                logger.info("Closing connection " + channel + ": " + cause);
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            for (int i = head; i < count; i++) {
+                ByteBuffer buffer = batch[i];
+                batch[i] = null;
+                if (buffer.position() > 0 || !queue.offer(buffer)) {
+                    release(buffer);
+                }
+            }
+            head = count = 0;
+        }
+    }
+}
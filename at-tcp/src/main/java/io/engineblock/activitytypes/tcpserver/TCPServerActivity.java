@@ -19,6 +19,7 @@ package io.engineblock.activitytypes.tcpserver;
 
 import io.engineblock.activitytypes.stdout.StdoutActivity;
 import io.engineblock.activityimpl.ActivityDef;
+import io.engineblock.metrics.ActivityMetrics;
 import io.engineblock.util.SSLKsFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +31,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
@@ -46,6 +48,7 @@ public class TCPServerActivity extends StdoutActivity {
     private BlockingQueue<String> queue = new LinkedBlockingQueue<>(10);
     private ServerSocket listenerSocket;
     private List<Shutdown> managedShutdown = new ArrayList<>();
+    private NioStatementServer nioServer;
 
 
     public TCPServerActivity(ActivityDef activityDef) {
@@ -74,7 +77,11 @@ public class TCPServerActivity extends StdoutActivity {
     }
 
     @Override
-    public synchronized void write(String statement) {
+    public void write(String statement) {
+        if (nioServer != null) {
+            nioServer.write(statement);
+            return;
+        }
         while (true) {
             try {
                 queue.put(statement);
@@ -92,6 +99,16 @@ public class TCPServerActivity extends StdoutActivity {
         String host = getActivityDef().getParams().getOptionalString("host").orElse("localhost");
         int port = getActivityDef().getParams().getOptionalInteger("port").orElse(12345);
 
+        String server = getActivityDef().getParams().getOptionalString("server").orElse("threads");
+        switch (server) {
+            case "threads":
+                break;
+            case "nio":
+                return createNioWriter(host, port);
+            default:
+                throw new RuntimeException("Unknown server type '" + server + "', valid values are threads or nio");
+        }
+
         if (listenerSocket == null || listenerSocket.isClosed()) {
             try {
                 InetAddress hostAddr = InetAddress.getByName(host);
@@ -116,6 +133,28 @@ public class TCPServerActivity extends StdoutActivity {
 
     }
 
+    private synchronized Writer createNioWriter(String host, int port) {
+        if (nioServer == null) {
+            if (socketFactory instanceof SSLServerSocketFactory) {
+                throw new RuntimeException("ssl is not supported with server=nio");
+            }
+            int ioThreads = getActivityDef().getParams().getOptionalInteger("iothreads").orElse(2);
+            int queueDepth = getActivityDef().getParams().getOptionalInteger("queuedepth").orElse(1024);
+            int bufferSize = getActivityDef().getParams().getOptionalInteger("buffersize").orElse(4096);
+            try {
+                nioServer = new NioStatementServer(new InetSocketAddress(InetAddress.getByName(host), port),
+                        ioThreads, queueDepth, bufferSize, ActivityMetrics.meter(getActivityDef(), "bytes"));
+            } catch (IOException e) {
+                throw new RuntimeException("Error listening on " + host + ":" + port + ": " + e, e);
+            }
+            ActivityMetrics.gauge(getActivityDef(), "queue-depth", nioServer::getQueueDepth);
+            ActivityMetrics.gauge(getActivityDef(), "connections", nioServer::getConnectionCount);
+            managedShutdown.add(nioServer::shutdown);
+            nioServer.start();
+        }
+        return new NioWriterAdapter(nioServer);
+    }
+
     private static interface Shutdown {
         void shutdown();
     }
@@ -200,6 +239,27 @@ public class TCPServerActivity extends StdoutActivity {
 
     }
 
+    public static class NioWriterAdapter extends Writer {
+        private final NioStatementServer server;
+
+        public NioWriterAdapter(NioStatementServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            server.write(new String(cbuf, off, len));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
     public class SocketAcceptor implements Runnable, Shutdown {
         private final BlockingQueue<String> queue;
         private final ServerSocket serverSocket;
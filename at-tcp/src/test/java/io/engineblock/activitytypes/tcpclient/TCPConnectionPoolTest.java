@@ -0,0 +1,165 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activitytypes.tcpclient;
+
+import org.testng.annotations.Test;
+
+import javax.net.SocketFactory;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class TCPConnectionPoolTest {
+
+    @Test
+    public void testThreadsAreShardedAndStatementsSent() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            List<String> received = new CopyOnWriteArrayList<>();
+            AtomicInteger accepted = new AtomicInteger();
+            Thread acceptor = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        accepted.incrementAndGet();
+                        BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                        Thread reader = new Thread(() -> {
+                            try {
+                                String line;
+                                while ((line = in.readLine()) != null) {
+                                    received.add(line);
+                                }
+                            } catch (Exception ignored) {
+                            }
+                        });
+                        reader.setDaemon(true);
+                        reader.start();
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            // a small buffer, so that some statements span more than one send
+            TCPConnectionPool pool = new TCPConnectionPool(SocketFactory.getDefault(), "localhost",
+                    server.getLocalPort(), 2, 64, 5L);
+            CountDownLatch sent = new CountDownLatch(400);
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                int thread = t;
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        pool.write("thread " + thread + " statement " + i + " with some padding\n", error -> {
+                            if (error == null) {
+                                sent.countDown();
+                            }
+                        });
+                    }
+                });
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+
+            assertThat(sent.await(10, TimeUnit.SECONDS)).isTrue();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (received.size() < 400 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(accepted.get()).isEqualTo(2);
+            assertThat(received).hasSize(400);
+            assertThat(received).contains("thread 3 statement 99 with some padding");
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testCallbacksRunOutsideTheConnectionLock() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread acceptor = drainingAcceptor(server);
+            TCPConnectionPool pool = new TCPConnectionPool(SocketFactory.getDefault(), "localhost",
+                    server.getLocalPort(), 1, 1024, 1000L);
+            AtomicBoolean otherWriterBlocked = new AtomicBoolean(true);
+            pool.write("first\n", error -> {
+                // another thread which shares the connection must be able to write from here
+                Thread other = new Thread(() -> pool.write("second\n", null));
+                other.start();
+                try {
+                    other.join(5000);
+                } catch (InterruptedException ignored) {
+                }
+                otherWriterBlocked.set(other.isAlive());
+            });
+            pool.flush();
+            assertThat(otherWriterBlocked.get()).isFalse();
+            pool.close();
+            acceptor.interrupt();
+        }
+    }
+
+    @Test
+    public void testCloseStopsTheFlusher() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread acceptor = drainingAcceptor(server);
+            TCPConnectionPool pool = new TCPConnectionPool(SocketFactory.getDefault(), "localhost",
+                    server.getLocalPort(), 1, 1024, 60000L);
+            pool.close();
+            assertThat(Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.getName().equals("TCPConnectionPool/flusher"))
+                    .anyMatch(Thread::isAlive)).isFalse();
+            acceptor.interrupt();
+        }
+    }
+
+    private Thread drainingAcceptor(ServerSocket server) {
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    Thread reader = new Thread(() -> {
+                        try {
+                            byte[] buffer = new byte[1024];
+                            while (socket.getInputStream().read(buffer) >= 0) {
+                            }
+                        } catch (Exception ignored) {
+                        }
+                    });
+                    reader.setDaemon(true);
+                    reader.start();
+                }
+            } catch (Exception ignored) {
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return acceptor;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activitytypes.tcpserver;
+
+import com.codahale.metrics.Meter;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class NioStatementServerTest {
+
+    @Test
+    public void testStatementsAreSentOnceAcrossConnections() throws Exception {
+        Meter bytes = new Meter();
+        NioStatementServer server = new NioStatementServer(new InetSocketAddress("localhost", 0), 2, 16, 32, bytes);
+        server.start();
+
+        Set<String> received = ConcurrentHashMap.newKeySet();
+        Thread[] readers = new Thread[3];
+        Socket[] sockets = new Socket[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            sockets[i] = new Socket("localhost", server.getLocalAddress().getPort());
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(sockets[i].getInputStream(), StandardCharsets.UTF_8));
+            readers[i] = new Thread(() -> {
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        received.add(line);
+                    }
+                } catch (Exception ignored) {
+                }
+            });
+            readers[i].start();
+        }
+
+        long expectedBytes = 0L;
+        for (int i = 0; i < 1000; i++) {
+            // every tenth statement is larger than a pooled buffer
+            String statement = (i % 10 == 0) ? "statement " + i + " padded past the buffer size\n" : "stmt " + i + "\n";
+            expectedBytes += statement.length();
+            server.write(statement);
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received.size() < 1000 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(received).hasSize(1000);
+        assertThat(bytes.getCount()).isEqualTo(expectedBytes);
+        assertThat(server.getQueueDepth()).isEqualTo(0);
+
+        server.shutdown();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+}
@@ -26,6 +26,8 @@ import io.engineblock.activityimpl.ActivityDef;
 import io.engineblock.activityimpl.ParameterMap;
 import io.engineblock.activityimpl.SimpleActivity;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.function.Supplier;
 
 /**
@@ -181,4 +183,14 @@ public interface Activity extends Comparable<Activity>, ActivityDefObserver {
      * @return A new or existing instrumentation object for this activity.
      */
     ActivityInstrumentation getInstrumentation();
+
+    /**
+     * Get the names of the result codes which the actions of this activity return,
+     * so that they can be recorded along with cycle results, as in cycle logs.
+     *
+     * @return A map of result codes to their names, which is empty if they are not named
+     */
+    default Map<Integer, String> getResultLegend() {
+        return Collections.emptyMap();
+    }
 }
@@ -1,8 +1,10 @@
 package io.engineblock.activityapi.core.ops.fluent;
 
+import io.engineblock.activityapi.core.ops.fluent.opfacets.CompletedOp;
 import io.engineblock.activityapi.core.ops.fluent.opfacets.OpEvents;
 import io.engineblock.activityapi.core.ops.fluent.opfacets.TrackedOp;
 
+import java.util.List;
 import java.util.function.LongFunction;
 
 public interface OpTracker<D> extends OpEvents<D> {
@@ -13,10 +15,37 @@ public interface OpTracker<D> extends OpEvents<D> {
     boolean isFull();
     int getPendingOps();
 
+    /**
+     * Block until this tracker is no longer full, or until the timeout has elapsed.
+     * Only the thread which submits ops to this tracker may wait on it.
+     *
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return true, if the tracker is no longer full
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    boolean awaitCapacity(long timeout) throws InterruptedException;
+
     void setCycleOpFunction(LongFunction<D> newOpFunction);
 
     // By making the op tracker the factory for ops, we allow it to hook their event streams
     TrackedOp<D> newOp(long cycle, OpEvents<D> strideTracker);
 
-    boolean awaitCompletion(long timeout);
+    /**
+     * Block until there are no pending ops in this tracker, or until the timeout has elapsed.
+     *
+     * @param timeout The maximum time to wait, in milliseconds
+     * @return true, if there are no more pending ops
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    boolean awaitCompletion(long timeout) throws InterruptedException;
+
+    /**
+     * Return completed ops which were created by this tracker, so that they may be reused
+     * by {@link #newOp(long, OpEvents)}. The ops must not be used again by the caller.
+     * By default, ops are not reused.
+     *
+     * @param ops The completed ops
+     */
+    default void recycle(List<? extends CompletedOp<D>> ops) {
+    }
 }
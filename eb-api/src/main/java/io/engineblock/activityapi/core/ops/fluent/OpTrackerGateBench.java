@@ -0,0 +1,171 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.core.ops.fluent;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.OpImpl;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.SucceededOp;
+import io.engineblock.activityimpl.ActivityDef;
+import io.engineblock.metrics.ActivityMetrics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A JMH comparison of the async backpressure gate in {@link OpTrackerImpl}, against
+ * the monitor based wait and notify which it replaced. One thread submits ops as the
+ * motor does, waiting for capacity when the tracker is full, and three threads
+ * complete them as the callback threads of an async driver would.
+ *
+ * The <em>monitor</em> variant adds the previous monitor wait and notify on top of the
+ * same tracker, so the difference between the two is the cost of the monitor.
+ * Run the main method to compare them at several async depths.
+ */
+@State(Scope.Group)
+public class OpTrackerGateBench {
+
+    private final static Logger logger = LoggerFactory.getLogger(OpTrackerGateBench.class);
+
+    @Param({"permit", "monitor"})
+    public String gate;
+
+    @Param({"100", "1000", "10000"})
+    public int async;
+
+    private OpTrackerImpl<Void> tracker;
+    private final AtomicLong submitted = new AtomicLong(0L);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=optrackergatebench");
+        Timer serviceTimer = ActivityMetrics.timer(def, "cycles");
+        Counter pendingCounter = ActivityMetrics.counter(def, "pending");
+        tracker = gate.equals("monitor") ?
+                new MonitorOpTracker("bench", serviceTimer, pendingCounter) :
+                new OpTrackerImpl<>("bench", 0, serviceTimer, null, pendingCounter);
+        tracker.setMaxPendingOps(async);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadOp {
+        private final OpImpl<Void> op = new OpImpl<>();
+    }
+
+    @Benchmark
+    @Group("gate")
+    @GroupThreads(1)
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 2, timeUnit = TimeUnit.SECONDS, time = 5)
+    @Measurement(iterations = 3, timeUnit = TimeUnit.SECONDS, time = 5)
+    public boolean submit(ThreadOp threadOp) {
+        if (tracker.isFull() && !tracker.awaitCapacity(1)) {
+            return false;
+        }
+        tracker.onOpStarted(threadOp.op);
+        submitted.incrementAndGet();
+        return true;
+    }
+
+    @Benchmark
+    @Group("gate")
+    @GroupThreads(3)
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 2, timeUnit = TimeUnit.SECONDS, time = 5)
+    @Measurement(iterations = 3, timeUnit = TimeUnit.SECONDS, time = 5)
+    public boolean complete(ThreadOp threadOp) {
+        long available = submitted.get();
+        if (available > 0 && submitted.compareAndSet(available, available - 1)) {
+            tracker.onOpSuccess(threadOp.op);
+            return true;
+        }
+        return false;
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        while (submitted.getAndDecrement() > 0) {
+            tracker.onOpSkipped(null);
+        }
+        submitted.set(0L);
+    }
+
+    /**
+     * The previous backpressure logic, with the submitting thread waiting on the tracker
+     * monitor, and each completion taking the monitor to notify it.
+     */
+    private final static class MonitorOpTracker extends OpTrackerImpl<Void> {
+
+        private MonitorOpTracker(String name, Timer serviceTimer, Counter pendingCounter) {
+            super(name, 0, serviceTimer, null, pendingCounter);
+        }
+
+        @Override
+        public void onOpSuccess(SucceededOp<Void> op) {
+            super.onOpSuccess(op);
+            if (getPendingOps() < getMaxPendingOps()) {
+                synchronized (this) {
+                    notify();
+                }
+            }
+        }
+
+        @Override
+        public boolean awaitCapacity(long timeout) {
+            synchronized (this) {
+                if (isFull()) {
+                    try {
+                        wait(timeout);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+            }
+            return !isFull();
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            String logfile = Files.createTempFile("jmh_optrackergate", ".log").toString();
+            Options options = new OptionsBuilder()
+                    .forks(1)
+                    .include(OpTrackerGateBench.class.getSimpleName())
+                    .output(logfile)
+                    .build();
+            logger.info("running op tracker gate microbench; details in " + logfile);
+            for (RunResult result : new Runner(options).run()) {
+                logger.info(String.format("gate=%s async=%s %.3f ops/us completed",
+                        result.getParams().getParam("gate"),
+                        result.getParams().getParam("async"),
+                        result.getSecondaryResults().get("complete").getScore()));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
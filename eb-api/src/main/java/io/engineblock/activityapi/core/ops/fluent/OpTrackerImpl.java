@@ -7,13 +7,21 @@ import io.engineblock.activityapi.core.ActivityDefObserver;
 import io.engineblock.activityapi.core.ops.fluent.opfacets.*;
 import io.engineblock.activityimpl.ActivityDef;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
 import java.util.function.LongFunction;
 
 /**
  * This tracker keeps track of the state of operations associated with it.
  *
+ * The number of pending ops is used as a permit count for submitting more ops.
+ * The submitting thread registers itself as the waiter before it parks, and completing
+ * threads only unpark it when there is a waiter and a permit is available. This avoids
+ * taking a monitor on either side.
+ *
  * @param <D> The payload data type of the associated Op, based on OpImpl
  */
 public class OpTrackerImpl<D> implements OpTracker<D>, ActivityDefObserver {
@@ -24,8 +32,12 @@ public class OpTrackerImpl<D> implements OpTracker<D>, ActivityDefObserver {
     private final Timer cycleResponseTimer;
     private final Counter pendingOpsCounter;
 
-    private int maxPendingOps =1;
+    private volatile int maxPendingOps =1;
+    private volatile Thread waiter;
+    private final BooleanSupplier hasCapacity = () -> !isFull();
+    private final BooleanSupplier isIdle = () -> getPendingOps() == 0;
     private LongFunction<D> cycleOpFunction;
+    private Recycler<EventedOpImpl<D>> opRecycler;
 
 
     public OpTrackerImpl(Activity activity, long slot) {
@@ -61,9 +73,7 @@ public class OpTrackerImpl<D> implements OpTracker<D>, ActivityDefObserver {
         if (cycleResponseTimer !=null) { cycleResponseTimer.update(op.getResponseTimeNanos(), TimeUnit.NANOSECONDS); }
 
         if (pending< maxPendingOps) {
-            synchronized (this) {
-                notify();
-            }
+            wakeWaiter();
         }
     }
 
@@ -73,9 +83,7 @@ public class OpTrackerImpl<D> implements OpTracker<D>, ActivityDefObserver {
         int pending = this.pendingOps.decrementAndGet();
 
         if (pending< maxPendingOps) {
-            synchronized (this) {
-                notify();
-            }
+            wakeWaiter();
         }
 
     }
@@ -91,18 +99,45 @@ public class OpTrackerImpl<D> implements OpTracker<D>, ActivityDefObserver {
         if (cycleResponseTimer !=null) { cycleResponseTimer.update(op.getResponseTimeNanos(), TimeUnit.NANOSECONDS); }
 
         if (pending< maxPendingOps) {
-            synchronized (this) {
-                notify();
+            wakeWaiter();
+        }
+    }
+
+    private void wakeWaiter() {
+        Thread waiting = this.waiter;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    /**
+     * Park the calling thread until the condition is met or the deadline passes. The waiter is
+     * registered before the condition is checked, so that a completion which occurs in between
+     * will always see the waiter and unpark it. Parking does not clear the interrupt status of
+     * the thread, so it is checked after every park to avoid spinning on an interrupted thread.
+     */
+    private void parkUntil(BooleanSupplier condition, long deadlineNanos) throws InterruptedException {
+        this.waiter = Thread.currentThread();
+        try {
+            while (!condition.getAsBoolean()) {
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException("interrupted while waiting on " + this);
+                }
             }
+        } finally {
+            this.waiter = null;
         }
     }
 
     @Override
     public void setMaxPendingOps(int maxPendingOps) {
         this.maxPendingOps =maxPendingOps;
-        synchronized (this) {
-            notifyAll();
-        }
+        wakeWaiter();
     }
 
     @Override
@@ -115,6 +150,12 @@ public class OpTrackerImpl<D> implements OpTracker<D>, ActivityDefObserver {
         return pendingOps.intValue();
     }
 
+    @Override
+    public boolean awaitCapacity(long timeout) throws InterruptedException {
+        parkUntil(hasCapacity, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+        return !isFull();
+    }
+
     @Override
     public void setCycleOpFunction(LongFunction<D> newOpFunction) {
         this.cycleOpFunction = newOpFunction;
@@ -123,26 +164,51 @@ public class OpTrackerImpl<D> implements OpTracker<D>, ActivityDefObserver {
     @Override
     public TrackedOp<D> newOp(long cycle, OpEvents<D> strideTracker) {
         D opstate = cycleOpFunction.apply(cycle);
-        OpImpl<D> op = new EventedOpImpl<>(this,strideTracker);
+        OpImpl<D> op;
+        Recycler<EventedOpImpl<D>> recycler = opRecycler;
+        if (recycler != null) {
+            EventedOpImpl<D> recycled = recycler.acquire();
+            recycled.reset();
+            recycled.setStrideTracker(strideTracker);
+            op = recycled;
+        } else {
+            op = new EventedOpImpl<>(this,strideTracker);
+        }
         op.setCycle(cycle);
         op.setData(opstate);
         return op;
     }
 
+    /**
+     * When op recycling is enabled, completed ops are kept for reuse by {@link #newOp(long, OpEvents)},
+     * so that no new ops are created once enough have been created to cover those in flight.
+     *
+     * @param recycleOps whether to reuse completed ops
+     */
+    public void setRecycleOps(boolean recycleOps) {
+        if (recycleOps && opRecycler == null) {
+            opRecycler = new Recycler<>(() -> new EventedOpImpl<>(this));
+        } else if (!recycleOps) {
+            opRecycler = null;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void recycle(List<? extends CompletedOp<D>> ops) {
+        Recycler<EventedOpImpl<D>> recycler = opRecycler;
+        if (recycler != null) {
+            recycler.releaseAll((List<? extends EventedOpImpl<D>>) ops);
+        }
+    }
+
     public int getMaxPendingOps() {
         return maxPendingOps;
     }
 
     @Override
-    public synchronized boolean awaitCompletion(long timeout) {
-        long endAt = System.currentTimeMillis() + timeout;
-        while (getPendingOps() > 0 && System.currentTimeMillis() < endAt) {
-            try {
-                long waitfor = Math.max(0, endAt - System.currentTimeMillis());
-                wait(waitfor);
-            } catch (InterruptedException ignored) {
-            }
-        }
+    public boolean awaitCompletion(long timeout) throws InterruptedException {
+        parkUntil(isIdle, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
         return getPendingOps() == 0;
     }
 
@@ -154,6 +220,7 @@ public class OpTrackerImpl<D> implements OpTracker<D>, ActivityDefObserver {
     @Override
     public void onActivityDefUpdate(ActivityDef activityDef) {
         this.maxPendingOps=getMaxPendingOpsForThisThread(activityDef);
+        setRecycleOps(activityDef.getParams().getOptionalBoolean("recycleops").orElse(false));
     }
 
     private int getMaxPendingOpsForThisThread(ActivityDef def) {
@@ -0,0 +1,107 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.core.ops.fluent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * <p>A pool of reusable objects, for a single owning thread which acquires them,
+ * and any number of threads which release them. This fits the async motor, where
+ * the motor thread creates ops and stride trackers, and they are completed on
+ * other threads.</p>
+ *
+ * <p>The owning thread takes objects from a local stack without locking. Only
+ * when the local stack is empty are the objects which have been released by other
+ * threads moved over, all at once. Once enough objects have been created to cover
+ * the number in flight, acquiring and releasing them does not allocate.</p>
+ *
+ * <p>Objects are not reset by the pool. The caller must reset them as needed
+ * after they are acquired.</p>
+ *
+ * @param <T> The type of object pooled
+ */
+public class Recycler<T> {
+
+    private final Supplier<T> factory;
+    private final ArrayDeque<T> local = new ArrayDeque<>();
+    private final ArrayList<T> released = new ArrayList<>();
+    private long created = 0L;
+
+    public Recycler(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Acquire an object from the pool, or create a new one if none are available.
+     * This must only be called by the owning thread.
+     *
+     * @return an object which is not in use
+     */
+    public T acquire() {
+        T item = local.pollLast();
+        if (item == null) {
+            synchronized (this) {
+                for (int i = 0; i < released.size(); i++) {
+                    local.addLast(released.get(i));
+                }
+                released.clear();
+            }
+            item = local.pollLast();
+        }
+        if (item == null) {
+            created++;
+            item = factory.get();
+        }
+        return item;
+    }
+
+    /**
+     * Return an object to the pool. It must not be used again by the caller.
+     *
+     * @param item The object to return
+     */
+    public synchronized void release(T item) {
+        released.add(item);
+    }
+
+    /**
+     * Return a number of objects to the pool at once. They must not be used again by the caller.
+     *
+     * @param items The objects to return
+     */
+    public synchronized void releaseAll(List<? extends T> items) {
+        for (int i = 0; i < items.size(); i++) {
+            released.add(items.get(i));
+        }
+    }
+
+    /**
+     * @return the number of objects created by this pool, which is the most that have ever been in use at once
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    @Override
+    public String toString() {
+        return "Recycler created=" + created + " local=" + local.size();
+    }
+}
@@ -32,6 +32,15 @@ public class EventedOpImpl<D> extends OpImpl<D> {
         this.strideTracker = new NullTracker<>();
     }
 
+    /**
+     * Attach this op to a different stride tracker, as when it is reused.
+     *
+     * @param strideTracker The stride tracker which is notified of op events
+     */
+    public void setStrideTracker(OpEvents<D> strideTracker) {
+        this.strideTracker = strideTracker;
+    }
+
     @Override
     public StartedOp<D> start() {
         super.start();
@@ -28,6 +28,7 @@ public class OpImpl<D> implements OpFacets<D> {
     private long waitTime;
     private long endedAtNanos;
     private long startedAtNanos;
+    private long scheduledAtNanos = Long.MIN_VALUE;
 
     //    private long usages;
     private int tries = 0;
@@ -37,6 +38,21 @@ public class OpImpl<D> implements OpFacets<D> {
     public OpImpl() {
     }
 
+    /**
+     * Clear all of the state of this op, so that it can be reused for another cycle.
+     */
+    public void reset() {
+        this.data = null;
+        this.cycle = 0L;
+        this.cycleResult = 0;
+        this.waitTime = 0L;
+        this.endedAtNanos = Long.MIN_VALUE;
+        this.startedAtNanos = 0L;
+        this.scheduledAtNanos = Long.MIN_VALUE;
+        this.tries = 0;
+        this.skipreason = 0;
+    }
+
     @Override
     public StartedOp<D> start() {
         this.endedAtNanos = Long.MIN_VALUE;
@@ -50,11 +66,18 @@ public class OpImpl<D> implements OpFacets<D> {
     public OpImpl<D> setWaitTime(long waitTime) {
         this.endedAtNanos = Long.MIN_VALUE;
         this.waitTime = waitTime;
+        this.scheduledAtNanos = Long.MIN_VALUE;
         this.startedAtNanos = System.nanoTime();
 //        usages++;
         return this;
     }
 
+    @Override
+    public OpImpl<D> setScheduledStartTime(long scheduledStartNanos) {
+        this.scheduledAtNanos = scheduledStartNanos;
+        return this;
+    }
+
     @Override
     public SucceededOp<D> succeed(int status) {
         // TODO: Enable a debug version of OpImpl which can assert invariants (succeed is only called once after start, ...)
@@ -121,6 +144,9 @@ public class OpImpl<D> implements OpFacets<D> {
 
     @Override
     public long getCurrentResponseTimeNanos() {
+        if (scheduledAtNanos != Long.MIN_VALUE) {
+            return System.nanoTime() - scheduledAtNanos;
+        }
         return waitTime + getCurrentServiceTimeNanos();
     }
 
@@ -131,6 +157,9 @@ public class OpImpl<D> implements OpFacets<D> {
 
     @Override
     public long getResponseTimeNanos() {
+        if (scheduledAtNanos != Long.MIN_VALUE) {
+            return this.endedAtNanos - scheduledAtNanos;
+        }
         return waitTime + getServiceTimeNanos();
     }
 
@@ -145,6 +174,7 @@ public class OpImpl<D> implements OpFacets<D> {
                 "cycle=" + cycle +
                 ", result=" + cycleResult +
                 ", wait=" + waitTime +
+                (scheduledAtNanos != Long.MIN_VALUE ? ", scheduled=" + scheduledAtNanos : "") +
                 ", started=" + startedAtNanos +
                 ", ended=" + endedAtNanos +
                 ", tries=" + tries +
@@ -55,4 +55,15 @@ public interface TrackedOp<D> extends Payload<D>, CycleMutable {
      */
     TrackedOp<D> setWaitTime(long cycleDelay);
 
+    /**
+     * Indicate to this op the nanosecond instant at which it was intended to start, according
+     * to the schedule of a rate limiter. When this is set, the response time is measured
+     * from this instant to the time the op completes, rather than as wait time plus service
+     * time. This accounts for all delays between the intended start and the actual start,
+     * as needed to avoid coordinated omission.
+     * @param scheduledStartNanos The intended start time, in {@link System#nanoTime()} terms
+     * @return a TrackedOp for method chaining
+     */
+    TrackedOp<D> setScheduledStartTime(long scheduledStartNanos);
+
 }
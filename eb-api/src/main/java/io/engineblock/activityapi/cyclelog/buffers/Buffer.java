@@ -39,6 +39,15 @@ public abstract class Buffer<T extends Comparable> {
     protected void onFull() {
     }
 
+    /**
+     * Empty this buffer so that it can be reused.
+     * @param size The number of elements which will fill the buffer
+     */
+    protected void reset(int size) {
+        data.clear();
+        this.limit=size;
+    }
+
     protected abstract int compare(T one, T other);
 
     public int remaining() {
@@ -79,6 +79,14 @@ public class CycleArray implements Input {
             return (offset>=values.length);
         }
 
+        @Override
+        public int nextCycles(long[] cycles, int offset, int length) {
+            int taken = Math.min(length, values.length - this.offset);
+            System.arraycopy(values, this.offset, cycles, offset, taken);
+            this.offset += taken;
+            return taken;
+        }
+
 
     }
 }
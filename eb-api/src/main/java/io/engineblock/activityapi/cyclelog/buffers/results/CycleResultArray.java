@@ -50,6 +50,19 @@ public class CycleResultArray implements CycleResultsSegment, CanSortCycles {
     }
 
 
+    @Override
+    public int getResults(long index, long[] cycles, int[] results, int offset, int length) {
+        int copied = (int) Math.max(0L, Math.min(length, cycleResults.length - index));
+        for (int i = 0; i < copied; i++) {
+            CycleResult cycleResult = cycleResults[(int) index + i];
+            if (cycles != null) {
+                cycles[offset + i] = cycleResult.getCycle();
+            }
+            results[offset + i] = cycleResult.getResult();
+        }
+        return copied;
+    }
+
     @Override
     public Iterator<CycleResult> iterator() {
         return new CycleResultArrayIterator(cycleResults);
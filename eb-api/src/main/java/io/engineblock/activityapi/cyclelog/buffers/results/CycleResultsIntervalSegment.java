@@ -19,8 +19,11 @@ package io.engineblock.activityapi.cyclelog.buffers.results;
 
 
 
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.function.Predicate;
 
 /**
  * This is just a typed-data holder for efficient transfer of tracked data.
@@ -68,6 +71,53 @@ public class CycleResultsIntervalSegment implements CycleResultsSegment {
         return cycle;
     }
 
+    @Override
+    public int getResults(long index, long[] cycles, int[] results, int offset, int length) {
+        int copied = (int) Math.max(0L, Math.min(length, codes.length - index));
+        for (int i = 0; i < copied; i++) {
+            if (cycles != null) {
+                cycles[offset + i] = cycle + index + i;
+            }
+            results[offset + i] = codes[(int) index + i];
+        }
+        return copied;
+    }
+
+    @Override
+    public boolean isContiguous() {
+        return true;
+    }
+
+    /**
+     * Filter the codes directly when the filter is a {@link ResultFilterTable}. The segment
+     * itself is returned if all of its results are kept.
+     */
+    @Override
+    public CycleResultsSegment filter(Predicate<ResultReadable> filter) {
+        if (!(filter instanceof ResultFilterTable)) {
+            return CycleResultsSegment.super.filter(filter);
+        }
+        ResultFilterTable table = (ResultFilterTable) filter;
+        int kept = 0;
+        for (byte code : codes) {
+            kept += table.test(code) ? 1 : 0;
+        }
+        if (kept == codes.length) {
+            return this;
+        }
+        if (kept == 0) {
+            return CycleResultsSegment.EMPTY;
+        }
+        CycleResult[] results = new CycleResult[kept];
+        int index = 0;
+        for (int i = 0; i < codes.length; i++) {
+            if (table.test(codes[i])) {
+                results[index++] = new MutableCycleResult(cycle + i, codes[i]);
+            }
+        }
+        return new CycleResultArray(results);
+    }
+
 
     private class CycleSegmentIterator implements Iterator<CycleResult> {
 
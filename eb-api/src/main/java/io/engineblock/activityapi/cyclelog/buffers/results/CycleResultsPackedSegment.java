@@ -0,0 +1,182 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.buffers.results;
+
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * <p>A view of contiguous cycle results which are bit-packed in a buffer, as
+ * 1, 2, 4 or 8 bits per result. Result <em>i</em> of the buffer is held in the
+ * bits starting at bit <em>i * resultBits</em>, counting from the low bit of the
+ * first byte. The buffer is shared, not copied, so the view is only valid while
+ * the results in its range are not changed.</p>
+ */
+public class CycleResultsPackedSegment implements CycleResultsSegment {
+
+    private final long cycle;
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int position;
+    private final int count;
+    private final int resultBits;
+    private final int mask;
+
+    /**
+     * @param cycle      The cycle of the first result in the view
+     * @param buffer     The buffer which holds the packed results
+     * @param offset     The byte offset in the buffer of result 0
+     * @param position   The index of the first result in the view
+     * @param count      The number of results in the view
+     * @param resultBits The number of bits for each result, which is 1, 2, 4 or 8
+     */
+    public CycleResultsPackedSegment(long cycle, ByteBuffer buffer, int offset, int position, int count, int resultBits) {
+        if (resultBits != 1 && resultBits != 2 && resultBits != 4 && resultBits != 8) {
+            throw new RuntimeException("resultBits must be 1, 2, 4 or 8, not " + resultBits);
+        }
+        this.cycle = cycle;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.position = position;
+        this.count = count;
+        this.resultBits = resultBits;
+        this.mask = (1 << resultBits) - 1;
+    }
+
+    /**
+     * @param index the index of a result within this view
+     * @return the result
+     */
+    public int getResult(int index) {
+        return getPacked(buffer, offset, position + index, resultBits);
+    }
+
+    /**
+     * Read one packed result directly from a buffer.
+     *
+     * @param buffer     The buffer which holds the packed results
+     * @param offset     The byte offset in the buffer of result 0
+     * @param index      The index of the result
+     * @param resultBits The number of bits for each result
+     * @return the result
+     */
+    public static int getPacked(ByteBuffer buffer, int offset, long index, int resultBits) {
+        long bit = index * resultBits;
+        int value = buffer.get(offset + (int) (bit >>> 3)) & 0xFF;
+        return (value >>> (bit & 7)) & ((1 << resultBits) - 1);
+    }
+
+    public int getResultBits() {
+        return resultBits;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public long getMinCycle() {
+        return cycle;
+    }
+
+    @Override
+    public int getResults(long index, long[] cycles, int[] results, int offset, int length) {
+        int copied = (int) Math.max(0L, Math.min(length, count - index));
+        for (int i = 0; i < copied; i++) {
+            if (cycles != null) {
+                cycles[offset + i] = cycle + index + i;
+            }
+            results[offset + i] = getResult((int) index + i);
+        }
+        return copied;
+    }
+
+    @Override
+    public boolean isContiguous() {
+        return true;
+    }
+
+    /**
+     * Filter the packed results directly when the filter is a {@link ResultFilterTable}.
+     * The segment itself is returned if all of its results are kept.
+     */
+    @Override
+    public CycleResultsSegment filter(Predicate<ResultReadable> filter) {
+        if (!(filter instanceof ResultFilterTable)) {
+            return CycleResultsSegment.super.filter(filter);
+        }
+        ResultFilterTable table = (ResultFilterTable) filter;
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            kept += table.test(getResult(i)) ? 1 : 0;
+        }
+        if (kept == count) {
+            return this;
+        }
+        if (kept == 0) {
+            return CycleResultsSegment.EMPTY;
+        }
+        CycleResult[] results = new CycleResult[kept];
+        int index = 0;
+        for (int i = 0; i < count; i++) {
+            int result = getResult(i);
+            if (table.test(result)) {
+                results[index++] = new MutableCycleResult(cycle + i, result);
+            }
+        }
+        return new CycleResultArray(results);
+    }
+
+    @Override
+    public Iterator<CycleResult> iterator() {
+        return new Iterator<CycleResult>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < count;
+            }
+
+            @Override
+            public CycleResult next() {
+                if (index >= count) {
+                    throw new NoSuchElementException();
+                }
+                MutableCycleResult result = new MutableCycleResult(cycle + index, getResult(index));
+                index++;
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CycleResultsPackedSegment{cycle=").append(cycle)
+                .append(", count=").append(count)
+                .append(", resultBits=").append(resultBits)
+                .append(", results=[");
+        for (int i = 0; i < Math.min(count, 100); i++) {
+            sb.append(i == 0 ? "" : ",").append(getResult(i));
+        }
+        return sb.append(count > 100 ? ",...]}" : "]}").toString();
+    }
+}
@@ -28,6 +28,47 @@ public interface CycleResultsSegment extends Comparable<CycleResultsSegment>, It
     long getCount();
     long getMinCycle();
 
+    /**
+     * Copy cycles and results from this segment into arrays, without creating a
+     * {@link CycleResult} for each one. Callers which read a whole segment should call
+     * this repeatedly, advancing the index by the number copied, until it returns 0.
+     *
+     * @param index   The index within this segment of the first result to copy
+     * @param cycles  An array to copy cycles into, or null if only results are needed
+     * @param results An array to copy results into
+     * @param offset  The position in the arrays to copy to
+     * @param length  The most results to copy
+     * @return the number of results copied, which is less than length only at the end of the segment
+     */
+    default int getResults(long index, long[] cycles, int[] results, int offset, int length) {
+        Iterator<CycleResult> iterator = iterator();
+        for (long skipped = 0; skipped < index && iterator.hasNext(); skipped++) {
+            iterator.next();
+        }
+        int copied = 0;
+        while (copied < length && iterator.hasNext()) {
+            CycleResult result = iterator.next();
+            if (cycles != null) {
+                cycles[offset + copied] = result.getCycle();
+            }
+            results[offset + copied] = result.getResult();
+            copied++;
+        }
+        return copied;
+    }
+
+    /**
+     * When a segment is contiguous, its cycles are every cycle from {@link #getMinCycle()}
+     * in order, so only its results need to be read. A contiguous segment which is also
+     * a {@link ResultReadable} has the same result for every cycle, and can be handled as
+     * a single interval.
+     *
+     * @return true if the cycles of this segment are contiguous
+     */
+    default boolean isContiguous() {
+        return false;
+    }
+
     // TODO: Specialize this for push-down performance
     default CycleResultsSegment filter(Predicate<ResultReadable> filter) {
         CycleResult[] filteredResults = StreamSupport.stream(spliterator(), false).filter(filter).toArray(CycleResult[]::new);
@@ -19,6 +19,8 @@ package io.engineblock.activityapi.cyclelog.buffers.results;
 
 
 
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+
 import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.function.Predicate;
@@ -75,9 +77,38 @@ public class CycleResultsSegmentReadable implements CycleResultsSegment {
         return Long.MIN_VALUE;
     }
 
+    @Override
+    public int getResults(long index, long[] cycles, int[] results, int offset, int length) {
+        int copied = (int) Math.max(0L, Math.min(length, getCount() - index));
+        int position = (int) index * BYTES;
+        for (int i = 0; i < copied; i++, position += BYTES) {
+            if (cycles != null) {
+                cycles[offset + i] = buf.getLong(position);
+            }
+            results[offset + i] = buf.get(position + Long.BYTES);
+        }
+        return copied;
+    }
+
     // TODO: Make this work with RLE segments
     @Override
     public CycleResultsSegment filter(Predicate<ResultReadable> filter) {
+        if (filter instanceof ResultFilterTable) {
+            ResultFilterTable table = (ResultFilterTable) filter;
+            int kept = 0;
+            for (int offset = 0; offset + BYTES <= buf.limit(); offset += BYTES) {
+                kept += table.test(buf.get(offset + Long.BYTES)) ? 1 : 0;
+            }
+            CycleResult[] results = new CycleResult[kept];
+            int index = 0;
+            for (int offset = 0; index < kept; offset += BYTES) {
+                int result = buf.get(offset + Long.BYTES);
+                if (table.test(result)) {
+                    results[index++] = new MutableCycleResult(buf.getLong(offset), result);
+                }
+            }
+            return new CycleResultArray(results);
+        }
         CycleResult[] filteredResults = StreamSupport.stream(spliterator(), false).filter(filter).toArray(CycleResult[]::new);
         return new CycleResultArray(filteredResults);
     }
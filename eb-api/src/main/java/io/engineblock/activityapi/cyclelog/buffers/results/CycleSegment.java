@@ -48,6 +48,24 @@ public interface CycleSegment {
         return values;
     }
 
+    /**
+     * Take the next cycles into an array which the caller provides, rather than
+     * allocating a new one.
+     *
+     * @param cycles An array to take cycles into
+     * @param offset The position in the array to start at
+     * @param length The most cycles to take
+     * @return the number of cycles taken, which is less than length only when the segment
+     * is exhausted
+     */
+    default int nextCycles(long[] cycles, int offset, int length) {
+        int taken = 0;
+        while (taken < length && !isExhausted()) {
+            cycles[offset + taken++] = nextCycle();
+        }
+        return taken;
+    }
+
     /**
      * Return the value of the next cycle which would be returned by {@link #nextCycle()}}
      * without modifying the segment, or a negative number if the cycle range would be
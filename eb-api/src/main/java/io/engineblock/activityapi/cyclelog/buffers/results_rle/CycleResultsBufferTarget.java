@@ -0,0 +1,62 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.buffers.results_rle;
+
+import io.engineblock.activityapi.cyclelog.inputs.cyclelog.CanFilterResultValue;
+import io.engineblock.activityapi.output.Output;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer which cycle results are encoded into as spans, one extent at a time,
+ * so that each extent can be appended to a cycle log as it is filled.
+ */
+public interface CycleResultsBufferTarget extends Output, CanFilterResultValue {
+
+    /**
+     * @return true when there may not be room for another span after the run
+     * which is still open, so the extent should be handed off.
+     */
+    boolean isFull();
+
+    /**
+     * Record the same result for a contiguous interval of cycles, as if each cycle was
+     * recorded with {@link #onCycleResult(long, int)}, but in one step.
+     *
+     * @param min     The first cycle of the interval
+     * @param nextMin The cycle after the last cycle of the interval
+     * @param result  The result of every cycle in the interval
+     * @return true if the interval was recorded
+     */
+    boolean onCycleSpan(long min, long nextMin, int result);
+
+    /**
+     * Flush any open run, and return the encoded extent for reading.
+     * @return a buffer with the extent data between its position and limit
+     */
+    ByteBuffer toByteBuffer();
+
+    /**
+     * @return the lowest cycle in any span written so far, or Long.MAX_VALUE if there are none
+     */
+    long getMinCycle();
+
+    /**
+     * @return the highest end cycle, exclusive, of any span written so far, or Long.MIN_VALUE if there are none
+     */
+    long getEndCycle();
+}
@@ -0,0 +1,150 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.buffers.results_rle;
+
+import io.engineblock.activityapi.cyclelog.buffers.CycleResultSegmentsReadable;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.function.Predicate;
+
+/**
+ * Reads the spans of one or more extents which were encoded by a
+ * {@link CycleResultsDeltaBufferTarget}, in order. Reading stops at the first extent
+ * with a length of zero, which is space that was allocated but not written, or at
+ * the first extent which is longer than the remaining data.
+ * <p>This is <em>not</em> a threadsafe iterator. It references buffer data
+ * that is presumed to be access by only one reader for the sake of efficiency.
+ */
+public class CycleResultsDeltaBufferReadable implements CycleResultSegmentsReadable {
+
+    private final ByteBuffer buf;
+    private final int resultBits;
+
+    /**
+     * @param buf        The extent data, between its position and limit
+     * @param resultBits The number of bits which results were packed into, or 0 if they were not
+     */
+    public CycleResultsDeltaBufferReadable(ByteBuffer buf, int resultBits) {
+        this.buf = buf;
+        this.resultBits = resultBits;
+    }
+
+    public Iterator<CycleResultsSegment> iterator(Predicate<ResultReadable> filter) {
+        return new ResultSpanIterator(buf.duplicate(), filter);
+    }
+
+    @Override
+    public Iterator<CycleResultsSegment> iterator() {
+        return new ResultSpanIterator(buf.duplicate(), null);
+    }
+
+    static long getVarLong(ByteBuffer buf) {
+        long value = 0L;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private class ResultSpanIterator implements Iterator<CycleResultsSegment> {
+        private final ByteBuffer iterbuf;
+        private final Predicate<ResultReadable> filter;
+        private final long resultMask = (1L << resultBits) - 1;
+        private int extentEnd;
+        private long previousEnd;
+        private CycleResultsSegment next;
+
+        private ResultSpanIterator(ByteBuffer buf, Predicate<ResultReadable> filter) {
+            this.iterbuf = buf;
+            this.filter = filter;
+            this.extentEnd = buf.position();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && nextExtent()) {
+                CycleSpanResults csr = read(iterbuf);
+                if (filter == null || filter.test(csr)) {
+                    next = csr;
+                }
+            }
+            return next != null;
+        }
+
+        /**
+         * @return true if there is more span data in the current extent or in the next one
+         */
+        private boolean nextExtent() {
+            if (iterbuf.position() < extentEnd) {
+                return true;
+            }
+            if (iterbuf.limit() - extentEnd < Integer.BYTES) {
+                return false;
+            }
+            int length = iterbuf.getInt(extentEnd);
+            if (length <= 0 || length > iterbuf.limit() - extentEnd - Integer.BYTES) {
+                iterbuf.position(iterbuf.limit());
+                return false;
+            }
+            iterbuf.position(extentEnd + Integer.BYTES);
+            extentEnd += Integer.BYTES + length;
+            previousEnd = 0L;
+            return true;
+        }
+
+        @Override
+        public CycleResultsSegment next() {
+            if (next == null) {
+                hasNext();
+                if (next == null) {
+                    throw new RuntimeException("Possible call to next() without calling hasNext(). There was no remaining unfiltered data.");
+                }
+            }
+            CycleResultsSegment wasNext = this.next;
+            next = null;
+            return wasNext;
+        }
+
+        private CycleSpanResults read(ByteBuffer iterbuf) {
+            long token = getVarLong(iterbuf);
+            int result = (int) (token & resultMask);
+            token >>>= resultBits;
+            long min = previousEnd;
+            if ((token & 1L) != 0L) {
+                long zigzag = getVarLong(iterbuf);
+                min += (zigzag >>> 1) ^ -(zigzag & 1L);
+            }
+            long nextMin = min + (token >>> 1);
+            if (resultBits == 0) {
+                result = iterbuf.get();
+            }
+            previousEnd = nextMin;
+            return new CycleSpanResults(min, nextMin, result);
+        }
+
+        public String toString() {
+            return "ResultSpanIterator (" + iterbuf.toString() + ")";
+        }
+    }
+}
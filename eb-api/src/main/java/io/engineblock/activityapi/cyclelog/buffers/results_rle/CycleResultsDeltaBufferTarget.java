@@ -0,0 +1,228 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.buffers.results_rle;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+/**
+ * <p>A compact alternative to {@link CycleResultsRLEBufferTarget}, which encodes each
+ * span in as few as one or two bytes instead of the fixed (long,long,byte) tuple.</p>
+ *
+ * <p>Each extent starts with its length in bytes (int), followed by the spans. Each span
+ * is encoded as a varint token, which holds the span length, a flag for whether the span
+ * starts somewhere other than where the previous one ended, and optionally the result:
+ * <pre>token = ((length &lt;&lt; 1 | gapFlag) &lt;&lt; resultBits) | result</pre>
+ * When the gap flag is set, the distance from the end of the previous span to the start
+ * of this one follows as a zig-zag varint, so that spans which are out of order can still
+ * be encoded. When resultBits is 0, the result is not packed into the token, and follows
+ * as a byte instead. Otherwise, results must be between 0 and 2^resultBits-1.</p>
+ *
+ * <p>The first span in each extent is encoded relative to cycle 0, so every extent can be
+ * read without any of the extents before it.</p>
+ *
+ * This is not thread-safe. It is not meant to be used by concurrent callers.
+ */
+public class CycleResultsDeltaBufferTarget implements CycleResultsBufferTarget {
+    private final static Logger logger = LoggerFactory.getLogger(CycleResultsDeltaBufferTarget.class);
+
+    /**
+     * The most bytes that any one span may be encoded in: a token and a gap of up to ten
+     * varint bytes each, and a result byte.
+     */
+    public final static int MAX_SPAN_BYTES = 10 + 10 + 1;
+    public final static int MAX_RESULT_BITS = 7;
+
+    private ByteBuffer buf;
+    private final int resultBits;
+    private final int resultLimit;
+    private long lastCycle = Long.MIN_VALUE;
+    private long lastResult = Integer.MIN_VALUE;
+    private long runlength = 0L;
+    private long previousEnd = 0L;
+    private boolean flushed = false;
+    private long min = Long.MAX_VALUE;
+    private long endCycle = Long.MIN_VALUE;
+    private ResultFilterTable filter;
+
+    /**
+     * @param buf        A cleared buffer to encode into
+     * @param resultBits The number of bits to pack results into, or 0 to store each result as a byte
+     */
+    public CycleResultsDeltaBufferTarget(ByteBuffer buf, int resultBits) {
+        if (resultBits < 0 || resultBits > MAX_RESULT_BITS) {
+            throw new RuntimeException("resultBits must be between 0 and " + MAX_RESULT_BITS + ", not " + resultBits);
+        }
+        this.buf = buf;
+        this.resultBits = resultBits;
+        this.resultLimit = (resultBits == 0) ? Byte.MAX_VALUE : (1 << resultBits) - 1;
+        buf.putInt(0);
+    }
+
+    /**
+     * @param capacityInBytes The size of the buffer to allocate
+     * @param resultBits      The number of bits to pack results into, or 0 to store each result as a byte
+     */
+    public CycleResultsDeltaBufferTarget(int capacityInBytes, int resultBits) {
+        this(ByteBuffer.allocate(capacityInBytes), resultBits);
+    }
+
+    @Override
+    public boolean onCycleResult(long cycle, int result) {
+        return onCycleSpan(cycle, cycle + 1, result);
+    }
+
+    @Override
+    public boolean onCycleSpan(long start, long end, int result) {
+        if (filter != null && !filter.test(result)) {
+            return true;
+        }
+        if (start != lastCycle + 1 || lastResult != result) {
+            if (lastCycle != Long.MIN_VALUE) {
+                checkpoint(lastCycle + 1 - runlength, lastCycle + 1, lastResult);
+            }
+        }
+        lastCycle = end - 1;
+        lastResult = result;
+        runlength += end - start;
+        flushed = false;
+        return true;
+    }
+
+    public boolean onCycleResult(CycleResult cycleResult) {
+        return this.onCycleResult(cycleResult.getCycle(), cycleResult.getResult());
+    }
+
+    private void checkpoint(long istart, long iend, long lastResult) {
+        if (lastCycle < 0) {
+            if (lastCycle != Long.MIN_VALUE) {
+                throw new RuntimeException("Unable to encode cycle values less than 0");
+            }
+            logger.trace("checkpoint with no active RLE segment data.");
+            return;
+        }
+        if (lastResult < (resultBits == 0 ? Byte.MIN_VALUE : 0) || lastResult > resultLimit) {
+            throw new RuntimeException("Unable to encode result value " + lastResult + " with "
+                    + (resultBits == 0 ? "a byte" : resultBits + " result bits") + ".");
+        }
+        if (buf.remaining() < MAX_SPAN_BYTES) {
+            buf = resize(buf);
+        }
+        long gap = istart - previousEnd;
+        long token = ((iend - istart) << 1) | (gap != 0 ? 1 : 0);
+        token = (token << resultBits) | (resultBits == 0 ? 0 : lastResult);
+        putVarLong(buf, token);
+        if (gap != 0) {
+            putVarLong(buf, (gap << 1) ^ (gap >> 63));
+        }
+        if (resultBits == 0) {
+            buf.put((byte) lastResult);
+        }
+        previousEnd = iend;
+        min = Math.min(min, istart);
+        endCycle = Math.max(endCycle, iend);
+        runlength = 0;
+    }
+
+    /**
+     * Write a value as an unsigned LEB128 varint, seven bits at a time, low bits first.
+     */
+    static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private ByteBuffer resize(ByteBuffer buf) {
+        ByteBuffer doubled = ByteBuffer.allocate(buf.capacity() * 2);
+        buf.flip();
+        doubled.put(buf);
+        logger.warn("resized buffer to " + doubled + " to ensure capacity.");
+        return doubled;
+    }
+
+    private void flush() {
+        if (!flushed) {
+            checkpoint(lastCycle + 1 - runlength, lastCycle + 1, lastResult);
+            flushed = true;
+        }
+        buf.putInt(0, buf.position() - Integer.BYTES);
+    }
+
+    /**
+     * @return a readable view of the extent, after flushing any open run
+     */
+    public CycleResultsDeltaBufferReadable toSegmentsReadable() {
+        return new CycleResultsDeltaBufferReadable(toByteBuffer(), resultBits);
+    }
+
+    @Override
+    public ByteBuffer toByteBuffer() {
+        flush();
+        ByteBuffer bb = buf.duplicate();
+        bb.flip();
+        return bb;
+    }
+
+    /**
+     * The run which is still open and the one which may be started next each take at most
+     * {@link #MAX_SPAN_BYTES}, so the extent is full when there is not room for both.
+     */
+    @Override
+    public boolean isFull() {
+        return buf.remaining() < MAX_SPAN_BYTES * 2;
+    }
+
+    @Override
+    public long getMinCycle() {
+        return min;
+    }
+
+    @Override
+    public long getEndCycle() {
+        return endCycle;
+    }
+
+    public int getRawBufferCapacity() {
+        return buf.capacity();
+    }
+
+    /**
+     * @return the number of bytes written so far, including the extent length
+     */
+    public int getEncodedBytes() {
+        return buf.position();
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    @Override
+    public void setFilter(Predicate<ResultReadable> filter) {
+        this.filter = ResultFilterTable.compile(filter);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.cyclelog.buffers.results_rle;
+
+import io.engineblock.activityapi.cyclelog.buffers.CycleResultSegmentsReadable;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH comparison of the cycle log span encodings. Each invocation encodes or decodes
+ * the results of a fixed number of cycles, where the result changes every
+ * <em>runlength</em> cycles, so that short run lengths stand for fragmented results.
+ * The <em>packed</em> encoding is the delta encoding with results packed into 3 bits.
+ *
+ * Run the main method to report the time per cycle and the encoded size of each case.
+ */
+@State(Scope.Thread)
+public class CycleResultsEncodingBench {
+
+    private final static Logger logger = LoggerFactory.getLogger(CycleResultsEncodingBench.class);
+    private final static int CYCLES = 1_000_000;
+
+    @Param({"rle", "delta", "packed"})
+    public String encoding;
+
+    @Param({"1", "10", "1000"})
+    public int runlength;
+
+    private ByteBuffer encoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        encoded = encode(encoding, runlength);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(CYCLES)
+    @Warmup(iterations = 2, timeUnit = TimeUnit.SECONDS, time = 5)
+    @Measurement(iterations = 3, timeUnit = TimeUnit.SECONDS, time = 5)
+    public ByteBuffer encodeCycles() {
+        return encode(encoding, runlength);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(CYCLES)
+    @Warmup(iterations = 2, timeUnit = TimeUnit.SECONDS, time = 5)
+    @Measurement(iterations = 3, timeUnit = TimeUnit.SECONDS, time = 5)
+    public long decodeCycles() {
+        long count = 0L;
+        for (CycleResultsSegment segment : readable(encoding, encoded.duplicate())) {
+            count += segment.getCount();
+        }
+        return count;
+    }
+
+    private static ByteBuffer encode(String encoding, int runlength) {
+        CycleResultsBufferTarget target;
+        switch (encoding) {
+            case "delta":
+                target = new CycleResultsDeltaBufferTarget(CYCLES / runlength * 3 + 64, 0);
+                break;
+            case "packed":
+                target = new CycleResultsDeltaBufferTarget(CYCLES / runlength * 3 + 64, 3);
+                break;
+            default:
+                target = new CycleResultsRLEBufferTarget(CYCLES / runlength + 1);
+        }
+        for (long cycle = 0; cycle < CYCLES; cycle++) {
+            target.onCycleResult(cycle, (int) ((cycle / runlength) % 4));
+        }
+        return target.toByteBuffer();
+    }
+
+    private static CycleResultSegmentsReadable readable(String encoding, ByteBuffer encoded) {
+        switch (encoding) {
+            case "delta":
+                return new CycleResultsDeltaBufferReadable(encoded, 0);
+            case "packed":
+                return new CycleResultsDeltaBufferReadable(encoded, 3);
+            default:
+                return new CycleResultsRLEBufferReadable(encoded);
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            String logfile = Files.createTempFile("jmh_cycleresults_encoding", ".log").toString();
+            Options options = new OptionsBuilder()
+                    .forks(1)
+                    .include(CycleResultsEncodingBench.class.getSimpleName())
+                    .output(logfile)
+                    .build();
+            logger.info("running cycle result encoding microbench; details in " + logfile);
+            for (RunResult result : new Runner(options).run()) {
+                String encoding = result.getParams().getParam("encoding");
+                int runlength = Integer.parseInt(result.getParams().getParam("runlength"));
+                logger.info(String.format("%s encoding=%s runlength=%d %.3f ns/cycle %d bytes",
+                        result.getParams().getBenchmark(),
+                        encoding,
+                        runlength,
+                        result.getPrimaryResult().getScore(),
+                        encode(encoding, runlength).remaining()));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -19,8 +19,7 @@ package io.engineblock.activityapi.cyclelog.buffers.results_rle;
 
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
 import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
-import io.engineblock.activityapi.cyclelog.inputs.cyclelog.CanFilterResultValue;
-import io.engineblock.activityapi.output.Output;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,7 +38,7 @@ import java.util.function.Predicate;
  * automatically {@link #flush()} and invalidate the writable buffer, so further writes
  * will be deemed invalid and will cause an exception to be thrown.
  */
-public class CycleResultsRLEBufferTarget implements Output,CanFilterResultValue {
+public class CycleResultsRLEBufferTarget implements CycleResultsBufferTarget {
     private final static Logger logger = LoggerFactory.getLogger(CycleResultsRLEBufferTarget.class);
 
     public final static int BYTES = Long.BYTES + Long.BYTES + Byte.BYTES;
@@ -51,7 +50,8 @@ public class CycleResultsRLEBufferTarget implements Output,CanFilterResultValue
     private boolean flushed = false;
     private long count=0L;
     private long min=Long.MAX_VALUE;
-    private Predicate<ResultReadable> filter;
+    private long endCycle=Long.MIN_VALUE;
+    private ResultFilterTable filter;
 
     /**
      * Create a buffer with the provided ByteBuffer.
@@ -91,6 +91,7 @@ public class CycleResultsRLEBufferTarget implements Output,CanFilterResultValue
         return new CycleResultsRLEBufferReadable(readable);
     }
 
+    @Override
     public ByteBuffer toByteBuffer() {
         flush();
         ByteBuffer bb = buf.duplicate();
@@ -110,19 +111,23 @@ public class CycleResultsRLEBufferTarget implements Output,CanFilterResultValue
      */
     @Override
     public boolean onCycleResult(long cycle, int result) {
-        ResultReadableWrapper resultReadableWrapper = new ResultReadableWrapper(result);
-        if (filter!=null && !filter.test(resultReadableWrapper)) {
+        return onCycleSpan(cycle, cycle + 1, result);
+    }
+
+    @Override
+    public boolean onCycleSpan(long start, long end, int result) {
+        if (filter!=null && !filter.test(result)) {
             return true;
         }
-        if (cycle != lastCycle + 1 || lastResult != result) {
+        if (start != lastCycle + 1 || lastResult != result) {
             if (lastCycle != Long.MIN_VALUE) {
                 checkpoint(lastCycle + 1 - runlength, lastCycle + 1, lastResult);
             }
         }
 
-        lastCycle = cycle;
+        lastCycle = end - 1;
         lastResult = result;
-        runlength++;
+        runlength += end - start;
         flushed = false;
         return true;
     }
@@ -136,6 +141,8 @@ public class CycleResultsRLEBufferTarget implements Output,CanFilterResultValue
         }
         if (lastCycle>=0) {
             buf.putLong(istart).putLong(iend).put((byte) lastResult);
+            min = Math.min(min, istart);
+            endCycle = Math.max(endCycle, iend);
             runlength = 0;
             return;
         }
@@ -146,14 +153,6 @@ public class CycleResultsRLEBufferTarget implements Output,CanFilterResultValue
         }
     }
 
-    private static class ResultReadableWrapper implements ResultReadable {
-        private int result;
-        ResultReadableWrapper(int result) {
-            this.result = result;
-        }
-        public int getResult() { return result; }
-    }
-
     private ByteBuffer resize(ByteBuffer buf) {
         ByteBuffer doubled=ByteBuffer.allocate(buf.capacity()*2);
         buf.flip();
@@ -170,6 +169,29 @@ public class CycleResultsRLEBufferTarget implements Output,CanFilterResultValue
         return buf.capacity() / BYTES;
     }
 
+    /**
+     * @return the number of tuples written to the internal ByteBuffer so far, not
+     * including any incomplete run which has not been flushed.
+     */
+    public int getRecordCount() {
+        return buf.position() / BYTES;
+    }
+
+    @Override
+    public boolean isFull() {
+        return getRecordCount() + 1 >= getRecordCapacity();
+    }
+
+    @Override
+    public long getMinCycle() {
+        return min;
+    }
+
+    @Override
+    public long getEndCycle() {
+        return endCycle;
+    }
+
     /**
      * Flushes any partial data that was submitted (an incomplete run of results,
      * for example), to the internal ByteBuffer, and marks flushed status.
@@ -195,6 +217,6 @@ public class CycleResultsRLEBufferTarget implements Output,CanFilterResultValue
 
     @Override
     public void setFilter(Predicate<ResultReadable> filter) {
-        this.filter = filter;
+        this.filter = ResultFilterTable.compile(filter);
     }
 }
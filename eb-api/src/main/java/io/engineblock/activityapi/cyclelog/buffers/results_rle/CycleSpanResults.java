@@ -44,7 +44,7 @@ public class CycleSpanResults implements CycleResultsSegment, ResultReadable {
 
     @Override
     public long getCount() {
-        return (int) nextMin-min;
+        return nextMin - min;
     }
 
     @Override
@@ -57,6 +57,23 @@ public class CycleSpanResults implements CycleResultsSegment, ResultReadable {
         return result;
     }
 
+    @Override
+    public int getResults(long index, long[] cycles, int[] results, int offset, int length) {
+        int copied = (int) Math.max(0L, Math.min(length, getCount() - index));
+        for (int i = 0; i < copied; i++) {
+            if (cycles != null) {
+                cycles[offset + i] = min + index + i;
+            }
+            results[offset + i] = result;
+        }
+        return copied;
+    }
+
+    @Override
+    public boolean isContiguous() {
+        return true;
+    }
+
     public String toString() {
         return "[" + min + "," + nextMin + ")->" + result;
     }
@@ -0,0 +1,116 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.filters;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+
+import java.util.function.Predicate;
+
+/**
+ * <p>A result filter which has been compiled to a lookup table. Since result codes
+ * are stored as bytes, a filter is evaluated once for each value from 0 to 255 when
+ * it is compiled, and is then applied with a single array lookup, without creating
+ * any objects to pass to it. Results outside of this range are passed to the original
+ * filter.</p>
+ *
+ * <p>Result filters only see the result of a cycle, so any filter chain, such as a
+ * {@link io.engineblock.activityapi.cyclelog.filters.tristate.ResultFilteringSieve},
+ * can be compiled this way, as long as it gives the same answer each time for the
+ * same result. Segments of results, which can read their results directly, apply a
+ * compiled filter to all of their results at once.</p>
+ */
+public class ResultFilterTable implements Predicate<ResultReadable> {
+
+    public final static int SIZE = 256;
+
+    private final boolean[] table = new boolean[SIZE];
+    private final Predicate<ResultReadable> source;
+    private final int kept;
+
+    private ResultFilterTable(Predicate<ResultReadable> source) {
+        this.source = source;
+        int kept = 0;
+        for (int i = 0; i < SIZE; i++) {
+            int result = i;
+            table[i] = source.test(() -> result);
+            kept += table[i] ? 1 : 0;
+        }
+        this.kept = kept;
+    }
+
+    /**
+     * @param filter A result filter, or null
+     * @return the compiled form of the filter, or null if it was null
+     */
+    public static ResultFilterTable compile(Predicate<ResultReadable> filter) {
+        if (filter == null || filter instanceof ResultFilterTable) {
+            return (ResultFilterTable) filter;
+        }
+        return new ResultFilterTable(filter);
+    }
+
+    /**
+     * @param result A result code
+     * @return true if the result passes the filter
+     */
+    public boolean test(int result) {
+        if ((result & ~0xFF) == 0) {
+            return table[result];
+        }
+        return source.test(() -> result);
+    }
+
+    @Override
+    public boolean test(ResultReadable resultReadable) {
+        return test(resultReadable.getResult());
+    }
+
+    /**
+     * @return true if every result from 0 to 255 passes the filter
+     */
+    public boolean keepsAll() {
+        return kept == SIZE;
+    }
+
+    /**
+     * @return true if no result from 0 to 255 passes the filter
+     */
+    public boolean keepsNone() {
+        return kept == 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ResultFilterTable{keep=");
+        int runStart = -1;
+        String delim = "";
+        for (int i = 0; i <= SIZE; i++) {
+            boolean keep = i < SIZE && table[i];
+            if (keep && runStart < 0) {
+                runStart = i;
+            } else if (!keep && runStart >= 0) {
+                sb.append(delim).append(runStart);
+                if (i - 1 > runStart) {
+                    sb.append("-").append(i - 1);
+                }
+                delim = ",";
+                runStart = -1;
+            }
+        }
+        return sb.append("}").toString();
+    }
+}
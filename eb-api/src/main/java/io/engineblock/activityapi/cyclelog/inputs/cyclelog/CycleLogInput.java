@@ -18,12 +18,12 @@
 package io.engineblock.activityapi.cyclelog.inputs.cyclelog;
 
 import io.engineblock.activityapi.core.Activity;
-import io.engineblock.activityapi.cyclelog.buffers.results.CycleSegment;
-import io.engineblock.activityapi.cyclelog.buffers.results.CycleSegmentBuffer;
-import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.CycleResultSegmentsReadable;
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleSegment;
 import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
-import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsRLEBufferReadable;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+import io.engineblock.activityapi.cyclelog.outputs.cyclelog.CycleLogFormat;
 import io.engineblock.activityapi.input.Input;
 import io.engineblock.util.SimpleConfig;
 
@@ -32,27 +32,58 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 
+/**
+ * <p>An {@link Input} which provides the cycles in a cycle log. The spans in the file are
+ * indexed one extent at a time, using the extent index of the {@link CycleLogFormat}, when
+ * readers first reach the extent. Each call to {@link #getInputSegment(int)} claims the
+ * next range of cycles with one atomic add, and only takes a lock when it is the first to
+ * reach a new extent. The extent which readers start from only moves forward. The claimed range is read directly from the spans which contain it.
+ * Extents which all readers have passed are no longer referenced, so only the spans of the
+ * extents in use are held in memory.</p>
+ *
+ * <p>Since every cycle within a span has the same result, filters are applied once
+ * for each span while indexing, rather than for each cycle. Spans are read with the
+ * encoding of the file.</p>
+ *
+ * <p>When a start cycle is given, as with <em>input=type:cyclelog,start:1000</em>, cycles
+ * before it are skipped. For versioned cycle logs, the index in the file is used to find
+ * where to start, so that earlier extents are not read at all.</p>
+ */
 public class CycleLogInput implements Input, AutoCloseable, Iterable<CycleResultsSegment>, CanFilterResultValue {
     private final static Logger logger = LoggerFactory.getLogger(CycleLogInput.class);
-    private final Iterator<CycleResultsSegment> cycleResultSegmentIterator;
+    private final AtomicLong nextPosition = new AtomicLong(0L);
     private RandomAccessFile raf;
     private MappedByteBuffer mbb;
-    private Iterator<CycleResult> segmentIter;
     private Predicate<ResultReadable> filter;
+    private CycleLogFormat format;
+    private long startCycle;
+    private final AtomicReference<Extent> current = new AtomicReference<>();
+    private volatile long cycleCount = -1L;
 
     public CycleLogInput(Activity activity) {
         SimpleConfig conf = new SimpleConfig(activity, "input");
         mbb = initMappedBuffer(conf.getString("file").orElse(activity.getAlias()) + ".cyclelog");
-        cycleResultSegmentIterator = iterator();
-        segmentIter = cycleResultSegmentIterator.next().iterator();
+        init(conf.getLong("start").orElse(Long.MIN_VALUE));
     }
 
     public CycleLogInput(String filename) {
+        this(filename, Long.MIN_VALUE);
+    }
+
+    /**
+     * @param filename   The cycle log file, with or without the .cyclelog extension
+     * @param startCycle The first cycle to provide. Cycles before it in the file are skipped.
+     */
+    public CycleLogInput(String filename, long startCycle) {
         File cycleFile = null;
         try {
             cycleFile = new File(filename);
@@ -66,60 +97,97 @@ public class CycleLogInput implements Input, AutoCloseable, Iterable<CycleResult
             throw new RuntimeException(e);
         }
         mbb = initMappedBuffer(cycleFile.getPath());
-        cycleResultSegmentIterator = new CycleResultsRLEBufferReadable(mbb).iterator();
-        segmentIter = cycleResultSegmentIterator.next().iterator();
+        init(startCycle);
+    }
+
+    private void init(long startCycle) {
+        this.format = CycleLogFormat.read(mbb);
+        this.startCycle = startCycle;
+        this.current.set(firstExtent(null));
+        logger.debug("reading " + format);
+    }
+
+    private ByteBuffer getSpanData(int fromOffset, int toOffset) {
+        ByteBuffer data = mbb.duplicate();
+        data.limit(toOffset);
+        data.position(fromOffset);
+        return data.slice();
     }
 
+    private Extent firstExtent(Predicate<ResultReadable> filter) {
+        int extent = format.seekExtent(startCycle);
+        return (extent < format.getExtentCount()) ? new Extent(extent, 0L, filter) : null;
+    }
+
+    /**
+     * @return the metadata of the cycle log
+     */
+    public CycleLogFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Set the filter for the cycles of this input. This starts reading the spans again,
+     * so it should be called before any cycles are taken.
+     * @param filter A result filter, or null for none
+     */
     @Override
     public void setFilter(Predicate<ResultReadable> filter) {
-        this.filter = filter;
+        this.filter = ResultFilterTable.compile(filter);
+        this.current.set(firstExtent(this.filter));
+        this.cycleCount = -1L;
+        nextPosition.set(0L);
     }
 
+    /**
+     * The current extent is read before the claim is made. It is only moved forward by
+     * threads which have already claimed a position in it, so it can not be past any
+     * position that is claimed after it is read.
+     */
     @Override
-    public synchronized CycleSegment getInputSegment(int segmentLength) {
-
-        CycleSegmentBuffer csb = new CycleSegmentBuffer(segmentLength);
-
-        while (csb.remaining() > 0) {
+    public CycleSegment getInputSegment(int segmentLength) {
+        Extent first = this.current.get();
+        long start = nextPosition.getAndAdd(segmentLength);
+        Extent extent = first;
+        while (extent != null && start >= extent.getEndPosition()) {
+            extent = extent.next();
+        }
+        if (extent == null) {
+            return null;
+        }
+        advanceTo(first, extent);
+        return new SpanSegment(extent, start, start + segmentLength);
+    }
 
-            while (!segmentIter.hasNext() && cycleResultSegmentIterator.hasNext()) {
-                segmentIter = cycleResultSegmentIterator.next().iterator();
+    /**
+     * Move the current extent forward to the given one, unless another thread has already
+     * moved it as far.
+     */
+    private void advanceTo(Extent seen, Extent extent) {
+        while (seen != null && seen.extent < extent.extent) {
+            if (this.current.compareAndSet(seen, extent)) {
+                return;
             }
-            if (segmentIter.hasNext()) {
-                CycleResult cycleResult = segmentIter.next();
-                if (filter==null || filter.test(cycleResult)) {
-                    csb.append(cycleResult.getCycle());
-                }
-            } else {
-                if (csb.remaining() == segmentLength) {
-                    return null;
-                } else {
-                    break;
-                }
+            seen = this.current.get();
+        }
+    }
+
+    /**
+     * Count the cycles which this input provides, after filtering. The first call reads
+     * every extent from the start cycle on, without keeping their spans.
+     * @return the number of cycles which this input provides, after filtering
+     */
+    public long getCycleCount() {
+        long count = this.cycleCount;
+        if (count < 0L) {
+            count = 0L;
+            for (Extent extent = firstExtent(filter); extent != null; extent = extent.next()) {
+                count = extent.getEndPosition();
             }
+            this.cycleCount = count;
         }
-        return csb.toReadable();
-    }
-
-//            // acquire a buffered interval result
-//            if (currentBuffer == null) {
-//                currentBuffer = CycleResultsRLEBufferReadable.forOneRleSpan(mbb);
-//                if (currentBuffer == null) {
-//                    // or return null if none are left
-//                    return null;
-//                } else {
-//                    strider = new CycleResultStrider(currentBuffer.getCycleResultIterable().iterator());
-//                }
-//            }
-//            CycleResultsSegment cycleResultsSegment = strider.getCycleResultsSegment(remaining);
-//            if (cycleResultsSegment!=null) {
-//                for (CycleResult cycleResult : cycleResultsSegment) {
-//                    csb.append(cycleResult.getCycle());
-//                }
-//            }
-//            // else try again, because there are apparently more RLESegments to read.
-//
-//            remaining = csb.remaining();
+        return count;
+    }
 
     private MappedByteBuffer initMappedBuffer(String filename) {
         File filepath = new File(filename);
@@ -146,11 +214,230 @@ public class CycleLogInput implements Input, AutoCloseable, Iterable<CycleResult
 
     @Override
     public Iterator<CycleResultsSegment> iterator() {
-        CycleResultsRLEBufferReadable cycleResultsSegments = new CycleResultsRLEBufferReadable(mbb.duplicate());
+        CycleResultSegmentsReadable cycleResultsSegments =
+                format.getSpansReadable(getSpanData(format.getDataStart(), format.getDataEnd()));
         if (cycleResultsSegments instanceof CanFilterResultValue) {
             ((CanFilterResultValue)cycleResultsSegments).setFilter(filter);
         }
         return cycleResultsSegments.iterator();
     }
 
+    /**
+     * An extent of the cycle log, with its spans indexed, and the position of its first
+     * cycle in the sequence of all cycles which this input provides. The next extent is
+     * indexed when it is first needed.
+     */
+    private final class Extent {
+        private final int extent;
+        private final long firstPosition;
+        private final Predicate<ResultReadable> filter;
+        private final SpanIndex spans;
+        private Extent next;
+
+        private Extent(int extent, long firstPosition, Predicate<ResultReadable> filter) {
+            this.extent = extent;
+            this.firstPosition = firstPosition;
+            this.filter = filter;
+            this.spans = new SpanIndex(format.getSpansReadable(
+                    getSpanData(format.getExtentStart(extent), format.getExtentEnd(extent))), filter, startCycle);
+        }
+
+        private long getEndPosition() {
+            return firstPosition + spans.getCycleCount();
+        }
+
+        /**
+         * @return the next extent, which is indexed by the first caller, or null if this is the last one
+         */
+        private synchronized Extent next() {
+            if (next == null && extent + 1 < format.getExtentCount()) {
+                next = new Extent(extent + 1, getEndPosition(), filter);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * The spans of an extent which pass the filter, with the number of cycles before
+     * each of them. This is used to find the span which holds any position in the
+     * sequence of cycles with a binary search. Spans which end before the start cycle
+     * are left out, and spans which contain it are read as if they began with it.
+     */
+    private final static class SpanIndex {
+        private final long[] minCycles;
+        private final long[] positions;
+        private final int spanCount;
+
+        private SpanIndex(CycleResultSegmentsReadable spans, Predicate<ResultReadable> filter, long startCycle) {
+            long[] mins = new long[1024];
+            long[] starts = new long[1025];
+            int count = 0;
+            int total = 0;
+            long position = 0L;
+            for (CycleResultsSegment span : spans) {
+                total++;
+                long min = Math.max(span.getMinCycle(), startCycle);
+                long nextMin = span.getMinCycle() + span.getCount();
+                if (nextMin <= min) {
+                    continue;
+                }
+                if (filter != null && span.filter(filter).getCount() == 0) {
+                    continue;
+                }
+                if (count == mins.length) {
+                    mins = Arrays.copyOf(mins, count * 2);
+                    starts = Arrays.copyOf(starts, count * 2 + 1);
+                }
+                mins[count] = min;
+                starts[count] = position;
+                position += nextMin - min;
+                count++;
+            }
+            starts[count] = position;
+            this.spanCount = count;
+            this.minCycles = mins;
+            this.positions = starts;
+            logger.trace("indexed " + count + " of " + total + " spans, with " + position + " cycles");
+        }
+
+        private long getCycleCount() {
+            return positions[spanCount];
+        }
+
+        private int getSpanCount() {
+            return spanCount;
+        }
+
+        /**
+         * @param position a position in the sequence of cycles
+         * @return the index of the span which holds it
+         */
+        private int findSpan(long position) {
+            int low = 0;
+            int high = spanCount - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (positions[mid] <= position) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private long getMinCycle(int span) {
+            return minCycles[span];
+        }
+
+        private long getSpanEnd(int span) {
+            return positions[span + 1];
+        }
+
+        private long getSpanStart(int span) {
+            return positions[span];
+        }
+    }
+
+    /**
+     * The cycles at a range of positions, which are read from the spans as they are
+     * needed. The range may run past the last cycle of the input, in which case the
+     * segment is exhausted at the last cycle.
+     */
+    private final static class SpanSegment implements CycleSegment {
+        private final long end;
+        private long position;
+        private Extent extent;
+        private int span;
+        private long spanEnd;
+        private long cycleOffset;
+
+        private SpanSegment(Extent extent, long start, long end) {
+            this.extent = extent;
+            this.position = start;
+            this.end = end;
+            setSpan(extent.spans.findSpan(start - extent.firstPosition));
+        }
+
+        private void setSpan(int span) {
+            SpanIndex spans = extent.spans;
+            this.span = span;
+            this.spanEnd = extent.firstPosition + spans.getSpanEnd(span);
+            this.cycleOffset = spans.getMinCycle(span) - (extent.firstPosition + spans.getSpanStart(span));
+        }
+
+        /**
+         * Move to the span which holds the current position, in this extent or a later one.
+         * @return true, if there is a cycle at the current position
+         */
+        private boolean hasCycle() {
+            if (position >= end) {
+                return false;
+            }
+            if (position < spanEnd) {
+                return true;
+            }
+            if (span + 1 < extent.spans.getSpanCount()) {
+                setSpan(span + 1);
+                return true;
+            }
+            Extent next = extent.next();
+            while (next != null && next.spans.getSpanCount() == 0) {
+                next = next.next();
+            }
+            if (next == null) {
+                return false;
+            }
+            extent = next;
+            setSpan(0);
+            return true;
+        }
+
+        @Override
+        public long nextCycle() {
+            if (!hasCycle()) {
+                return -100;
+            }
+            return cycleOffset + position++;
+        }
+
+        @Override
+        public long peekNextCycle() {
+            if (!hasCycle()) {
+                return -100;
+            }
+            return cycleOffset + position;
+        }
+
+        @Override
+        public boolean isExhausted() {
+            return !hasCycle();
+        }
+
+        /**
+         * Expand the cycles of each span into the array directly, one span at a time.
+         */
+        @Override
+        public long[] nextCycles(int len) {
+            long[] values = new long[len];
+            int i = nextCycles(values, 0, len);
+            while (i < len) {
+                values[i++] = -100;
+            }
+            return values;
+        }
+
+        @Override
+        public int nextCycles(long[] cycles, int offset, int length) {
+            int i = 0;
+            while (i < length && hasCycle()) {
+                long runEnd = Math.min(Math.min(end, spanEnd), position + (length - i));
+                while (position < runEnd) {
+                    cycles[offset + i++] = cycleOffset + position++;
+                }
+            }
+            return i;
+        }
+    }
+
 }
@@ -21,37 +21,75 @@ import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultArray;
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegmentReadable;
 import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
 import io.engineblock.activityapi.cyclelog.inputs.cyclelog.CanFilterResultValue;
 import io.engineblock.activityapi.output.Output;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.PriorityQueue;
 import java.util.function.Predicate;
 
 /**
- * This will implement a result buffer that puts cycles in order when possible,
- * according to a sliding window.
+ * <p>This will implement a result buffer that puts cycles in order when possible,
+ * according to a sliding window.</p>
+ *
+ * <p>Segments which arrive are kept in a min-heap, ordered by their first cycle. When the
+ * input is contiguous, a low watermark is kept, which is the lowest cycle that has not
+ * been seen yet. Since every cycle below the watermark has been seen, and every cycle
+ * at it may still be in flight, segments are released from the top of the heap as soon
+ * as they start at or below the watermark, and the watermark moves to the end of each
+ * released segment. Contiguous runs are thus passed on as soon as they are complete,
+ * without waiting for the window to fill.</p>
+ *
+ * <p>The window bounds how many cycles are held. When more are held, such as when
+ * a cycle is never completed, or when the input is not contiguous and there is no
+ * watermark, the lowest segments are released anyway, which may be out of order.</p>
+ *
+ * <p>Filters are applied after the watermark has been moved past each segment, so that
+ * results which are filtered out do not hold back the ones after them.</p>
  */
 public class ReorderingConcurrentResultBuffer implements Output, CanFilterResultValue {
 
     private final static Logger logger = LoggerFactory.getLogger(ReorderingConcurrentResultBuffer.class);
 
-    private LinkedList<CycleResultsSegment> segments = new LinkedList<>();
+    private final PriorityQueue<PendingSegment> pending = new PriorityQueue<>();
     private Output downstream;
     private final int threshold;
-    private int currentCount;
-    private int segmentCount;
+    private long currentCount;
+    private long watermark;
+    private final boolean tracking;
     private Predicate<ResultReadable> resultFilter;
 
     public ReorderingConcurrentResultBuffer(Output downstream) {
         this(downstream,1000);
     }
 
+    /**
+     * Create a buffer without a watermark, which only releases segments when
+     * the window is full.
+     * @param downstream The output to pass results to
+     * @param threshold The number of cycles to hold
+     */
     public ReorderingConcurrentResultBuffer(Output downstream, int threshold) {
         this.downstream = downstream;
         this.threshold = threshold;
+        this.tracking = false;
+        this.watermark = Long.MIN_VALUE;
+    }
+
+    /**
+     * Create a buffer for results from a contiguous input, which releases each run of
+     * results as soon as all of the cycles before it have been seen.
+     * @param downstream The output to pass results to
+     * @param threshold The most cycles to hold while waiting for earlier ones
+     * @param firstCycle The first cycle of the input
+     */
+    public ReorderingConcurrentResultBuffer(Output downstream, int threshold, long firstCycle) {
+        this.downstream = downstream;
+        this.threshold = threshold;
+        this.tracking = true;
+        this.watermark = firstCycle;
     }
 
     @Override
@@ -62,36 +100,68 @@ public class ReorderingConcurrentResultBuffer implements Output, CanFilterResult
 
     @Override
     public synchronized void onCycleResultSegment(CycleResultsSegment segment) {
-        if (resultFilter!=null) {
-            segment = segment.filter(resultFilter);
-        }
         if (!(segment instanceof CanSortCycles)) {
             segment = new CycleResultArray(segment);
         }
+        if (segment.getCount()==0) {
+            return;
+        }
         ((CanSortCycles)segment).sort();
-        segments.add(segment);
-        segmentCount++;
+        PendingSegment next = new PendingSegment(segment);
+        if (tracking && next.min<=watermark && pending.isEmpty()) {
+            release(next);
+            return;
+        }
+        pending.add(next);
         currentCount+=segment.getCount();
-        if (currentCount>=threshold) {
-            logger.trace("Reordering threshold met: " + currentCount +"/" + threshold + ", sorting and pushing. (" + segments.size() + " segments)");
-            Collections.sort(segments);
-            while(currentCount>=threshold) {
-                CycleResultsSegment head = segments.removeFirst();
-                downstream.onCycleResultSegment(head);
-                segmentCount--;
-                currentCount-=head.getCount();
+        while (tracking && !pending.isEmpty() && pending.peek().min<=watermark) {
+            releaseLowest();
+        }
+        if (currentCount>threshold) {
+            logger.trace("Reordering window exceeded: " + currentCount +"/" + threshold + ", pushing. (" + pending.size() + " segments)");
+            while (currentCount>threshold) {
+                releaseLowest();
+            }
+        }
+    }
+
+    private void releaseLowest() {
+        PendingSegment head = pending.poll();
+        currentCount-=head.segment.getCount();
+        release(head);
+    }
+
+    private void release(PendingSegment head) {
+        watermark = Math.max(watermark, head.end);
+        CycleResultsSegment segment = head.segment;
+        if (resultFilter!=null) {
+            segment = segment.filter(resultFilter);
+            if (segment.getCount()==0) {
+                return;
             }
         }
+        downstream.onCycleResultSegment(segment);
+    }
+
+    /**
+     * @return the lowest cycle which has not been released yet, when the input is contiguous
+     */
+    public synchronized long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @return the number of cycles which are being held
+     */
+    public synchronized long getPendingCount() {
+        return currentCount;
     }
 
     @Override
     public synchronized void close() throws Exception {
-        logger.trace("closing and flushing " + segments.size() + " segments");
-        Collections.sort(segments);
-        for (CycleResultsSegment segment : segments) {
-            downstream.onCycleResultSegment(segment);
-            segmentCount--;
-            currentCount-=segment.getCount();
+        logger.trace("closing and flushing " + pending.size() + " segments");
+        while (!pending.isEmpty()) {
+            releaseLowest();
         }
         downstream.close();
 
@@ -99,7 +169,36 @@ public class ReorderingConcurrentResultBuffer implements Output, CanFilterResult
 
     @Override
     public void setFilter(Predicate<ResultReadable> filter) {
-        this.resultFilter = filter;
+        this.resultFilter = ResultFilterTable.compile(filter);
+
+    }
+
+    /**
+     * A sorted segment, with the cycle after its last one.
+     */
+    private final static class PendingSegment implements Comparable<PendingSegment> {
+        private final CycleResultsSegment segment;
+        private final long min;
+        private final long end;
 
+        private PendingSegment(CycleResultsSegment segment) {
+            this.segment = segment;
+            this.min = segment.getMinCycle();
+            long count = segment.getCount();
+            if (segment.isContiguous()) {
+                this.end = min + count;
+            } else if (count > 0) {
+                long[] last = new long[1];
+                segment.getResults(count - 1, last, new int[1], 0, 1);
+                this.end = last[0] + 1;
+            } else {
+                this.end = min + 1;
+            }
+        }
+
+        @Override
+        public int compareTo(PendingSegment other) {
+            return Long.compare(min, other.min);
+        }
     }
 }
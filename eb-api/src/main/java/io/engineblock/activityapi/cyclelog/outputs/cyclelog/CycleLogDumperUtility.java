@@ -19,12 +19,12 @@ package io.engineblock.activityapi.cyclelog.outputs.cyclelog;
 
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
-import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsRLEBufferReadable;
 
 import java.io.File;
 import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Map;
 
 public class CycleLogDumperUtility {
 
@@ -59,27 +59,30 @@ public class CycleLogDumperUtility {
             throw new RuntimeException(e);
         }
 
-        int readsize = 100;
-
-        if (mbb.remaining() > 0) {
-            CycleResultsRLEBufferReadable readable = null;
-            while (mbb.remaining() > 0) {
-                readable = new CycleResultsRLEBufferReadable(readsize, mbb);
-
-                for (CycleResultsSegment segment : readable) {
-                    switch (displayType) {
-                        case cycles:
-                            for (CycleResult cycleResult : segment) {
-                                System.out.println(cycleResult);
-                            }
-                            break;
-                        case spans:
-                            System.out.println(segment.toString());
-                            break;
+        CycleLogFormat format = CycleLogFormat.read(mbb);
+        if (format.getVersion() > 0) {
+            System.out.println("# " + format);
+            for (Map.Entry<Integer, String> entry : format.getLegend().entrySet()) {
+                System.out.println("# result " + entry.getKey() + "=" + entry.getValue());
+            }
+        }
+        mbb.limit(format.getDataEnd());
+        mbb.position(format.getDataStart());
 
+        for (CycleResultsSegment segment : format.getSpansReadable(mbb.slice())) {
+            if (segment.getCount() <= 0) {
+                continue;
+            }
+            switch (displayType) {
+                case cycles:
+                    for (CycleResult cycleResult : segment) {
+                        System.out.println(cycleResult);
                     }
+                    break;
+                case spans:
+                    System.out.println(segment.toString());
+                    break;
 
-                }
             }
 
         }
@@ -0,0 +1,264 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.cyclelog.outputs.cyclelog;
+
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Appends filled cycle log extents to a file from a background thread, so that
+ * the thread which fills an extent does not wait for file I/O. Extents which are
+ * waiting are written together with a single gathering write.</p>
+ *
+ * <p>The file is extended in large chunks ahead of the data, rather than for each
+ * extent, and is synced to disk once enough bytes have been written or enough time
+ * has passed since the last sync, rather than after every extent. When the writer is
+ * closed, the file is truncated to the length of the data and synced.</p>
+ *
+ * <p>The number of extents waiting to be written is bounded. When the backlog is
+ * full, callers of {@link #write(ByteBuffer)} wait for the writer to catch up. Queueing
+ * an extent and closing the writer exclude each other, so every extent which is accepted
+ * is written before the file is closed.</p>
+ */
+public class CycleLogExtentWriter implements AutoCloseable {
+    private final static Logger logger = LoggerFactory.getLogger(CycleLogExtentWriter.class);
+
+    private final File file;
+    private final FileChannel channel;
+    private final long preallocateBytes;
+    private final long syncNanos;
+    private final long syncBytes;
+    private final BlockingQueue<ByteBuffer> backlog;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final Thread writerThread;
+    private final Object queueLock = new Object();
+    private Timer writeTimer;
+    private Timer syncTimer;
+
+    private long written = 0L;
+    private long allocated = 0L;
+    private long unsyncedBytes = 0L;
+    private long lastSyncAt = System.nanoTime();
+    private volatile boolean running = true;
+    private volatile Exception error;
+
+    /**
+     * @param file             The file to write, which is replaced if it exists
+     * @param preallocateBytes The number of bytes to extend the file by when more room is needed
+     * @param syncMillis       The longest time to wait after a write before syncing, or 0 to sync every write
+     * @param syncBytes        The number of written bytes after which to sync, or 0 for no size limit
+     * @param maxBacklog       The number of extents which may wait to be written
+     */
+    public CycleLogExtentWriter(File file, long preallocateBytes, long syncMillis, long syncBytes, int maxBacklog) {
+        this.file = file;
+        this.preallocateBytes = preallocateBytes;
+        this.syncNanos = syncMillis * 1_000_000L;
+        this.syncBytes = syncBytes;
+        this.backlog = new ArrayBlockingQueue<>(maxBacklog);
+        try {
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to open cycle log file " + file + ": " + e, e);
+        }
+        this.writerThread = new Thread(this::writeLoop);
+        writerThread.setName("CycleLogExtentWriter/" + file.getName());
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Time each batch of writes and each sync with the provided timers.
+     *
+     * @param writeTimer A timer for writes, or null
+     * @param syncTimer  A timer for syncs, or null
+     * @return this writer
+     */
+    public CycleLogExtentWriter setTimers(Timer writeTimer, Timer syncTimer) {
+        this.writeTimer = writeTimer;
+        this.syncTimer = syncTimer;
+        return this;
+    }
+
+    /**
+     * Queue an extent to be written, waiting if the backlog is full. The buffer belongs to
+     * the writer afterwards, and may be returned by {@link #getFreeBuffer(int)} once written.
+     *
+     * @param extent A buffer with the extent data between its position and limit
+     * @throws RuntimeException if the writer has failed or is closed, or if the caller is
+     *                          interrupted while waiting, in which case its interrupt status is kept
+     */
+    public void write(ByteBuffer extent) {
+        if (error != null) {
+            throw new RuntimeException("Error while writing cycle log " + file + ": " + error, error);
+        }
+        synchronized (queueLock) {
+            if (!running) {
+                throw new RuntimeException("Unable to write to closed cycle log " + file);
+            }
+            try {
+                backlog.put(extent);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting to write cycle log " + file, e);
+            }
+        }
+    }
+
+    /**
+     * @param capacity The capacity which is needed
+     * @return A cleared buffer which has been written and can be reused, or null if there are none
+     */
+    public ByteBuffer getFreeBuffer(int capacity) {
+        ByteBuffer buffer;
+        while ((buffer = free.poll()) != null) {
+            if (buffer.capacity() == capacity) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of extents waiting to be written
+     */
+    public int getBacklog() {
+        return backlog.size();
+    }
+
+    /**
+     * @return The number of bytes written to the file so far
+     */
+    public synchronized long getWrittenBytes() {
+        return written;
+    }
+
+    private void writeLoop() {
+        List<ByteBuffer> extents = new ArrayList<>();
+        long pollNanos = syncNanos > 0 ? syncNanos : TimeUnit.MILLISECONDS.toNanos(100L);
+        while (running || !backlog.isEmpty()) {
+            try {
+                ByteBuffer first = backlog.poll(pollNanos, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    extents.add(first);
+                    backlog.drainTo(extents);
+                    writeExtents(extents);
+                    for (ByteBuffer extent : extents) {
+                        free.offer(extent);
+                    }
+                    extents.clear();
+                }
+                if (unsyncedBytes > 0 && (syncNanos == 0 || System.nanoTime() - lastSyncAt >= syncNanos
+                        || (syncBytes > 0 && unsyncedBytes >= syncBytes))) {
+                    sync();
+                }
+            } catch (InterruptedException ignored) {
+            } catch (Exception e) {
+                logger.error("Error while writing cycle log " + file + ": " + e, e);
+                error = e;
+                backlog.clear();
+                extents.clear();
+            }
+        }
+    }
+
+    private void writeExtents(List<ByteBuffer> extents) throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer[] buffers = extents.toArray(new ByteBuffer[0]);
+        long bytes = 0L;
+        for (ByteBuffer buffer : buffers) {
+            bytes += buffer.remaining();
+        }
+        if (written + bytes > allocated) {
+            long needed = written + bytes - allocated;
+            allocated += ((needed + preallocateBytes - 1) / preallocateBytes) * preallocateBytes;
+            logger.debug("extending cycle log " + file + " to " + allocated + " bytes");
+            channel.write(ByteBuffer.wrap(new byte[1]), allocated - 1);
+        }
+        long remaining = bytes;
+        channel.position(written);
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        synchronized (this) {
+            written += bytes;
+        }
+        unsyncedBytes += bytes;
+        if (writeTimer != null) {
+            writeTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void sync() throws IOException {
+        long start = System.nanoTime();
+        channel.force(false);
+        unsyncedBytes = 0L;
+        lastSyncAt = System.nanoTime();
+        if (syncTimer != null) {
+            syncTimer.update(lastSyncAt - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Write all waiting extents, then truncate the file to the length of its data, sync it, and close it.
+     */
+    @Override
+    public void close() throws Exception {
+        synchronized (queueLock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+        }
+        writerThread.join();
+        try {
+            channel.truncate(written);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CycleLogExtentWriter{" +
+                "file=" + file +
+                ", written=" + written +
+                ", allocated=" + allocated +
+                ", backlog=" + backlog.size() +
+                '}';
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.cyclelog.outputs.cyclelog;
+
+import io.engineblock.activityapi.cyclelog.buffers.CycleResultSegmentsReadable;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsDeltaBufferReadable;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsRLEBufferReadable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>The layout of a cycle log file, and the metadata which is read from one.</p>
+ *
+ * <p>A versioned cycle log starts with a header, which is followed by the span
+ * data, and ends with a footer. The header holds:</p>
+ * <ul>
+ * <li>the magic bytes <em>EBCYCLOG</em> and the format version (int)</li>
+ * <li>the length of the header in bytes, which is where the span data starts (int)</li>
+ * <li>the first cycle and the end cycle, exclusive, of all spans (long, long)</li>
+ * <li>the offset of the footer, which is where the span data ends (long)</li>
+ * <li>the alias of the activity which wrote the log (short length, then UTF-8)</li>
+ * <li>the {@link Encoding} of the span data, and the number of bits which results are
+ * packed into, for the delta encoding (byte, byte)</li>
+ * </ul>
+ *
+ * <p>The cycle range and footer offset are filled in when the log is closed. Until then,
+ * they are -1, -1 and 0, and the span data runs to the end of the file. Space which was
+ * allocated ahead of the data reads as empty RLE spans, which are skipped, or as an empty
+ * delta extent, where reading stops.</p>
+ *
+ * <p>The footer holds a sparse index of the lowest cycle, the highest end cycle and the
+ * file offset of every extent, in the order the extents were written. Spans may be written
+ * out of cycle order, so extents may overlap. The first extent which can hold a cycle is
+ * found with a binary search over the highest end cycle of all extents up to each entry.
+ * The footer also holds the result code legend, as a count followed by each code (byte)
+ * and its name (short length, then UTF-8).</p>
+ *
+ * <p>Files without the magic bytes are read as the original unversioned format, where the
+ * whole file is RLE span data, without an index.</p>
+ */
+public class CycleLogFormat {
+
+    public final static byte[] MAGIC = "EBCYCLOG".getBytes(StandardCharsets.US_ASCII);
+    public final static int VERSION = 1;
+
+    private final static int VERSION_OFFSET = 8;
+    private final static int HEADER_LENGTH_OFFSET = 12;
+    /**
+     * The offset of the header fields which are filled in when the log is closed
+     */
+    public final static int CLOSE_FIELDS_OFFSET = 16;
+    private final static int ALIAS_OFFSET = 40;
+
+    /**
+     * How the spans of a cycle log are encoded.
+     */
+    public enum Encoding {
+        /**
+         * Each span is a fixed (long,long,byte) tuple, as read by {@link CycleResultsRLEBufferReadable}
+         */
+        rle,
+        /**
+         * Spans are delta and varint encoded, as read by {@link CycleResultsDeltaBufferReadable}
+         */
+        delta
+    }
+
+    private final int version;
+    private final String alias;
+    private final Encoding encoding;
+    private final int resultBits;
+    private final long minCycle;
+    private final long endCycle;
+    private final int dataStart;
+    private final int dataEnd;
+    private final long[] indexCycles;
+    private final long[] indexEnds;
+    private final long[] indexOffsets;
+    private final Map<Integer, String> legend;
+
+    private CycleLogFormat(int version, String alias, Encoding encoding, int resultBits,
+                           long minCycle, long endCycle, int dataStart, int dataEnd,
+                           long[] indexCycles, long[] indexEnds, long[] indexOffsets,
+                           Map<Integer, String> legend) {
+        this.version = version;
+        this.alias = alias;
+        this.encoding = encoding;
+        this.resultBits = resultBits;
+        this.minCycle = minCycle;
+        this.endCycle = endCycle;
+        this.dataStart = dataStart;
+        this.dataEnd = dataEnd;
+        this.indexCycles = indexCycles;
+        this.indexEnds = indexEnds;
+        this.indexOffsets = indexOffsets;
+        this.legend = legend;
+    }
+
+    /**
+     * @param alias      The activity alias to record
+     * @param encoding   The encoding of the span data
+     * @param resultBits The number of bits which results are packed into, for the delta encoding
+     * @return a header for a new cycle log, ready to be written
+     */
+    public static ByteBuffer encodeHeader(String alias, Encoding encoding, int resultBits) {
+        byte[] aliasBytes = alias.getBytes(StandardCharsets.UTF_8);
+        int length = ALIAS_OFFSET + Short.BYTES + aliasBytes.length + Byte.BYTES + Byte.BYTES;
+        ByteBuffer header = ByteBuffer.allocate(length);
+        header.put(MAGIC).putInt(VERSION).putInt(length);
+        header.put(encodeCloseFields(-1L, -1L, 0L));
+        header.putShort((short) aliasBytes.length).put(aliasBytes);
+        header.put((byte) encoding.ordinal()).put((byte) resultBits);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * @param minCycle     The first cycle in the log
+     * @param endCycle     The end cycle of the log, exclusive
+     * @param footerOffset The offset of the footer
+     * @return the header fields to write at {@link #CLOSE_FIELDS_OFFSET} when the log is closed
+     */
+    public static ByteBuffer encodeCloseFields(long minCycle, long endCycle, long footerOffset) {
+        ByteBuffer fields = ByteBuffer.allocate(Long.BYTES * 3);
+        fields.putLong(minCycle).putLong(endCycle).putLong(footerOffset);
+        fields.flip();
+        return fields;
+    }
+
+    /**
+     * @param indexCycles  The first cycle of each indexed extent
+     * @param indexEnds    The highest end cycle, exclusive, of each indexed extent
+     * @param indexOffsets The file offset of each indexed extent
+     * @param indexCount   The number of index entries
+     * @param legend       The names of result codes
+     * @return a footer, ready to be written
+     */
+    public static ByteBuffer encodeFooter(long[] indexCycles, long[] indexEnds, long[] indexOffsets, int indexCount,
+                                          Map<Integer, String> legend) {
+        int length = Integer.BYTES + indexCount * Long.BYTES * 3 + Integer.BYTES;
+        for (String name : legend.values()) {
+            length += Byte.BYTES + Short.BYTES + name.getBytes(StandardCharsets.UTF_8).length;
+        }
+        ByteBuffer footer = ByteBuffer.allocate(length);
+        footer.putInt(indexCount);
+        for (int i = 0; i < indexCount; i++) {
+            footer.putLong(indexCycles[i]).putLong(indexEnds[i]).putLong(indexOffsets[i]);
+        }
+        footer.putInt(legend.size());
+        for (Map.Entry<Integer, String> entry : legend.entrySet()) {
+            byte[] name = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            footer.put(entry.getKey().byteValue()).putShort((short) name.length).put(name);
+        }
+        footer.flip();
+        return footer;
+    }
+
+    /**
+     * Read the metadata of a cycle log.
+     *
+     * @param file The whole contents of a cycle log file
+     * @return the metadata of the file
+     */
+    public static CycleLogFormat read(ByteBuffer file) {
+        if (!hasMagic(file)) {
+            return new CycleLogFormat(0, null, Encoding.rle, 0, -1L, -1L, 0, wholeSpansEnd(0, file.limit()),
+                    new long[0], new long[0], new long[0], Collections.emptyMap());
+        }
+        int version = file.getInt(VERSION_OFFSET);
+        if (version != VERSION) {
+            throw new RuntimeException("Unable to read cycle log format version " + version
+                    + ", only version " + VERSION + " is supported.");
+        }
+        int headerLength = file.getInt(HEADER_LENGTH_OFFSET);
+        long minCycle = file.getLong(CLOSE_FIELDS_OFFSET);
+        long endCycle = file.getLong(CLOSE_FIELDS_OFFSET + Long.BYTES);
+        long footerOffset = file.getLong(CLOSE_FIELDS_OFFSET + Long.BYTES * 2);
+
+        ByteBuffer in = file.duplicate();
+        in.position(ALIAS_OFFSET);
+        String alias = readString(in);
+        int encodingCode = in.get();
+        if (encodingCode < 0 || encodingCode >= Encoding.values().length) {
+            throw new RuntimeException("Unknown cycle log encoding " + encodingCode);
+        }
+        Encoding encoding = Encoding.values()[encodingCode];
+        int resultBits = in.get();
+
+        if (footerOffset == 0L) {
+            int dataEnd = (encoding == Encoding.rle) ? wholeSpansEnd(headerLength, file.limit()) : file.limit();
+            return new CycleLogFormat(version, alias, encoding, resultBits, minCycle, endCycle, headerLength,
+                    dataEnd, new long[0], new long[0], new long[0], Collections.emptyMap());
+        }
+
+        in.position((int) footerOffset);
+        int indexCount = in.getInt();
+        long[] indexCycles = new long[indexCount];
+        long[] indexEnds = new long[indexCount];
+        long[] indexOffsets = new long[indexCount];
+        long highestEnd = Long.MIN_VALUE;
+        for (int i = 0; i < indexCount; i++) {
+            indexCycles[i] = in.getLong();
+            // kept as the highest end so far, which never decreases, so it can be searched
+            highestEnd = Math.max(highestEnd, in.getLong());
+            indexEnds[i] = highestEnd;
+            indexOffsets[i] = in.getLong();
+        }
+        int legendCount = in.getInt();
+        Map<Integer, String> legend = new LinkedHashMap<>();
+        for (int i = 0; i < legendCount; i++) {
+            int code = in.get();
+            legend.put(code, readString(in));
+        }
+        return new CycleLogFormat(version, alias, encoding, resultBits, minCycle, endCycle, headerLength, (int) footerOffset,
+                indexCycles, indexEnds, indexOffsets, legend);
+    }
+
+    /**
+     * @param data Span data of this log, starting at the data start or at an offset from {@link #seek(long)}
+     * @return the spans in the data, read with the encoding of this log
+     */
+    public CycleResultSegmentsReadable getSpansReadable(ByteBuffer data) {
+        switch (encoding) {
+            case delta:
+                return new CycleResultsDeltaBufferReadable(data, resultBits);
+            case rle:
+            default:
+                return new CycleResultsRLEBufferReadable(data);
+        }
+    }
+
+    /**
+     * A log which was not closed may end with part of a span, or with space which was
+     * allocated but not written, so only whole spans are read.
+     */
+    private static int wholeSpansEnd(int dataStart, int limit) {
+        return dataStart + ((limit - dataStart) / CycleResultsRLEBufferReadable.BYTES) * CycleResultsRLEBufferReadable.BYTES;
+    }
+
+    private static boolean hasMagic(ByteBuffer file) {
+        if (file.limit() < ALIAS_OFFSET) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (file.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Find the first extent to read for the cycles at or after a given cycle, using the
+     * index. Extents before it do not contain any of these cycles, but spans in it and in
+     * later extents may still end before the cycle, since spans may be out of order.
+     *
+     * @param cycle The cycle to find
+     * @return the number of the extent to start reading from, which is {@link #getExtentCount()}
+     * if no extent holds the cycle or any after it, or 0 for a log without an index
+     */
+    public int seekExtent(long cycle) {
+        int low = 0;
+        int high = indexEnds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (indexEnds[mid] <= cycle) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find where to start reading spans for the cycles at or after a given cycle.
+     *
+     * @param cycle The cycle to find
+     * @return the file offset of the span data to start reading from
+     * @see #seekExtent(long)
+     */
+    public int seek(long cycle) {
+        int extent = seekExtent(cycle);
+        return (extent < getExtentCount()) ? getExtentStart(extent) : dataEnd;
+    }
+
+    /**
+     * @return the number of extents which can be read on their own. A log without an
+     * index is read as a single extent.
+     */
+    public int getExtentCount() {
+        return Math.max(1, indexOffsets.length);
+    }
+
+    /**
+     * @param extent The number of an extent, in file order
+     * @return the file offset where the extent starts
+     */
+    public int getExtentStart(int extent) {
+        return (indexOffsets.length == 0) ? dataStart : (int) indexOffsets[extent];
+    }
+
+    /**
+     * @param extent The number of an extent, in file order
+     * @return the file offset where the extent ends
+     */
+    public int getExtentEnd(int extent) {
+        return (extent + 1 < indexOffsets.length) ? (int) indexOffsets[extent + 1] : dataEnd;
+    }
+
+    /**
+     * @return the format version, or 0 for an unversioned file
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the encoding of the span data
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the number of bits which results are packed into, or 0 if they are not packed
+     */
+    public int getResultBits() {
+        return resultBits;
+    }
+
+    /**
+     * @return the alias of the activity which wrote the log, or null if it is not known
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the first cycle in the log, or -1 if it is not known
+     */
+    public long getMinCycle() {
+        return minCycle;
+    }
+
+    /**
+     * @return the end cycle of the log, exclusive, or -1 if it is not known
+     */
+    public long getEndCycle() {
+        return endCycle;
+    }
+
+    /**
+     * @return the file offset where span data starts
+     */
+    public int getDataStart() {
+        return dataStart;
+    }
+
+    /**
+     * @return the file offset where span data ends
+     */
+    public int getDataEnd() {
+        return dataEnd;
+    }
+
+    /**
+     * @return the number of entries in the index
+     */
+    public int getIndexSize() {
+        return indexCycles.length;
+    }
+
+    /**
+     * @return the names of result codes, which may be empty
+     */
+    public Map<Integer, String> getLegend() {
+        return legend;
+    }
+
+    @Override
+    public String toString() {
+        if (version == 0) {
+            return "cyclelog (unversioned)";
+        }
+        return "cyclelog version " + version + ", alias '" + alias + "', cycles [" + minCycle + "," + endCycle + ")"
+                + ", encoding " + encoding + (resultBits > 0 ? " with " + resultBits + " result bits" : "");
+    }
+}
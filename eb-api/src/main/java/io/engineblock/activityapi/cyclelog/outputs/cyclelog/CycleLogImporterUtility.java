@@ -22,12 +22,15 @@ import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleSpanResults;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class CycleLogImporterUtility {
 
     private final static Pattern linePattern = Pattern.compile("\\[?(?<start>\\d+)(,(?<end>\\d+)\\))?->(?<result>\\d+)");
+    private final static Pattern legendPattern = Pattern.compile("#\\s*result\\s+(?<result>\\d+)=(?<name>.*)");
 
     public static void main(String[] args) {
         if (args.length == 0) {
@@ -44,11 +47,15 @@ public class CycleLogImporterUtility {
 
     private void convert(String infile, String outfile) throws Exception {
         CycleLogOutput output = new CycleLogOutput(new File(outfile), 1024);
+        Map<Integer, String> legend = new LinkedHashMap<>();
         BufferedReader reader = new BufferedReader(new FileReader(infile));
         String line = reader.readLine();
         while (line != null) {
             Matcher matcher = linePattern.matcher(line);
-            if (matcher.matches()) {
+            Matcher legendMatcher = legendPattern.matcher(line);
+            if (legendMatcher.matches()) {
+                legend.put(Integer.valueOf(legendMatcher.group("result")), legendMatcher.group("name"));
+            } else if (matcher.matches()) {
                 long start = Long.valueOf(matcher.group("start"));
                 int result = Integer.valueOf(matcher.group("result"));
                 String endMatched = matcher.group("end");
@@ -58,11 +65,12 @@ public class CycleLogImporterUtility {
                     long end = Long.valueOf(endMatched);
                     output.onCycleResultSegment(new CycleSpanResults(start, end, result));
                 }
-            } else {
+            } else if (!line.startsWith("#") && !line.trim().isEmpty()) {
                 throw new RuntimeException("Unrecognized line format on import: " + line);
             }
             line = reader.readLine();
         }
+        output.setLegend(legend);
         output.close();
     }
 
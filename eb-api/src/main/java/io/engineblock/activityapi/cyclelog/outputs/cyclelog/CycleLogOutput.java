@@ -17,24 +17,29 @@
 
 package io.engineblock.activityapi.cyclelog.outputs.cyclelog;
 
+import com.codahale.metrics.Gauge;
 import io.engineblock.activityapi.core.Activity;
-import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
 import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsBufferTarget;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsDeltaBufferTarget;
 import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsRLEBufferTarget;
-import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleSpanResults;
 import io.engineblock.activityapi.cyclelog.inputs.cyclelog.CanFilterResultValue;
 import io.engineblock.activityapi.output.Output;
+import io.engineblock.metrics.ActivityMetrics;
 import io.engineblock.util.SimpleConfig;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.function.Predicate;
 
 /**
@@ -45,37 +50,107 @@ import java.util.function.Predicate;
  * the closed-open interval of cycles and the result associated with them.
  * The file is expected to contain only cycle ranges in order.
  *
+ * <p>With <em>encoding:delta</em>, the same spans are written in the compact form of
+ * {@link CycleResultsDeltaBufferTarget} instead, and <em>resultBits</em> sets how many
+ * bits results are packed into.
+ *
  * <p>It <em>is</em> valid for RLE segments to be broken apart into contiguous
  * ranges. Any implementation should treat this as normal.
+ *
+ * <p>Filled extents are handed to a {@link CycleLogExtentWriter}, which writes and
+ * syncs them in the background, and the next extent is filled in a buffer which has
+ * already been written, when one is available.
+ *
+ * <p>The file is written in the versioned {@link CycleLogFormat}. The first cycle, end
+ * cycle and file offset of each extent are kept in memory, and written as an index at the end of
+ * the file when this output is closed, along with any result code legend.
  */
 public class CycleLogOutput implements Output, CanFilterResultValue {
 
     // For use in allocating file data, etc
     private final static Logger logger = LoggerFactory.getLogger(CycleLogOutput.class);
-    private MappedByteBuffer mbb;
-    private RandomAccessFile file;
-    //    private FileBufferConfig config;
-    private CycleResultsRLEBufferTarget targetBuffer;
+    private final static long DEFAULT_PREALLOCATE_BYTES = 16L * 1024L * 1024L;
+    private final static long DEFAULT_SYNC_MILLIS = 1000L;
+    private final static long DEFAULT_SYNC_BYTES = 16L * 1024L * 1024L;
+    private final static int DEFAULT_MAX_BACKLOG = 16;
+
+    private CycleLogExtentWriter writer;
+    private CycleResultsBufferTarget targetBuffer;
     private int extentSizeInSpans;
+    private CycleLogFormat.Encoding encoding;
+    private int resultBits;
     private File outputFile;
-    private Predicate<ResultReadable> filter;
+    private ResultFilterTable filter;
+    private final long[] batchCycles = new long[BATCH_SIZE];
+    private final int[] batchResults = new int[BATCH_SIZE];
+    private Map<Integer, String> legend = new LinkedHashMap<>();
+    private long fileOffset = 0L;
+    private long minCycle = Long.MAX_VALUE;
+    private long endCycle = Long.MIN_VALUE;
+    private long[] indexCycles = new long[64];
+    private long[] indexEnds = new long[64];
+    private long[] indexOffsets = new long[64];
+    private int indexCount = 0;
 
     public CycleLogOutput(Activity activity) {
 
         SimpleConfig conf = new SimpleConfig(activity, "output");
         this.extentSizeInSpans = conf.getInteger("extentSize").orElse(1000);
         this.outputFile = new File(conf.getString("file").orElse(activity.getAlias()) + ".cyclelog");
+        this.encoding = CycleLogFormat.Encoding.valueOf(conf.getString("encoding").orElse("rle"));
+        this.resultBits = conf.getInteger("resultBits").orElse(0);
 
-
-        targetBuffer = new CycleResultsRLEBufferTarget(extentSizeInSpans);
+        targetBuffer = newTargetBuffer(null);
         removeIfPresent(outputFile);
+        this.writer = new CycleLogExtentWriter(
+                outputFile,
+                conf.getLong("preallocate").orElse(DEFAULT_PREALLOCATE_BYTES),
+                conf.getLong("syncMillis").orElse(DEFAULT_SYNC_MILLIS),
+                conf.getLong("syncBytes").orElse(DEFAULT_SYNC_BYTES),
+                conf.getInteger("maxBacklog").orElse(DEFAULT_MAX_BACKLOG)
+        ).setTimers(
+                ActivityMetrics.timer(activity.getActivityDef(), "cyclelog.write"),
+                ActivityMetrics.timer(activity.getActivityDef(), "cyclelog.sync")
+        );
+        ActivityMetrics.gauge(activity.getActivityDef(), "cyclelog.backlog", new BacklogGauge(writer));
+        writeHeader(activity.getAlias());
+        setLegend(activity.getResultLegend());
     }
 
     public CycleLogOutput(File outputFile, int extentSizeInSpans) {
+        this(outputFile, extentSizeInSpans, CycleLogFormat.Encoding.rle, 0);
+    }
+
+    /**
+     * @param outputFile        The file to write
+     * @param extentSizeInSpans The size of each extent, in RLE spans
+     * @param encoding          The encoding of the spans
+     * @param resultBits        The number of bits to pack results into, for the delta encoding
+     */
+    public CycleLogOutput(File outputFile, int extentSizeInSpans, CycleLogFormat.Encoding encoding, int resultBits) {
         this.extentSizeInSpans = extentSizeInSpans;
         this.outputFile = outputFile;
-        targetBuffer = new CycleResultsRLEBufferTarget(extentSizeInSpans);
+        this.encoding = encoding;
+        this.resultBits = resultBits;
+        targetBuffer = newTargetBuffer(null);
         removeIfPresent(outputFile);
+        this.writer = new CycleLogExtentWriter(outputFile, DEFAULT_PREALLOCATE_BYTES,
+                DEFAULT_SYNC_MILLIS, DEFAULT_SYNC_BYTES, DEFAULT_MAX_BACKLOG);
+        writeHeader(outputFile.getName().replaceAll("\\.cyclelog$", ""));
+    }
+
+    private void writeHeader(String alias) {
+        ByteBuffer header = CycleLogFormat.encodeHeader(alias, encoding, resultBits);
+        fileOffset += header.remaining();
+        writer.write(header);
+    }
+
+    /**
+     * Set the names of result codes, to be recorded in the cycle log.
+     * @param legend A map of result codes to their names
+     */
+    public void setLegend(Map<Integer, String> legend) {
+        this.legend = new LinkedHashMap<>(legend);
     }
 
     private void removeIfPresent(File filename) {
@@ -92,53 +167,110 @@ public class CycleLogOutput implements Output, CanFilterResultValue {
 
     @Override
     public boolean onCycleResult(long completedCycle, int result) {
-        CycleSpanResults cycleResults = new CycleSpanResults(completedCycle, completedCycle + 1, result);
-//        if (filter==null || filter.test(cycleResults)) {
-        onCycleResultSegment(cycleResults);
-//        }
+        if (filter == null || filter.test(result)) {
+            record(completedCycle, completedCycle + 1, result);
+        }
         return true;
     }
 
+    /**
+     * Record the results of a segment. Intervals with a single result are recorded in one
+     * step. Other segments are copied out in batches, without an object for each cycle.
+     */
     @Override
     public void onCycleResultSegment(CycleResultsSegment segment) {
-        for (CycleResult cycleResult : segment) {
-            if (filter == null || filter.test(cycleResult)) {
-                boolean buffered = targetBuffer.onCycleResult(cycleResult);
-                if (!buffered) {
-                    flush();
-                    targetBuffer = new CycleResultsRLEBufferTarget(extentSizeInSpans);
-                    boolean bufferedAfterFlush = targetBuffer.onCycleResult(cycleResult);
-                    if (!bufferedAfterFlush) {
-                        throw new RuntimeException("Failed to record result in new target buffer");
-                    }
-                }
+        if (filter != null) {
+            segment = segment.filter(filter);
+        }
+        if (segment.isContiguous() && segment instanceof ResultReadable) {
+            if (segment.getCount() > 0) {
+                record(segment.getMinCycle(), segment.getMinCycle() + segment.getCount(), ((ResultReadable) segment).getResult());
+            }
+            return;
+        }
+        long index = 0L;
+        int copied;
+        while ((copied = segment.getResults(index, batchCycles, batchResults, 0, BATCH_SIZE)) > 0) {
+            for (int i = 0; i < copied; i++) {
+                record(batchCycles[i], batchCycles[i] + 1, batchResults[i]);
+            }
+            index += copied;
+        }
+    }
+
+    private void record(long start, long end, int result) {
+        minCycle = Math.min(minCycle, start);
+        endCycle = Math.max(endCycle, end);
+        boolean buffered = targetBuffer.onCycleSpan(start, end, result);
+        if (!buffered) {
+            flush();
+            boolean bufferedAfterFlush = targetBuffer.onCycleSpan(start, end, result);
+            if (!bufferedAfterFlush) {
+                throw new RuntimeException("Failed to record result in new target buffer");
             }
         }
+        // leave room for the run which is still open, so that the extent is never resized
+        if (targetBuffer.isFull()) {
+            flush();
+        }
     }
 
+    /**
+     * Hand the current extent to the writer, and start a new one.
+     */
     private void flush() {
         ByteBuffer nextFileExtent = targetBuffer.toByteBuffer();
-        logger.debug("RLE result extent is " + nextFileExtent.remaining() + " bytes ("
-                + (nextFileExtent.remaining() / CycleResultsRLEBufferTarget.BYTES)
-                + ") tuples");
-        int targetCapacity = (mbb == null ? 0 : mbb.capacity()) + nextFileExtent.remaining();
-        logger.trace("ensuring capacity for " + targetCapacity);
-        this.ensureCapacity(targetCapacity);
-        mbb.put(nextFileExtent);
-        mbb.force();
-        logger.trace("extent appended");
-        logger.trace("mbb position now at " + mbb.position());
+        logger.debug(encoding + " result extent is " + nextFileExtent.remaining() + " bytes");
+        if (targetBuffer.getMinCycle() != Long.MAX_VALUE) {
+            addIndexEntry(targetBuffer.getMinCycle(), targetBuffer.getEndCycle(), fileOffset);
+            fileOffset += nextFileExtent.remaining();
+            writer.write(nextFileExtent);
+        }
+        targetBuffer = newTargetBuffer(writer.getFreeBuffer(extentSizeInSpans * CycleResultsRLEBufferTarget.BYTES));
+        logger.trace("extent handed off");
+    }
 
+    /**
+     * Both encodings use extents of the same size in bytes, so buffers can be reused either way.
+     * A delta encoded extent holds many more spans.
+     */
+    private CycleResultsBufferTarget newTargetBuffer(ByteBuffer reused) {
+        ByteBuffer buffer = (reused != null) ? reused
+                : ByteBuffer.allocate(extentSizeInSpans * CycleResultsRLEBufferTarget.BYTES);
+        switch (encoding) {
+            case delta:
+                return new CycleResultsDeltaBufferTarget(buffer, resultBits);
+            case rle:
+            default:
+                return new CycleResultsRLEBufferTarget(buffer);
+        }
+    }
+
+    private void addIndexEntry(long cycle, long end, long offset) {
+        if (indexCount == indexCycles.length) {
+            indexCycles = Arrays.copyOf(indexCycles, indexCount * 2);
+            indexEnds = Arrays.copyOf(indexEnds, indexCount * 2);
+            indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+        }
+        indexCycles[indexCount] = cycle;
+        indexEnds[indexCount] = end;
+        indexOffsets[indexCount] = offset;
+        indexCount++;
     }
 
     @Override
     public synchronized void close() throws Exception {
         try {
             flush();
-            if (file != null) {
-                file.getFD().sync();
-                file.close();
-                file = null;
+            long footerOffset = fileOffset;
+            writer.write(CycleLogFormat.encodeFooter(indexCycles, indexEnds, indexOffsets, indexCount, legend));
+            writer.close();
+            try (FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+                boolean empty = (minCycle == Long.MAX_VALUE);
+                channel.write(CycleLogFormat.encodeCloseFields(
+                        empty ? -1L : minCycle, empty ? -1L : endCycle, footerOffset),
+                        CycleLogFormat.CLOSE_FIELDS_OFFSET);
+                channel.force(true);
             }
         } catch (Throwable t) {
             logger.error("Error while closing CycleLogOutput: " + t, t);
@@ -147,39 +279,30 @@ public class CycleLogOutput implements Output, CanFilterResultValue {
 
     }
 
-    private synchronized void ensureCapacity(long newCapacity) {
-        try {
-            logger.info("resizing marking file from " + (mbb == null ? 0 : mbb.capacity()) + " to " + newCapacity);
-            if (file == null) {
-                file = new RandomAccessFile(outputFile, "rw");
-                file.seek(0);
-                mbb = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
-            } else {
-                int pos = mbb.position();
-                file.setLength(newCapacity);
-                file.seek(pos);
-                mbb = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
-                mbb.position(pos);
-            }
-            logger.trace("mbb position now at " + mbb.position());
-
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     @Override
     public String toString() {
         return "CycleLogOutput{" +
-                "mbb=" + mbb +
-                ", file=" + file +
-                ", mbb=" + (mbb == null ? "null" : "(pos=" + mbb.position() + ", limit=" + mbb.limit() + ", capacity=" + mbb.capacity() + ")") +
+                "outputFile=" + outputFile +
+                ", writer=" + writer +
                 '}';
     }
 
     @Override
     public void setFilter(Predicate<ResultReadable> filter) {
-        this.filter = filter;
+        this.filter = ResultFilterTable.compile(filter);
+    }
+
+    private static class BacklogGauge implements Gauge<Integer> {
+        private final CycleLogExtentWriter writer;
+
+        private BacklogGauge(CycleLogExtentWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public Integer getValue() {
+            return writer.getBacklog();
+        }
     }
 
 }
@@ -23,10 +23,15 @@ import io.engineblock.activityapi.input.Input;
 import io.engineblock.activityapi.output.Output;
 import io.engineblock.activityapi.output.OutputDispenser;
 import io.engineblock.activityapi.output.OutputType;
+import io.engineblock.activityimpl.marker.BitmapOutputChunker;
+import io.engineblock.activityimpl.marker.PackedResultExtentStore;
+import io.engineblock.util.SimpleConfig;
 import io.virtdata.annotations.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+
 @Service(OutputType.class)
 public class CycleLogOutputType implements OutputType {
 
@@ -42,6 +47,8 @@ public class CycleLogOutputType implements OutputType {
 
     public static class Dispenser implements OutputDispenser {
         private final static Logger logger = LoggerFactory.getLogger(OutputDispenser.class);
+        private final static int DEFAULT_REORDER_WINDOW = 100000;
+        private final static int DEFAULT_RESULT_BITS = 8;
 
         private final Output output;
         private Activity activity;
@@ -51,19 +58,38 @@ public class CycleLogOutputType implements OutputType {
             Input input = activity.getInputDispenserDelegate().getInput(0);
             CycleLogOutput rleFileWriter = new CycleLogOutput(activity);
 
-            // TODO: Rework this so that the contiguous marking chunker can onAfterOpStop filtering
-//            if (input.isContiguous()) {
-//                logger.debug("pre-buffering output extents contiguously before RLE buffering");
-//                ContiguousOutputChunker contiguousOutputChunker = new ContiguousOutputChunker(activity);
-//                contiguousOutputChunker.addExtentReader(rleFileWriter);
-//                this.output = contiguousOutputChunker;
-//            }
-//            else {
-                logger.debug("pre-buffering output extents with best-effort before RLE buffering");
-                ReorderingConcurrentResultBuffer prebuffer =
-                        new ReorderingConcurrentResultBuffer(rleFileWriter);
-                this.output=prebuffer;
-//            }
+            SimpleConfig conf = new SimpleConfig(activity, "output");
+            String marker = conf.getString("marker").orElse("reorder");
+            if (marker.equals("bitmap")) {
+                logger.debug("marking output extents in bitmaps before RLE buffering");
+                BitmapOutputChunker chunker = new BitmapOutputChunker(activity);
+                chunker.addExtentReader(rleFileWriter);
+                this.output = chunker;
+            } else if (marker.equals("packed")) {
+                long count = activity.getActivityDef().getCycleCount();
+                int extentCycles = (int) Math.min(PackedResultExtentStore.DEFAULT_EXTENT_CYCLES,
+                        Math.max(64L, (count + 63) & ~63L));
+                File markerFile = conf.getString("markerFile").map(File::new).orElse(null);
+                logger.debug("packing results of all cycles " + (markerFile != null ? "in " + markerFile : "off heap")
+                        + " before RLE buffering at close");
+                PackedResultExtentStore store = new PackedResultExtentStore(markerFile,
+                        activity.getActivityDef().getStartCycle(), count,
+                        conf.getInteger("resultBits").orElse(DEFAULT_RESULT_BITS), extentCycles);
+                store.addExtentReader(rleFileWriter);
+                this.output = store;
+            } else {
+                int window = conf.getInteger("reorderWindow").orElse(DEFAULT_REORDER_WINDOW);
+                ReorderingConcurrentResultBuffer prebuffer;
+                if (input.isContiguous()) {
+                    logger.debug("pre-buffering output extents in order of the input before RLE buffering");
+                    prebuffer = new ReorderingConcurrentResultBuffer(
+                            rleFileWriter, window, activity.getActivityDef().getStartCycle());
+                } else {
+                    logger.debug("pre-buffering output extents with best-effort before RLE buffering");
+                    prebuffer = new ReorderingConcurrentResultBuffer(rleFileWriter, window);
+                }
+                this.output = prebuffer;
+            }
             activity.registerAutoCloseable(output);
         }
 
@@ -18,6 +18,7 @@
 package io.engineblock.activityapi.cyclelog.outputs.logger;
 
 import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
 import io.engineblock.activityapi.cyclelog.inputs.cyclelog.CanFilterResultValue;
 import io.engineblock.activityapi.output.Output;
 import io.engineblock.activityimpl.ActivityDef;
@@ -32,7 +33,7 @@ public class LoggingOutput implements Output,CanFilterResultValue {
     private final ActivityDef def;
     private final long slot;
     private final ThreadLocal<StringBuilder> sb = ThreadLocal.withInitial(StringBuilder::new);
-    private Predicate<ResultReadable> filter;
+    private ResultFilterTable filter;
 
     public LoggingOutput(ActivityDef def, long slot) {
         this.def = def;
@@ -41,7 +42,7 @@ public class LoggingOutput implements Output,CanFilterResultValue {
 
     @Override
     public boolean onCycleResult(long completedCycle, int result) {
-        if (filter!=null && !filter.test(new ResultReadableWrapper(result))) {
+        if (filter!=null && !filter.test(result)) {
             return true;
         }
         sb.get().setLength(0);
@@ -59,16 +60,7 @@ public class LoggingOutput implements Output,CanFilterResultValue {
 
     @Override
     public void setFilter(Predicate<ResultReadable> filter) {
-        this.filter = filter;
+        this.filter = ResultFilterTable.compile(filter);
     }
 
-    private static class ResultReadableWrapper implements ResultReadable {
-        private int result;
-        public ResultReadableWrapper(int result) {
-            this.result = result;
-        }
-        public int getResult() { return result; }
-    }
-
-
 }
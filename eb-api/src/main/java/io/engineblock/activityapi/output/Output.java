@@ -27,6 +27,11 @@ import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
  */
 public interface Output extends AutoCloseable {
 
+    /**
+     * The most results which are copied out of a segment at a time.
+     */
+    int BATCH_SIZE = 1024;
+
     /**
      * Mark the result of the numbered cycle with an integer value.
      * The meaning of the value provided is contextual to the way it is used.
@@ -42,8 +47,27 @@ public interface Output extends AutoCloseable {
         return this.onCycleResult(result.getCycle(),result.getResult());
     }
 
+    /**
+     * Mark all of the results in a segment. By default, they are copied out of the segment
+     * in batches of primitive values, and each one is marked with {@link #onCycleResult(long, int)}.
+     *
+     * @param segment The results to mark
+     */
     default void onCycleResultSegment(CycleResultsSegment segment) {
-        segment.forEach(s -> onCycleResult(s.getCycle(),s.getResult()));
+        int batch = (int) Math.min(segment.getCount(), BATCH_SIZE);
+        if (batch <= 0) {
+            return;
+        }
+        long[] cycles = new long[batch];
+        int[] results = new int[batch];
+        long index = 0L;
+        int copied;
+        while ((copied = segment.getResults(index, cycles, results, 0, batch)) > 0) {
+            for (int i = 0; i < copied; i++) {
+                onCycleResult(cycles[i], results[i]);
+            }
+            index += copied;
+        }
     }
 
     default void close() throws Exception {
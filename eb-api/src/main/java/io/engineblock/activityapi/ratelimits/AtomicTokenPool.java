@@ -0,0 +1,248 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <h2>Synopsis</h2>
+ *
+ * <p>This is a lock-free version of the {@link SynchronizedTokenPool}. It has
+ * the same pool semantics, but callers take tokens from the active pool
+ * with a compare-and-set loop rather than by entering a monitor. Callers
+ * only park when there is a shortfall of tokens in the active pool.</p>
+ *
+ * <p>Only the active pool is shared between callers and the filler. The
+ * waiting pool is only modified by refill and restart, which are serialized
+ * with each other, but never with callers. When tokens are added, only as
+ * many parked callers are woken as the active pool can satisfy, in the order
+ * in which they started waiting.</p>
+ */
+public class AtomicTokenPool implements TokenPool {
+
+    private final static Logger logger = LoggerFactory.getLogger(AtomicTokenPool.class);
+
+    private final AtomicLong activePool = new AtomicLong(0L);
+    private volatile long waitingPool;
+
+    private volatile long maxActivePool;
+    private volatile long nanosPerOp;
+    private long burstPoolSize;
+    private long maxOverActivePool;
+    private double burstRatio;
+    private long minActivePool;
+    private RateSpec rateSpec;
+
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicLong blocks = new AtomicLong(0L);
+
+    public AtomicTokenPool(RateSpec rateSpec) {
+        apply(rateSpec);
+        logger.debug("initialized token pool: " + this.toString() + " for rate:" + rateSpec.toString());
+    }
+
+    public AtomicTokenPool(long poolsize, double burstRatio) {
+        this.maxActivePool = poolsize;
+        this.burstRatio = burstRatio;
+        this.maxOverActivePool = (long) (maxActivePool * burstRatio);
+        this.burstPoolSize = maxOverActivePool - maxActivePool;
+    }
+
+    @Override
+    public synchronized void apply(RateSpec rateSpec) {
+        this.rateSpec = rateSpec;
+        this.maxActivePool = Math.max(TokenPool.getActivePoolSizeFor(rateSpec), minActivePool);
+        this.maxOverActivePool = (long) (maxActivePool * rateSpec.getBurstRatio());
+        this.burstRatio = rateSpec.getBurstRatio();
+
+        this.burstPoolSize = maxOverActivePool - maxActivePool;
+        this.nanosPerOp = rateSpec.getNanosPerOp();
+        wakeUpTo(Long.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized void setMinActivePool(long minActivePool) {
+        if (this.minActivePool != minActivePool) {
+            this.minActivePool = minActivePool;
+            if (rateSpec != null) {
+                apply(rateSpec);
+            }
+        }
+    }
+
+    @Override
+    public double getBurstRatio() {
+        return burstRatio;
+    }
+
+    @Override
+    public long takeUpTo(long amt) {
+        while (true) {
+            long active = activePool.get();
+            long take = Math.min(amt, active);
+            if (activePool.compareAndSet(active, active - take)) {
+                return take;
+            }
+        }
+    }
+
+    @Override
+    public long blockAndTake() {
+        return blockAndTake(nanosPerOp);
+    }
+
+    @Override
+    public long blockAndTake(long tokens) {
+        while (true) {
+            long active = activePool.get();
+            if (active >= tokens) {
+                if (activePool.compareAndSet(active, active - tokens)) {
+                    return waitingPool + active - tokens;
+                }
+            } else {
+                awaitTokens(tokens);
+            }
+        }
+    }
+
+    /**
+     * Park the calling thread until it is woken by a refill, or until the
+     * active pool duration has elapsed, whichever is first. The waiter is
+     * registered before the active pool is checked again, so a refill which
+     * occurs in between will not be missed.
+     */
+    private void awaitTokens(long tokens) {
+        blocks.incrementAndGet();
+        Waiter waiter = new Waiter(Thread.currentThread());
+        waiters.offer(waiter);
+        if (activePool.get() < tokens) {
+            LockSupport.parkNanos(this, maxActivePool);
+        }
+        waiter.thread = null;
+    }
+
+    /**
+     * Unpark up to the given number of waiting callers. Waiters which have
+     * already left are discarded without counting against the limit.
+     */
+    private void wakeUpTo(long count) {
+        Waiter waiter;
+        while (count > 0 && (waiter = waiters.poll()) != null) {
+            Thread thread = waiter.thread;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+                count--;
+            }
+        }
+    }
+
+    @Override
+    public long getWaitTime() {
+        return activePool.get() + waitingPool;
+    }
+
+    @Override
+    public long getWaitPool() {
+        return waitingPool;
+    }
+
+    @Override
+    public long getActivePool() {
+        return activePool.get();
+    }
+
+    @Override
+    public synchronized long refill(long newTokens) {
+        long active = activePool.get();
+
+        long needed = Math.max(maxActivePool - active, 0L);
+        long allocatedToActivePool = Math.min(newTokens, needed);
+
+        // overflow logic
+        long allocatedToOverflowPool = newTokens - allocatedToActivePool;
+        long waiting = waitingPool + allocatedToOverflowPool;
+
+        // backfill logic
+        double refillFactor = Math.min((double) newTokens / maxActivePool, 1.0D);
+        long burstFillAllowed = (long) (refillFactor * burstPoolSize);
+
+        burstFillAllowed = Math.min(maxOverActivePool - (active + allocatedToActivePool), burstFillAllowed);
+        long burstFill = Math.max(Math.min(burstFillAllowed, waiting), 0L);
+
+        waitingPool = waiting - burstFill;
+        long newActive = activePool.addAndGet(allocatedToActivePool + burstFill);
+
+        if (!waiters.isEmpty()) {
+            wakeUpTo(nanosPerOp > 0 ? newActive / nanosPerOp : Long.MAX_VALUE);
+        }
+
+        return newActive + waitingPool;
+    }
+
+    @Override
+    public synchronized long returnTokens(long tokens) {
+        while (true) {
+            long active = activePool.get();
+            long credited = Math.min(tokens, Math.max(maxActivePool - active, 0L));
+            if (activePool.compareAndSet(active, active + credited)) {
+                waitingPool += tokens - credited;
+                if (!waiters.isEmpty()) {
+                    wakeUpTo(nanosPerOp > 0 ? (active + credited) / nanosPerOp : Long.MAX_VALUE);
+                }
+                return active + credited + waitingPool;
+            }
+        }
+    }
+
+    @Override
+    public RateSpec getRateSpec() {
+        return rateSpec;
+    }
+
+    @Override
+    public synchronized long restart() {
+        long wait = activePool.getAndSet(0L) + waitingPool;
+        waitingPool = 0L;
+        return wait;
+    }
+
+    @Override
+    public String toString() {
+        long active = activePool.get();
+        return "Tokens: active=" + active + "/" + maxActivePool
+                + String.format(
+                " (%3.1f%%)A (%3.1f%%)B ",
+                (((double) active / (double) maxActivePool) * 100.0),
+                (((double) active / (double) maxOverActivePool) * 100.0)) + " waiting=" + waitingPool +
+                " blocks=" + blocks.get() +
+                " rateSpec:" + ((rateSpec != null) ? rateSpec.toString() : "NULL");
+    }
+
+    private final static class Waiter {
+        private volatile Thread thread;
+
+        private Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+}
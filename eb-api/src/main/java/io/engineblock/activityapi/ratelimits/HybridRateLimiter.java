@@ -95,6 +95,9 @@ public class HybridRateLimiter implements Startable, RateLimiter {
     private Gauge<Double> avgRateGauge;
     private Gauge<Double> burstRateGauge;
     private TokenPool tokens;
+    // scheduled start times
+    private boolean scheduled = false;
+    private volatile OpSchedule schedule;
     // diagnostics
 
     // TODO Doc rate limiter scenarios, including when you want to reset the waittime, and when you don't
@@ -116,13 +119,104 @@ public class HybridRateLimiter implements Startable, RateLimiter {
 
     protected void setActivityDef(ActivityDef def) {
         this.activityDef = def;
+        this.scheduled = (def != null) &&
+                def.getParams().getOptionalString("responsetime").orElse("waittime").equals("scheduled");
     }
 
     @Override
     public long maybeWaitForOp() {
+        if (scheduled) {
+            return Math.max(getNanoClockTime() - maybeWaitForScheduledOp(), 0L);
+        }
         return tokens.blockAndTake();
     }
 
+    /**
+     * When the <em>responsetime=scheduled</em> activity parameter is set, each op
+     * is assigned the next intended start time from a fixed schedule, which starts
+     * when the rate limiter starts and advances by exactly one op time per op.
+     * Unlike the wait time which is derived from the token pools, this does not
+     * drift when the pools are saturated or when bursting is in effect.
+     * Otherwise, the intended start time is derived from the wait time.
+     */
+    @Override
+    public long maybeWaitForScheduledOp() {
+        long waittime = tokens.blockAndTake();
+        long now = getNanoClockTime();
+        if (scheduled) {
+            return Math.min(getSchedule().nextOpsAt(1), now);
+        }
+        return now - waittime;
+    }
+
+    private OpSchedule getSchedule() {
+        OpSchedule opSchedule = this.schedule;
+        if (opSchedule == null) {
+            synchronized (this) {
+                if (this.schedule == null) {
+                    this.schedule = new OpSchedule(getNanoClockTime(), rateSpec.getNanosPerOp());
+                }
+                opSchedule = this.schedule;
+            }
+        }
+        return opSchedule;
+    }
+
+    /**
+     * Take the tokens for n ops from the token pool in as few calls as possible.
+     * The ops are taken in chunks of no more than half the active pool size, so
+     * that each chunk can always be satisfied. Within a chunk, the ops are
+     * scheduled one op of time apart, ending at the wait time of the chunk.
+     */
+    @Override
+    public long[] maybeWaitForOps(int n, long[] schedule) {
+        if (schedule == null || schedule.length < n) {
+            schedule = new long[n];
+        }
+        long opNanos = rateSpec.getNanosPerOp();
+        int chunkOps = (int) Math.max(1L, Math.min(n, (TokenPool.getActivePoolSizeFor(rateSpec) / 2) / Math.max(opNanos, 1L)));
+
+        int offset = 0;
+        while (offset < n) {
+            int chunk = Math.min(n - offset, chunkOps);
+            long waittime = tokens.blockAndTake(chunk * opNanos);
+            long now = getNanoClockTime();
+            if (scheduled) {
+                long firstOpAt = getSchedule().nextOpsAt(chunk);
+                for (int i = 0; i < chunk; i++) {
+                    schedule[offset + i] = Math.min(firstOpAt + (i * opNanos), now);
+                }
+            } else {
+                long lastOpAt = now - waittime;
+                for (int i = 0; i < chunk; i++) {
+                    schedule[offset + i] = lastOpAt - ((chunk - 1 - i) * opNanos);
+                }
+            }
+            offset += chunk;
+        }
+        return schedule;
+    }
+
+    /**
+     * The tokens of the returned ops are credited back to the active pool. With scheduled
+     * start times, the schedule is also moved back, so that ops which are never started
+     * do not leave a gap in it.
+     */
+    @Override
+    public void returnOps(int n) {
+        if (n <= 0) {
+            return;
+        }
+        tokens.returnTokens(n * rateSpec.getNanosPerOp());
+        if (scheduled) {
+            getSchedule().returnOps(n);
+        }
+    }
+
+    TokenPool getTokenPool() {
+        return tokens;
+    }
+
     @Override
     public long getTotalWaitTime() {
         return this.cumulativeWaitTimeNanos.get() + getWaitTime();
@@ -150,8 +244,11 @@ public class HybridRateLimiter implements Startable, RateLimiter {
         }
 
         this.rateSpec = updatingRateSpec;
-        this.filler = (this.filler == null) ? new TokenFiller(rateSpec, activityDef) : filler.apply(rateSpec);
+        this.filler = (this.filler == null) ? new TokenFiller(rateSpec, newTokenPool(rateSpec), activityDef) : filler.apply(rateSpec);
         this.tokens = this.filler.getTokenPool();
+        if (this.schedule != null) {
+            this.schedule = this.schedule.rebase(rateSpec.getNanosPerOp());
+        }
 
         if (this.state == State.Idle && updatingRateSpec.isAutoStart()) {
             this.start();
@@ -160,6 +257,34 @@ public class HybridRateLimiter implements Startable, RateLimiter {
         }
     }
 
+    /**
+     * Create the token pool for this rate limiter, as selected by the
+     * <em>tokenpool</em> activity parameter. The default is <em>synchronized</em>,
+     * which uses the {@link SynchronizedTokenPool}. Setting it to <em>atomic</em>
+     * selects the lock-free {@link AtomicTokenPool}, which is better suited to high
+     * thread counts. When motors run on virtual threads, with <em>executor=virtual</em>,
+     * the default is <em>atomic</em> instead, since callers which wait on the monitor
+     * of the synchronized pool would pin their carrier threads.
+     *
+     * @param rateSpec The rate spec to initialize the pool with
+     * @return a new {@link TokenPool}
+     */
+    protected TokenPool newTokenPool(RateSpec rateSpec) {
+        if (activityDef == null) {
+            return new SynchronizedTokenPool(rateSpec);
+        }
+        String defaultType = activityDef.getParams().getOptionalString("executor").orElse("platform").equals("virtual") ?
+                "atomic" : "synchronized";
+        String poolType = activityDef.getParams().getOptionalString("tokenpool").orElse(defaultType);
+        switch (poolType) {
+            case "synchronized":
+                return new SynchronizedTokenPool(rateSpec);
+            case "atomic":
+                return new AtomicTokenPool(rateSpec);
+            default:
+                throw new RuntimeException("Unknown tokenpool type '" + poolType + "', valid values are synchronized or atomic");
+        }
+    }
 
     protected void init(ActivityDef activityDef) {
         this.delayGauge = ActivityMetrics.gauge(activityDef, label + ".waittime", new RateLimiters.WaitTimeGauge(this));
@@ -177,6 +302,9 @@ public class HybridRateLimiter implements Startable, RateLimiter {
             case Idle:
                 long nanos = getNanoClockTime();
                 this.starttime = nanos;
+                if (scheduled) {
+                    this.schedule = new OpSchedule(nanos, rateSpec.getNanosPerOp());
+                }
                 this.filler.start();
                 state = State.Started;
                 break;
@@ -191,6 +319,9 @@ public class HybridRateLimiter implements Startable, RateLimiter {
             case Started:
                 long accumulatedWaitSinceLastStart = cumulativeWaitTimeNanos.get();
                 cumulativeWaitTimeNanos.set(0L);
+                if (scheduled) {
+                    this.schedule = new OpSchedule(getNanoClockTime(), rateSpec.getNanosPerOp());
+                }
                 return this.filler.restart() + accumulatedWaitSinceLastStart;
             default:
                 return 0L;
@@ -223,6 +354,37 @@ public class HybridRateLimiter implements Startable, RateLimiter {
 //        return this.filler.getRefillLog();
 //    }
 
+    /**
+     * A fixed schedule of intended op start times. Each op takes the next slot
+     * in the schedule, so the intended start time of the nth op since the anchor
+     * is exactly n op times after the anchor.
+     */
+    private final static class OpSchedule {
+        private final long anchorNanos;
+        private final long nanosPerOp;
+        private final AtomicLong ops = new AtomicLong(0L);
+
+        private OpSchedule(long anchorNanos, long nanosPerOp) {
+            this.anchorNanos = anchorNanos;
+            this.nanosPerOp = nanosPerOp;
+        }
+
+        private long nextOpsAt(int n) {
+            return anchorNanos + (ops.getAndAdd(n) * nanosPerOp);
+        }
+
+        private void returnOps(int n) {
+            ops.addAndGet(-n);
+        }
+
+        /**
+         * Continue the schedule at a new rate from the next intended start time.
+         */
+        private OpSchedule rebase(long newNanosPerOp) {
+            return new OpSchedule(anchorNanos + (ops.get() * nanosPerOp), newNanosPerOp);
+        }
+    }
+
     private enum State {
         Idle,
         Started
@@ -35,6 +35,65 @@ public interface RateLimiter extends Startable {
      */
     long maybeWaitForOp();
 
+    /**
+     * Block until it is time for the next operation, as in {@link #maybeWaitForOp()},
+     * but return the intended start time of the operation, in {@link System#nanoTime()}
+     * terms, rather than the wait time.
+     *
+     * The default implementation derives the intended start time from the wait time.
+     * Rate limiters which keep an exact schedule of ops may return that instead.
+     *
+     * @return the intended start time of the op in nanoseconds
+     */
+    default long maybeWaitForScheduledOp() {
+        long waittime = maybeWaitForOp();
+        return System.nanoTime() - waittime;
+    }
+
+    /**
+     * Block until it is time for the next n operations, and return the
+     * intended start time of each of them, in {@link System#nanoTime()} terms.
+     * The wait time of each op is the difference between the time it actually
+     * starts and its intended start time. This allows callers to amortize the
+     * cost of rate limiting over a batch of operations, such as a stride.
+     *
+     * The default implementation simply calls {@link #maybeWaitForOp()} n times.
+     *
+     * @param n The number of ops to wait for
+     * @param schedule An array to hold the schedule, which is used if it
+     *                 can hold n values, or null
+     * @return an array with the intended start times of the n ops in the first n elements
+     */
+    default long[] maybeWaitForOps(int n, long[] schedule) {
+        if (schedule == null || schedule.length < n) {
+            schedule = new long[n];
+        }
+        for (int i = 0; i < n; i++) {
+            long waittime = maybeWaitForOp();
+            schedule[i] = System.nanoTime() - waittime;
+        }
+        return schedule;
+    }
+
+    /**
+     * Block until it is time for the next n operations, as in {@link #maybeWaitForOps(int, long[])}.
+     * @param n The number of ops to wait for
+     * @return an array with the intended start times of the n ops
+     */
+    default long[] maybeWaitForOps(int n) {
+        return maybeWaitForOps(n, null);
+    }
+
+    /**
+     * Give back ops which were waited for with {@link #maybeWaitForOps(int, long[])},
+     * but which will not be started, such as when a batch ends early. Their tokens
+     * are made available to other callers again. The default does nothing.
+     *
+     * @param n The number of ops which will not be started
+     */
+    default void returnOps(int n) {
+    }
+
     /**
      * Return the total number of nanoseconds behind schedule
      * that this rate limiter is, including the full history across all
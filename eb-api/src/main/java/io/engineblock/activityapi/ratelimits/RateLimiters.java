@@ -25,10 +25,25 @@ import org.slf4j.LoggerFactory;
 public class RateLimiters {
     private final static Logger logger = LoggerFactory.getLogger(RateLimiters.class);
 
+    /**
+     * Create a rate limiter for the given rate spec, or update the existing one if it is provided.
+     * When the <em>tokenlease</em> activity parameter is set, the rate limiter is striped so that
+     * each thread leases that many ops worth of tokens at a time. See {@link StripedRateLimiter}.
+     *
+     * @param def The activity definition
+     * @param label The label of the rate limiter, used for metrics names
+     * @param extant The existing rate limiter, or null
+     * @param spec The rate spec to apply
+     * @return A new or updated rate limiter
+     */
     public static synchronized RateLimiter createOrUpdate(ActivityDef def, String label, RateLimiter extant, RateSpec spec) {
 
         if (extant == null) {
-            RateLimiter rateLimiter= new HybridRateLimiter(def, label, spec);
+            HybridRateLimiter hybridRateLimiter = new HybridRateLimiter(def, label, spec);
+            RateLimiter rateLimiter = def.getParams().getOptionalInteger("tokenlease")
+                    .filter(leaseOps -> leaseOps > 1)
+                    .map(leaseOps -> (RateLimiter) new StripedRateLimiter(def, label, hybridRateLimiter, leaseOps))
+                    .orElse(hybridRateLimiter);
 
             logger.info("Using rate limiter: " + rateLimiter.toString());
             return rateLimiter;
@@ -0,0 +1,258 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import com.codahale.metrics.Gauge;
+import io.engineblock.activityimpl.ActivityDef;
+import io.engineblock.metrics.ActivityMetrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <H2>Synopsis</H2>
+ * <p>This rate limiter wraps a {@link HybridRateLimiter}, and lets each calling
+ * thread lease a batch of nanosecond tokens from the shared {@link TokenPool} at
+ * a time. Each thread then spends its leased tokens locally, one op at a time, so
+ * that the shared pool is only accessed once per lease instead of once per op.
+ * Since motor slots each run on their own thread, each slot has its own stripe.</p>
+ *
+ * <p>Leases are taken from the shared pool with the same blocking and bursting
+ * logic as single ops, so the burst ratio semantics of the underlying rate limiter
+ * are preserved. The cost is that tokens which are leased but not yet spent are
+ * granted ahead of schedule. The total of these is reported as the
+ * <em>&lt;label&gt;.leasedtime</em> gauge, in nanoseconds, and is the bound on how far
+ * ahead of a strict schedule the stripes may be at any moment.</p>
+ *
+ * <p>Unused tokens should be returned with {@link #releaseLease()} by the thread
+ * holding them when it stops, which also discards the stripe of that thread.
+ * Stripes of threads which have ended without releasing their lease are
+ * reclaimed, and their unused tokens returned, when new stripes are created.</p>
+ */
+public class StripedRateLimiter implements RateLimiter {
+
+    private final HybridRateLimiter rateLimiter;
+    private final int leaseOps;
+    private volatile long leaseTokens;
+    private volatile long nanosPerOp;
+    private volatile long epoch = 0L;
+
+    private final Queue<Stripe> stripes = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Stripe> tlStripe = ThreadLocal.withInitial(this::newStripe);
+
+    public StripedRateLimiter(ActivityDef def, String label, HybridRateLimiter rateLimiter, int leaseOps) {
+        if (leaseOps < 1) {
+            throw new RuntimeException("The number of ops per token lease must be at least 1.");
+        }
+        this.rateLimiter = rateLimiter;
+        this.leaseOps = leaseOps;
+        computeLeaseSize(rateLimiter.getRateSpec());
+        ActivityMetrics.gauge(def, label + ".leasedtime", new LeasedTimeGauge(this));
+    }
+
+    private Stripe newStripe() {
+        reclaimStripes();
+        Stripe stripe = new Stripe(Thread.currentThread(), epoch);
+        stripes.add(stripe);
+        return stripe;
+    }
+
+    /**
+     * Discard the stripes of threads which are no longer running, returning any
+     * tokens that they still held.
+     */
+    private void reclaimStripes() {
+        Iterator<Stripe> iterator = stripes.iterator();
+        while (iterator.hasNext()) {
+            Stripe stripe = iterator.next();
+            Thread owner = stripe.owner.get();
+            if (owner == null || !owner.isAlive()) {
+                iterator.remove();
+                returnUnused(stripe);
+            }
+        }
+    }
+
+    private void returnUnused(Stripe stripe) {
+        long unused = stripe.tokens.getAndSet(0L);
+        if (unused > 0 && stripe.epoch == epoch) {
+            rateLimiter.getTokenPool().returnTokens(unused);
+        }
+    }
+
+    /**
+     * The lease size is kept to at most half of the minimum active pool size,
+     * so that a lease can always be satisfied by a single fill, but never less
+     * than one op.
+     */
+    private void computeLeaseSize(RateSpec spec) {
+        long opNanos = spec.getNanosPerOp();
+        this.nanosPerOp = opNanos;
+        this.leaseTokens = Math.max(opNanos, Math.min(opNanos * leaseOps, TokenPool.getActivePoolSizeFor(spec) / 2));
+    }
+
+    /**
+     * The ops of a lease are scheduled one op of time apart, starting from when the
+     * first of them was due, which is when the lease was taken less its wait time. The
+     * wait time of each op is how late it is against that schedule, so ops later in a
+     * lease show any lag which builds up while the lease is spent.
+     */
+    @Override
+    public long maybeWaitForOp() {
+        Stripe stripe = tlStripe.get();
+        if (stripe.epoch != epoch) {
+            stripe.epoch = epoch;
+            stripe.tokens.lazySet(0L);
+        }
+        long tokens = stripe.tokens.get();
+        long opNanos = nanosPerOp;
+        long now;
+        if (tokens < opNanos) {
+            long lease = leaseTokens;
+            long waittime = rateLimiter.getTokenPool().blockAndTake(lease);
+            now = rateLimiter.getNanoClockTime();
+            stripe.nextOpAt = now - waittime;
+            tokens += lease;
+        } else {
+            now = rateLimiter.getNanoClockTime();
+        }
+        stripe.tokens.lazySet(tokens - opNanos);
+        long opAt = stripe.nextOpAt;
+        stripe.nextOpAt = opAt + opNanos;
+        return Math.max(now - opAt, 0L);
+    }
+
+    /**
+     * Returned ops are added back to the lease of the calling thread, and their
+     * places in the schedule of the lease are taken by the next ops.
+     */
+    @Override
+    public void returnOps(int n) {
+        if (n <= 0) {
+            return;
+        }
+        Stripe stripe = tlStripe.get();
+        if (stripe.epoch == epoch) {
+            stripe.tokens.lazySet(stripe.tokens.get() + (n * nanosPerOp));
+            stripe.nextOpAt -= n * nanosPerOp;
+        }
+    }
+
+    /**
+     * Return any tokens leased by the calling thread to the shared pool, and
+     * discard the stripe of the calling thread.
+     */
+    public void releaseLease() {
+        Stripe stripe = tlStripe.get();
+        tlStripe.remove();
+        stripes.remove(stripe);
+        returnUnused(stripe);
+    }
+
+    int getStripeCount() {
+        return stripes.size();
+    }
+
+    /**
+     * @return The number of nanoseconds which have been leased to stripes, but not yet spent
+     */
+    public long getLeasedTime() {
+        long leased = 0L;
+        for (Stripe stripe : stripes) {
+            if (stripe.epoch == epoch) {
+                leased += stripe.tokens.get();
+            }
+        }
+        return leased;
+    }
+
+    HybridRateLimiter getDelegate() {
+        return rateLimiter;
+    }
+
+    public int getLeaseOps() {
+        return leaseOps;
+    }
+
+    @Override
+    public long getTotalWaitTime() {
+        return rateLimiter.getTotalWaitTime();
+    }
+
+    @Override
+    public long getWaitTime() {
+        return rateLimiter.getWaitTime();
+    }
+
+    @Override
+    public synchronized void applyRateSpec(RateSpec spec) {
+        rateLimiter.applyRateSpec(spec);
+        computeLeaseSize(rateLimiter.getRateSpec());
+        if (spec.isRestart()) {
+            epoch++;
+        }
+    }
+
+    @Override
+    public long getStartTime() {
+        return rateLimiter.getStartTime();
+    }
+
+    @Override
+    public RateSpec getRateSpec() {
+        return rateLimiter.getRateSpec();
+    }
+
+    @Override
+    public void start() {
+        rateLimiter.start();
+    }
+
+    @Override
+    public String toString() {
+        return "striped(leaseops=" + leaseOps + ",leasenanos=" + leaseTokens + ") " + rateLimiter.toString();
+    }
+
+    private final static class Stripe {
+        private final AtomicLong tokens = new AtomicLong(0L);
+        private final WeakReference<Thread> owner;
+        private volatile long epoch;
+        private long nextOpAt;
+
+        private Stripe(Thread owner, long epoch) {
+            this.owner = new WeakReference<>(owner);
+            this.epoch = epoch;
+        }
+    }
+
+    public static class LeasedTimeGauge implements Gauge<Long> {
+        private final StripedRateLimiter rateLimiter;
+
+        public LeasedTimeGauge(StripedRateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+        }
+
+        @Override
+        public Long getValue() {
+            return rateLimiter.getLeasedTime();
+        }
+    }
+}
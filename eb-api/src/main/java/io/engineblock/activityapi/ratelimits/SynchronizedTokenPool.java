@@ -0,0 +1,248 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <h2>Synopsis</h2>
+ *
+ * This TokenPool represents a finite quantity which can be
+ * replenished with regular refills. Extra tokens that do not fit
+ * within the active token pool are saved in a waiting token pool and
+ * used to backfill when allowed according to the backfill rate.
+ *
+ * A detailed explanation for how this works will be included
+ * at @link "http://docs.engineblock.io/" under dev notes.
+ *
+ * <p>This is the default basis for the token-based rate limiters in
+ * EngineBlock. This mechanism is easily adaptable to bursting
+ * capability as well as a degree of stricter timing at speed.
+ * This version uses the intrinsic locks provided by synchronized
+ * methods. See {@link AtomicTokenPool} for a lock-free version
+ * which is better suited to high thread counts.
+ * </p>
+ */
+public class SynchronizedTokenPool implements TokenPool {
+
+    private final static Logger logger = LoggerFactory.getLogger(SynchronizedTokenPool.class);
+
+    private long maxActivePool;
+    private long burstPoolSize;
+    private long maxOverActivePool;
+    private double burstRatio;
+    private long minActivePool;
+    private volatile long activePool;
+    private volatile long waitingPool;
+    private RateSpec rateSpec;
+    private long nanosPerOp;
+    private long blocks = 0L;
+
+
+    /**
+     * This constructor tries to pick reasonable defaults for the token pool for
+     * a given rate spec. The active pool must be large enough to contain one
+     * op worth of time, and the burst ratio
+     *
+     * @param rateSpec a {@link RateSpec}
+     */
+    public SynchronizedTokenPool(RateSpec rateSpec) {
+        apply(rateSpec);
+        logger.debug("initialized token pool: " + this.toString() + " for rate:" + rateSpec.toString());
+    }
+
+    public SynchronizedTokenPool(long poolsize, double burstRatio) {
+        this.maxActivePool = poolsize;
+        this.burstRatio = burstRatio;
+        this.maxOverActivePool = (long) (maxActivePool * burstRatio);
+        this.burstPoolSize = maxOverActivePool - maxActivePool;
+    }
+
+    /**
+     * Change the settings of this token pool, and wake any blocked callers
+     * just in case it allows them to proceed.
+     *
+     * @param rateSpec The rate specifier.
+     */
+    @Override
+    public synchronized void apply(RateSpec rateSpec) {
+        this.rateSpec=rateSpec;
+        this.maxActivePool = Math.max(TokenPool.getActivePoolSizeFor(rateSpec), minActivePool);
+        this.maxOverActivePool = (long) (maxActivePool * rateSpec.getBurstRatio());
+        this.burstRatio = rateSpec.getBurstRatio();
+
+        this.burstPoolSize = maxOverActivePool - maxActivePool;
+        this.nanosPerOp = rateSpec.getNanosPerOp();
+        notifyAll();
+    }
+
+
+    @Override
+    public synchronized void setMinActivePool(long minActivePool) {
+        if (this.minActivePool != minActivePool) {
+            this.minActivePool = minActivePool;
+            if (rateSpec != null) {
+                apply(rateSpec);
+            }
+        }
+    }
+
+    @Override
+    public double getBurstRatio() {
+        return burstRatio;
+    }
+
+    /**
+     * Take tokens up to amt tokens form the pool and report
+     * the amount of token removed.
+     *
+     * @param amt tokens requested
+     * @return actual number of tokens removed, greater to or equal to zero
+     */
+    @Override
+    public synchronized long takeUpTo(long amt) {
+        long take = Math.min(amt, activePool);
+        activePool -= take;
+        return take;
+    }
+
+    /**
+     * wait for the given number of tokens to be available, and then remove
+     * them from the pool.
+     *
+     * @return the total number of tokens untaken, including wait tokens
+     */
+    @Override
+    public synchronized long blockAndTake() {
+        while (activePool < nanosPerOp) {
+            blocks++;
+            try {
+                wait(maxActivePool / 1000000, (int) maxActivePool % 1000000);
+            } catch (InterruptedException ignored) {
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        activePool -= nanosPerOp;
+        return waitingPool + activePool;
+    }
+
+    @Override
+    public synchronized long blockAndTake(long tokens) {
+        while (activePool < tokens) {
+            try {
+                wait(maxActivePool / 1000000, (int) maxActivePool % 1000000);
+            } catch (InterruptedException ignored) {
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        activePool -= tokens;
+        return waitingPool + activePool;
+    }
+
+    @Override
+    public long getWaitTime() {
+        return activePool + waitingPool;
+    }
+
+    @Override
+    public long getWaitPool() {
+        return waitingPool;
+    }
+
+    @Override
+    public long getActivePool() {
+        return activePool;
+    }
+
+    /**
+     * Add the given number of new tokens to the pool, forcing any amount
+     * that would spill over the current pool size into the wait token pool, but
+     * moving up to the configured burst tokens back from the wait token pool
+     * otherwise.
+     *
+     * The amount of backfilling that occurs is controlled by the backfill ratio,
+     * based on the number of tokens submitted. This causes normalizes the
+     * backfilling rate to the fill rate, so that it is not sensitive to refill
+     * scheduling.
+     *
+     * @param newTokens The number of new tokens to add to the token pools
+     * @return the total number of tokens in all pools
+     */
+    @Override
+    public synchronized long refill(long newTokens) {
+        long needed = Math.max(maxActivePool - activePool, 0L);
+        long allocatedToActivePool = Math.min(newTokens, needed);
+        activePool += allocatedToActivePool;
+
+
+        // overflow logic
+        long allocatedToOverflowPool = newTokens - allocatedToActivePool;
+        waitingPool += allocatedToOverflowPool;
+
+        // backfill logic
+        double refillFactor = Math.min((double) newTokens / maxActivePool, 1.0D);
+        long burstFillAllowed =(long) (refillFactor* burstPoolSize);
+
+        burstFillAllowed = Math.min(maxOverActivePool - activePool, burstFillAllowed);
+        long burstFill = Math.min(burstFillAllowed, waitingPool);
+
+        waitingPool -= burstFill;
+        activePool += burstFill;
+
+        notifyAll();
+
+        return activePool+waitingPool;
+    }
+
+    @Override
+    public synchronized long returnTokens(long tokens) {
+        long credited = Math.min(tokens, Math.max(maxActivePool - activePool, 0L));
+        activePool += credited;
+        waitingPool += tokens - credited;
+        notifyAll();
+        return activePool + waitingPool;
+    }
+
+    @Override
+    public String toString() {
+        return "Tokens: active=" + activePool +"/" + maxActivePool
+                + String.format(
+                        " (%3.1f%%)A (%3.1f%%)B ",
+                (((double)activePool/(double)maxActivePool)*100.0),
+                (((double)activePool/(double)maxOverActivePool)*100.0)) + " waiting=" + waitingPool +
+                " blocks=" + blocks +
+                " rateSpec:"+ ((rateSpec!=null) ? rateSpec.toString() : "NULL");
+    }
+
+    @Override
+    public RateSpec getRateSpec() {
+        return rateSpec;
+    }
+
+    @Override
+    public synchronized long restart() {
+        long wait=activePool+waitingPool;
+        activePool=0L;
+        waitingPool=0L;
+        return wait;
+
+    }
+}
@@ -17,6 +17,7 @@
 
 package io.engineblock.activityapi.ratelimits;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Timer;
 import io.engineblock.activityapi.sysperf.SysPerf;
 import io.engineblock.activityapi.sysperf.SysPerfData;
@@ -28,55 +29,225 @@ import org.slf4j.LoggerFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
+/**
+ * <p>A token filler adds tokens to a {@link TokenPool} at regular intervals. The
+ * interval is derived from the {@link RateSpec}, so that low rates are not refilled
+ * more often than needed, and high rates are refilled in smaller increments to
+ * avoid microbursts when there is little or no burst capacity.</p>
+ *
+ * <p>The interval is never less than the timing accuracy of parking a thread, as
+ * measured by {@link SysPerf}, since it could not be achieved. While running, the
+ * achieved tick jitter is tracked, and if the scheduling is less accurate than
+ * was measured, the interval is widened to suit. The jitter is reported as the
+ * <em>tokenfiller.jitter</em> histogram, in nanoseconds.</p>
+ */
 public class TokenFiller implements Runnable {
     private final static Logger logger = LoggerFactory.getLogger(TokenFiller.class);
 
     public final static double MIN_PER_SECOND = 10D;
+    /**
+     * The default limit of refills per second, which can be raised with the
+     * <em>maxfillrate</em> activity parameter.
+     */
     public final static double MAX_PER_SECOND = 1000D;
+    /**
+     * The minimum interval, as a multiple of the measured or achieved scheduling jitter
+     */
+    public final static double JITTER_FACTOR = 4.0D;
+    private final static double JITTER_SMOOTHING = 0.01D;
+
     private final SysPerfData PERFDATA = SysPerf.get().getPerfData(false);
-    private final long interval = (long) 1E6;
+    private final long minInterval;
+    private volatile long interval;
+    private long poolInterval;
+    private long scheduledInterval;
+    private volatile double avgJitter = 0.0D;
 
     private final TokenPool tokenPool;
     private volatile boolean running = true;
-    private RateSpec rateSpec;
+    private volatile RateSpec rateSpec;
+    private final boolean shared;
     private Thread thread;
     private volatile long lastRefillAt;
     private Timer timer;
+    private Histogram jitterHistogram;
 
     /**
      * A token filler adds tokens to a {@link TokenPool} at some rate.
-     * By default, this rate is at least every millisecond +- scheduling jitter
-     * in the JVM.
+     * By default, this rate is derived from the rate spec, within the
+     * limits of scheduling jitter in the JVM.
      *
      * @param rateSpec A {@link RateSpec}
      * @param def An {@link ActivityDef}
      */
     public TokenFiller(RateSpec rateSpec, ActivityDef def) {
+        this(rateSpec, new SynchronizedTokenPool(rateSpec), def);
+    }
+
+    /**
+     * A token filler which adds tokens to the provided {@link TokenPool}.
+     *
+     * @param rateSpec A {@link RateSpec}
+     * @param tokenPool A {@link TokenPool} which has already had the rate spec applied
+     * @param def An {@link ActivityDef}
+     */
+    public TokenFiller(RateSpec rateSpec, TokenPool tokenPool, ActivityDef def) {
         this.rateSpec = rateSpec;
-        this.tokenPool= new TokenPool(rateSpec);
+        this.tokenPool= tokenPool;
         this.tokenPool.refill(rateSpec.getNanosPerOp());
+        this.shared = isShared(def);
         this.timer = ActivityMetrics.timer(def, "tokenfiller");
+        this.jitterHistogram = ActivityMetrics.histogram(def, "tokenfiller.jitter");
+        this.minInterval = computeMinInterval(PERFDATA, getMaxFillRate(def));
+        setInterval(computeInterval(rateSpec, minInterval));
     }
 
     public TokenFiller apply(RateSpec rateSpec) {
         this.rateSpec = rateSpec;
         this.tokenPool.apply(rateSpec);
+        setInterval(computeInterval(rateSpec, Math.max(minInterval, (long) (avgJitter * JITTER_FACTOR))));
         return this;
     }
 
-    private void stop() {
+    private static double getMaxFillRate(ActivityDef def) {
+        double maxFillRate = (def == null) ? MAX_PER_SECOND :
+                def.getParams().getOptionalDouble("maxfillrate").orElse(MAX_PER_SECOND);
+        if (maxFillRate < MIN_PER_SECOND) {
+            throw new RuntimeException("maxfillrate must be at least " + MIN_PER_SECOND + ", not " + maxFillRate);
+        }
+        return maxFillRate;
+    }
+
+    /**
+     * The minimum interval is the larger of the interval allowed by the maximum refills
+     * per second and a safe multiple of the time it takes to park a thread for the minimum time.
+     *
+     * @param perfData The system performance data, or null if it is not available
+     * @param maxPerSecond The most refills per second, normally {@link #MAX_PER_SECOND}
+     * @return the minimum refill interval in nanoseconds
+     */
+    static long computeMinInterval(SysPerfData perfData, double maxPerSecond) {
+        long minInterval = (long) (1E9 / maxPerSecond);
+        if (perfData != null && perfData.getValues().containsKey(SysPerfData.METHOD_LOCKSUPPORT_PARKNANOS)) {
+            minInterval = Math.max(minInterval, (long) (perfData.getAvgNanos_LockSupport_ParkNanos() * JITTER_FACTOR));
+        }
+        return minInterval;
+    }
+
+    /**
+     * The interval is one op of time, but no more than allowed by {@link #MIN_PER_SECOND}.
+     * The minimum interval is a hard floor above that. Instead of shortening the interval
+     * to fit in the active pool, the active pool is enlarged to fit the interval, by
+     * {@link #setInterval(long)}.
+     *
+     * @param rateSpec The rate spec to derive the interval for
+     * @param minInterval The minimum interval, in nanoseconds
+     * @return the refill interval in nanoseconds
+     */
+    static long computeInterval(RateSpec rateSpec, long minInterval) {
+        long interval = Math.min(rateSpec.getNanosPerOp(), (long) (1E9 / MIN_PER_SECOND));
+        return Math.max(interval, minInterval);
+    }
+
+    /**
+     * Use a new interval, and make sure the active pool can hold two intervals of tokens,
+     * so that a single refill can not overflow it at the nominal rate. The pool is only
+     * resized when the interval grows past what it holds, or shrinks to less than half of
+     * that, so that small changes in jitter do not resize it on every refill.
+     */
+    private synchronized void setInterval(long interval) {
+        this.interval = interval;
+        if (interval > poolInterval || interval < poolInterval / 2) {
+            poolInterval = interval;
+            tokenPool.setMinActivePool(interval * 2);
+        }
+    }
+
+    /**
+     * Track the achieved jitter, and widen the interval if the jitter is larger
+     * than allowed for by the current interval. The interval is narrowed again
+     * as the jitter subsides.
+     */
+    private void adaptInterval(long jitter) {
+        jitterHistogram.update(jitter);
+        avgJitter += (Math.max(jitter, 0L) - avgJitter) * JITTER_SMOOTHING;
+        long floor = Math.max(minInterval, (long) (avgJitter * JITTER_FACTOR));
+        setInterval(computeInterval(rateSpec, floor));
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * By default, each token filler runs on its own thread. When the <em>tokenfiller</em>
+     * activity parameter is set to <em>shared</em>, token fillers are instead run by the
+     * {@link TokenFillerScheduler}, which refills all of them from a single thread.
+     */
+    private static boolean isShared(ActivityDef def) {
+        String fillerType = (def == null) ? "thread" :
+                def.getParams().getOptionalString("tokenfiller").orElse("thread");
+        switch (fillerType) {
+            case "thread":
+                return false;
+            case "shared":
+                return true;
+            default:
+                throw new RuntimeException("Unknown tokenfiller type '" + fillerType + "', valid values are thread or shared");
+        }
+    }
+
+    public void stop() {
         this.running=false;
+        if (shared) {
+            TokenFillerScheduler.get().unregister(this);
+        }
     }
 
     public TokenPool getTokenPool() {
         return tokenPool;
     }
 
+    /**
+     * Start refilling from the given time.
+     *
+     * @param startAt The time to start from, in {@link System#nanoTime()} terms
+     * @return the time at which the first refill is due
+     */
+    long begin(long startAt) {
+        lastRefillAt = startAt;
+        scheduledInterval = interval;
+        return startAt + scheduledInterval;
+    }
+
+    /**
+     * Refill the token pool with the time which has passed since the last refill.
+     *
+     * @param thisRefillTime The time of this refill, in {@link System#nanoTime()} terms
+     * @return the time at which the next refill is due
+     */
+    long fill(long thisRefillTime) {
+//        this.times[iteration]=thisRefillTime;
+        long delta = thisRefillTime - lastRefillAt;
+//        this.amounts[iteration]=delta;
+        lastRefillAt = thisRefillTime;
+
+        //System.out.println(this);
+        tokenPool.refill(delta);
+        timer.update(delta, TimeUnit.NANOSECONDS);
+        adaptInterval(delta - scheduledInterval);
+        scheduledInterval = interval;
+        return thisRefillTime + scheduledInterval;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
     @Override
     public void run() {
-        lastRefillAt = System.nanoTime();
+        long nextRefillTime = begin(System.nanoTime());
         while (running) {
-            long nextRefillTime = lastRefillAt + interval;
             long thisRefillTime = System.nanoTime();
             while (thisRefillTime < nextRefillTime) {
 //            while (thisRefillTime < lastRefillAt + interval) {
@@ -86,20 +257,18 @@ public class TokenFiller implements Runnable {
                 thisRefillTime = System.nanoTime();
             }
 
-//            this.times[iteration]=thisRefillTime;
-            long delta = thisRefillTime - lastRefillAt;
-//            this.amounts[iteration]=delta;
-            lastRefillAt = thisRefillTime;
-
-            //System.out.println(this);
-            tokenPool.refill(delta);
-            timer.update(delta, TimeUnit.NANOSECONDS);
+            nextRefillTime = fill(thisRefillTime);
 //            iteration++;
 
         }
     }
 
     public TokenFiller start() {
+        if (shared) {
+            TokenFillerScheduler.get().register(this);
+            logger.debug("Registered token filler with shared scheduler: " + this.toString());
+            return this;
+        }
         thread = new Thread(this);
         thread.setName(this.toString());
         thread.setPriority(Thread.MAX_PRIORITY);
@@ -111,7 +280,7 @@ public class TokenFiller implements Runnable {
 
     @Override
     public String toString() {
-        return "TokenFiller spec=" + rateSpec + " interval=" + this.interval + "ns pool:" + tokenPool +" running=" + running;
+        return "TokenFiller spec=" + rateSpec + " interval=" + this.interval + "ns" + (shared ? " shared" : "") + " pool:" + tokenPool +" running=" + running;
     }
 
 //    public String getRefillLog() {
@@ -0,0 +1,121 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>A single scheduler thread which refills all registered {@link TokenFiller}s,
+ * instead of each token filler running on its own thread. Each token filler
+ * keeps its own interval and refill accounting, so the rate of each token pool
+ * is preserved. The scheduler only decides when each one is due.</p>
+ *
+ * <p>Token fillers are kept in order of when they are next due. The scheduler
+ * parks until the earliest one is due, and then refills all of those which are
+ * due at that time. Token fillers are held weakly, so that those which belong to
+ * rate limiters which are no longer used will be dropped without being stopped.</p>
+ */
+public class TokenFillerScheduler implements Runnable {
+    private final static Logger logger = LoggerFactory.getLogger(TokenFillerScheduler.class);
+
+    private final static long IDLE_PARK_NANOS = 100_000_000L;
+    private static TokenFillerScheduler instance;
+
+    private final PriorityQueue<Entry> schedule = new PriorityQueue<>(Comparator.comparingLong(e -> e.dueAt));
+    private Thread thread;
+
+    private TokenFillerScheduler() {
+    }
+
+    public synchronized static TokenFillerScheduler get() {
+        if (instance == null) {
+            instance = new TokenFillerScheduler();
+        }
+        return instance;
+    }
+
+    public synchronized void register(TokenFiller filler) {
+        if (isRegistered(filler)) {
+            return;
+        }
+        schedule.add(new Entry(filler, filler.begin(System.nanoTime())));
+        if (thread == null) {
+            thread = new Thread(this);
+            thread.setName("TokenFillerScheduler");
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.setDaemon(true);
+            thread.start();
+            logger.debug("Started shared token filler thread");
+        } else {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public synchronized void unregister(TokenFiller filler) {
+        schedule.removeIf(e -> e.get() == null || e.get() == filler);
+    }
+
+    synchronized boolean isRegistered(TokenFiller filler) {
+        return schedule.stream().anyMatch(e -> e.get() == filler);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            long nextDueAt = fillDue(System.nanoTime());
+            long now = System.nanoTime();
+            if (nextDueAt - now > 0) {
+                LockSupport.parkNanos(this, Math.min(nextDueAt - now, IDLE_PARK_NANOS));
+            }
+        }
+    }
+
+    /**
+     * Refill each token filler which is due at the given time, and reschedule it.
+     *
+     * @param now The current time, in {@link System#nanoTime()} terms
+     * @return the time at which the next token filler is due, or the idle time if there are none
+     */
+    private synchronized long fillDue(long now) {
+        Entry entry;
+        while ((entry = schedule.peek()) != null && entry.dueAt - now <= 0) {
+            schedule.poll();
+            TokenFiller filler = entry.get();
+            if (filler != null && filler.isRunning()) {
+                entry.dueAt = filler.fill(now);
+                schedule.add(entry);
+            }
+        }
+        return (entry == null) ? now + IDLE_PARK_NANOS : entry.dueAt;
+    }
+
+    private final static class Entry extends WeakReference<TokenFiller> {
+        private long dueAt;
+
+        private Entry(TokenFiller filler, long dueAt) {
+            super(filler);
+            this.dueAt = dueAt;
+        }
+    }
+}
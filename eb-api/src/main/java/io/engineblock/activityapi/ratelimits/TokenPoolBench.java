@@ -0,0 +1,94 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import io.engineblock.activityimpl.ActivityDef;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH comparison of the token pool implementations under thread contention.
+ * The rate is set well above what the pool can dispatch, so the measured time
+ * per op is the calling overhead of the pool itself, not the rate limit.
+ *
+ * Run the main method to sweep thread counts from 1 to 128.
+ */
+@State(Scope.Benchmark)
+public class TokenPoolBench {
+
+    private final static Logger logger = LoggerFactory.getLogger(TokenPoolBench.class);
+
+    @Param({"synchronized", "atomic"})
+    public String tokenpool;
+
+    private TokenFiller filler;
+    private TokenPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=tokenpoolbench");
+        RateSpec spec = new RateSpec(1E9, 1.1);
+        pool = tokenpool.equals("atomic") ? new AtomicTokenPool(spec) : new SynchronizedTokenPool(spec);
+        filler = new TokenFiller(spec, pool, def).start();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() {
+        filler.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 2, timeUnit = TimeUnit.SECONDS, time = 5)
+    @Measurement(iterations = 3, timeUnit = TimeUnit.SECONDS, time = 5)
+    public long blockAndTake() {
+        return pool.blockAndTake();
+    }
+
+    public static void main(String[] args) {
+        for (int threads = 1; threads <= 128; threads *= 2) {
+            try {
+                String logfile = Files.createTempFile("jmh_tokenpool_" + threads, ".log").toString();
+                Options options = new OptionsBuilder()
+                        .forks(1)
+                        .threads(threads)
+                        .include(TokenPoolBench.class.getSimpleName())
+                        .output(logfile)
+                        .build();
+                logger.info("running token pool microbench with " + threads + " threads; details in " + logfile);
+                for (RunResult result : new Runner(options).run()) {
+                    logger.info(String.format("threads=%d tokenpool=%s %.3f ns/op",
+                            threads,
+                            result.getParams().getParam("tokenpool"),
+                            result.getPrimaryResult().getScore()));
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -31,7 +31,7 @@ public class SysPerfData {
     private final static String METHOD_THREAD_SLEEP = "callThreadSleep";
 //    private final static String METHOD_EMPTY_METHOD = "callEmptyMethod";
     private final static String METHOD_SYSTEM_NANOTIME = "callSystemNanoTime";
-    private static final String METHOD_LOCKSUPPORT_PARKNANOS = "callLockSupportParkNanos";
+    public static final String METHOD_LOCKSUPPORT_PARKNANOS = "callLockSupportParkNanos";
 
     private Map<String, Double> values = new HashMap<>();
     //    private double avgNanos_Method_Call;
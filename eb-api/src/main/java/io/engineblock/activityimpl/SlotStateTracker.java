@@ -53,16 +53,23 @@ public class SlotStateTracker {
     /**
      * <p>Transition the thread slot to a new state. only accepting valid transitions.</p>
      * <p>The valid slot states will be moved to a data type eventually, simplifying this method.</p>
+     * <p>This does not take a lock, so that motors on virtual threads are never pinned to their
+     * carrier threads by it. If the state is changed concurrently, the transition is validated again
+     * against the new state.</p>
      *
      * @param to The next SlotState for this thread/slot/motor
      */
-    public synchronized void enterState(RunState to) {
+    public void enterState(RunState to) {
         RunState from = slotState.get();
-        if (!from.canTransitionTo(to)) {
-            throw new RuntimeException("Invalid transition from " + from + " to " + to);
-        }
-        while (!slotState.compareAndSet(from, to)) {
+        while (true) {
+            if (!from.canTransitionTo(to)) {
+                throw new RuntimeException("Invalid transition from " + from + " to " + to);
+            }
+            if (slotState.compareAndSet(from, to)) {
+                break;
+            }
             logger.trace("retrying transition from:" + from + " to:" + to);
+            from = slotState.get();
         }
         logger.trace("TRANSITION[" + slotId + "]: " + from + " ==> " + to);
 
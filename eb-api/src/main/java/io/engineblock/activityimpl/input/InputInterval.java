@@ -87,6 +87,15 @@ public class InputInterval implements Input {
             return next >= afterEnd;
         }
 
+        @Override
+        public int nextCycles(long[] cycles, int offset, int length) {
+            int taken = (int) Math.max(0L, Math.min(length, afterEnd - next));
+            for (int i = 0; i < taken; i++) {
+                cycles[offset + i] = next++;
+            }
+            return taken;
+        }
+
 
         public String toString() {
             return "InputInterval.Segment(" + start + "," + afterEnd + "]: next=" + next;
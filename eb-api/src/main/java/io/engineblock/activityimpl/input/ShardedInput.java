@@ -0,0 +1,277 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityimpl.input;
+
+import io.engineblock.activityapi.core.ActivityDefObserver;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleSegment;
+import io.engineblock.activityapi.input.Input;
+import io.engineblock.activityimpl.ActivityDef;
+import io.engineblock.util.Unit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>This input provides the same cycles as {@link AtomicInput}, but without having every
+ * thread claim cycles from the same counter. The cycle range is split into a number of
+ * shards, each with its own counter, and each thread claims strides from its own shard.
+ * Once the shard of a thread is used up, the thread takes strides from the other shards
+ * in turn, so that all threads stay busy until all cycles have been claimed.</p>
+ *
+ * <p>Shards are split on stride boundaries of the <em>stride</em> activity parameter, which
+ * motors claim cycles by, so only the last stride of the range may be short. The counters
+ * of the shards are spaced apart so that they do not share cache lines.</p>
+ *
+ * <p>Each thread is given a shard the first time it asks for cycles, in the order that
+ * threads arrive. When there are more threads than shards, the shards are shared.</p>
+ *
+ * <p>When all shards are used up, and recycles remain, the range is split into shards
+ * again, and the next pass begins. Cycles are not provided in order, so this input is not
+ * contiguous.</p>
+ */
+public class ShardedInput implements Input, ActivityDefObserver, ProgressCapable {
+    private final static Logger logger = LoggerFactory.getLogger(ShardedInput.class);
+
+    /**
+     * The number of longs between shard counters, enough to keep each on its own cache line.
+     */
+    private final static int PADDING = 16;
+
+    private final int shardCount;
+    private final AtomicInteger nextHome = new AtomicInteger(0);
+    private final ThreadLocal<Integer> home;
+
+    private final AtomicLong recycleValue = new AtomicLong(0L);
+    private final AtomicLong recycleMax = new AtomicLong(0L);
+    private final LongAdder steals = new LongAdder();
+
+    private volatile Partition partition;
+    private volatile int stride;
+    private ActivityDef activityDef;
+
+    public ShardedInput(ActivityDef activityDef, int shards) {
+        if (shards < 1) {
+            throw new InvalidParameterException("shards must be at least 1, not " + shards);
+        }
+        this.shardCount = shards;
+        this.home = ThreadLocal.withInitial(() -> nextHome.getAndIncrement() % shardCount);
+        this.activityDef = activityDef;
+        onActivityDefUpdate(activityDef);
+    }
+
+    public ShardedInput(ActivityDef activityDef) {
+        this(activityDef, Math.max(1, activityDef.getThreads()));
+    }
+
+    @Override
+    public CycleSegment getInputSegment(int stride) {
+        int first = home.get();
+        while (true) {
+            Partition p = this.partition;
+            long pass = recycleValue.get();
+            for (int i = 0; i < shardCount; i++) {
+                int shard = (first + i) % shardCount;
+                CycleSegment segment = p.claim(shard, stride);
+                if (segment != null) {
+                    if (i > 0) {
+                        steals.increment();
+                    }
+                    return segment;
+                }
+            }
+            if (!recycle(p, pass)) {
+                logger.debug("Exhausted input for " + activityDef.getAlias() + ", recycle count " + recycleValue.get());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Start the next pass, once all shards of the current one have been used up.
+     *
+     * @param p    The partition which was found to be used up
+     * @param pass The recycle count when it was found to be used up
+     * @return false if there are no recycles left, true if cycles may be claimed again
+     */
+    private synchronized boolean recycle(Partition p, long pass) {
+        if (p != partition || pass != recycleValue.get()) {
+            return true;
+        }
+        if (recycleValue.get() >= recycleMax.get()) {
+            return false;
+        }
+        this.partition = new Partition(p.min, p.getMax(), stride, shardCount);
+        recycleValue.incrementAndGet();
+        logger.trace("recycling input for " + activityDef.getAlias() + " recycle:" + recycleValue.get());
+        return true;
+    }
+
+    @Override
+    public double getProgress() {
+        return (double) partition.getClaimed();
+    }
+
+    @Override
+    public double getTotal() {
+        Partition p = partition;
+        return (double) (p.getMax() - p.min);
+    }
+
+    @Override
+    public String getProgressDetails() {
+        Partition p = partition;
+        return "min=" + p.min + " claimed=" + p.getClaimed() + " max=" + p.getMax() +
+                " shards=" + shardCount + " steals=" + steals.sum() +
+                (recycleMax.get() > 0L ? " recycles=" + recycleValue.get() + "/" + recycleMax.get() : "");
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedInput{" +
+                "partition=" + partition +
+                ", activity=" + activityDef.getAlias() +
+                '}';
+    }
+
+    /**
+     * <p>As with {@link AtomicInput}, the current pass only starts over when min changes.
+     * When max changes, the shards keep their positions, and the last shard is extended or
+     * the shards are cut short. When the stride changes, it is used from the next pass.</p>
+     */
+    @Override
+    public synchronized void onActivityDefUpdate(ActivityDef activityDef) {
+
+        if (activityDef.getCycleCount() == 0) {
+            if (activityDef.getParams().containsKey("cycles")) {
+                throw new RuntimeException("You specified cycles, but the range specified means zero cycles: " + activityDef.getParams().get("cycles"));
+            }
+        }
+
+        long startCycle = activityDef.getStartCycle();
+        long endCycle = activityDef.getEndCycle();
+        if (startCycle > endCycle) {
+            throw new InvalidParameterException("min (" + startCycle + ") must be less than or equal to max (" + endCycle + ")");
+        }
+        this.stride = activityDef.getParams().getOptionalInteger("stride").orElse(1);
+
+        Partition p = this.partition;
+        if (p == null || p.min != startCycle) {
+            this.partition = new Partition(startCycle, endCycle, stride, shardCount);
+        } else if (p.getMax() != endCycle) {
+            p.setMax(endCycle);
+        }
+
+        long recycles = activityDef.getParams().getOptionalString("recycles").flatMap(Unit::longCountFor).orElse(0L);
+        this.recycleMax.set(recycles);
+    }
+
+    @Override
+    public boolean isContiguous() {
+        return false;
+    }
+
+    private final static class Partition {
+        private final long min;
+        private volatile long max;
+        private final long[] starts;
+        private final long[] limits;
+        private final AtomicLongArray ends;
+        private final AtomicLongArray positions;
+
+        private Partition(long min, long max, int stride, int shards) {
+            this.min = min;
+            this.max = max;
+            long strideLength = Math.max(1, stride);
+            this.starts = new long[shards];
+            this.limits = new long[shards];
+            this.ends = new AtomicLongArray(shards);
+            this.positions = new AtomicLongArray(shards * PADDING);
+
+            long strides = (max - min + strideLength - 1) / strideLength;
+            long perShard = strides / shards;
+            long remainder = strides % shards;
+            long start = min;
+            for (int i = 0; i < shards; i++) {
+                long shardStrides = perShard + (i < remainder ? 1 : 0);
+                long end = Math.min(max, start + shardStrides * strideLength);
+                starts[i] = start;
+                limits[i] = end;
+                ends.set(i, end);
+                positions.set(i * PADDING, start);
+                start = end;
+            }
+        }
+
+        private long getMax() {
+            return max;
+        }
+
+        /**
+         * Move the end of the range without moving any shard positions. The last shard
+         * ends at max, so it takes any added cycles, and shards past a lower max are cut
+         * short, up to the end they were split with. Claims which were made before this
+         * may still end past a lower max.
+         */
+        private synchronized void setMax(long max) {
+            this.max = max;
+            int last = starts.length - 1;
+            for (int i = 0; i < last; i++) {
+                ends.set(i, Math.max(starts[i], Math.min(limits[i], max)));
+            }
+            ends.set(last, Math.max(starts[last], max));
+        }
+
+        private CycleSegment claim(int shard, int length) {
+            int index = shard * PADDING;
+            long end = ends.get(shard);
+            while (true) {
+                long current = positions.get(index);
+                if (current >= end) {
+                    return null;
+                }
+                long next = Math.min(current + length, end);
+                if (positions.compareAndSet(index, current, next)) {
+                    return new InputInterval.Segment(current, next);
+                }
+            }
+        }
+
+        private long getClaimed() {
+            long claimed = 0L;
+            for (int i = 0; i < starts.length; i++) {
+                claimed += Math.min(positions.get(i * PADDING), ends.get(i)) - starts[i];
+            }
+            return claimed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[").append(min).append(",").append(max).append(")");
+            for (int i = 0; i < starts.length; i++) {
+                sb.append(i == 0 ? " shards=" : ",")
+                        .append("[").append(positions.get(i * PADDING)).append(",").append(ends.get(i)).append(")");
+            }
+            return sb.toString();
+        }
+    }
+
+}
@@ -0,0 +1,286 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityimpl.marker;
+
+import io.engineblock.activityapi.core.Activity;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+import io.engineblock.activityapi.cyclelog.inputs.cyclelog.CanFilterResultValue;
+import io.engineblock.activityapi.output.Output;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * <p>A cycle output which marks results into {@link BitmapTrackerExtent}s, and passes
+ * them on to extent readers one extent at a time, in cycle order, except for late
+ * results as described below.</p>
+ *
+ * <p>Unlike {@link ContiguousOutputChunker}, marking is not synchronized. Each segment
+ * of results is marked in bulk, with one atomic operation for each 64 cycle word of
+ * an extent which it touches, so motors only contend when they mark the same word.
+ * Extents are kept in a map by the first cycle of their range, and are created as
+ * cycles within their range are marked.</p>
+ *
+ * <p>Each extent is passed on once every cycle in it and in the extents before it is
+ * marked. Since inputs are not required to be contiguous, as with cycle log or filtered
+ * inputs, some cycles may never be marked, so an extent is also passed on once cycles have been marked more than
+ * <em>lagExtents</em> extents beyond it. At close, all extents are passed on.</p>
+ *
+ * <p>Results which arrive for an extent after it was passed on are not merged into
+ * another extent. They are marked in a new extent for the same range, which is passed
+ * on as soon as it is at the head of the pending extents, since it is already past its
+ * lag. Readers will then see these cycles after higher cycles from extents that were
+ * passed on before them. The cycle log output indexes each extent by its own range, so
+ * it can still seek to these cycles when it is read back.</p>
+ *
+ * <p>Extents are passed on by whichever marking thread finds the lowest extent complete.
+ * Only one thread does this at a time, so readers are never called concurrently.</p>
+ */
+public class BitmapOutputChunker implements Output, CanFilterResultValue {
+
+    private final static Logger logger = LoggerFactory.getLogger(BitmapOutputChunker.class);
+    private final static int DEFAULT_EXTENT_SIZE = 65536;
+    private final static int DEFAULT_LAG_EXTENTS = 3;
+
+    private final long origin;
+    private final int extentSize;
+    private final int lagExtents;
+    private final ConcurrentSkipListMap<Long, BitmapTrackerExtent> extents = new ConcurrentSkipListMap<>();
+    private final AtomicLong highestMarked = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private volatile long nextBase;
+    private final List<Output> readers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<long[]> batchCycles = ThreadLocal.withInitial(() -> new long[BATCH_SIZE]);
+    private final ThreadLocal<int[]> batchResults = ThreadLocal.withInitial(() -> new int[BATCH_SIZE]);
+    private Predicate<ResultReadable> filter;
+
+    /**
+     * @param origin     The first cycle of the input, which extent ranges are aligned to
+     * @param extentSize The number of cycles in each extent
+     * @param lagExtents How many extents past an incomplete extent cycles must be marked
+     *                   before it is passed on anyway
+     */
+    public BitmapOutputChunker(long origin, int extentSize, int lagExtents) {
+        this.origin = origin;
+        this.extentSize = extentSize;
+        this.lagExtents = lagExtents;
+        this.nextBase = origin;
+    }
+
+    public BitmapOutputChunker(Activity activity) {
+        this(activity.getActivityDef().getStartCycle(),
+                (int) Math.min(DEFAULT_EXTENT_SIZE, Math.max(1L, activity.getActivityDef().getCycleCount())),
+                DEFAULT_LAG_EXTENTS);
+    }
+
+    @Override
+    public boolean onCycleResult(long completedCycle, int result) {
+        BitmapTrackerExtent extent = beginMarking(completedCycle);
+        try {
+            extent.commit(extent.wordOf(completedCycle), extent.put(completedCycle, result));
+        } finally {
+            extent.endMarking();
+        }
+        onMarked(completedCycle);
+        return true;
+    }
+
+    /**
+     * Mark all of the results in a segment. Bits are gathered for each word of the bitmap,
+     * and set together when the segment moves to another word or extent.
+     */
+    @Override
+    public void onCycleResultSegment(CycleResultsSegment segment) {
+        BitmapTrackerExtent extent = null;
+        int word = -1;
+        long bits = 0L;
+        long highest = Long.MIN_VALUE;
+        long[] cycles = batchCycles.get();
+        int[] results = batchResults.get();
+        long index = 0L;
+        int copied;
+        try {
+            while ((copied = segment.getResults(index, cycles, results, 0, BATCH_SIZE)) > 0) {
+                index += copied;
+                for (int i = 0; i < copied; i++) {
+                    long cycle = cycles[i];
+                    if (extent == null || !extent.contains(cycle)) {
+                        if (extent != null) {
+                            extent.commit(word, bits);
+                            extent.endMarking();
+                        }
+                        extent = null;
+                        extent = beginMarking(cycle);
+                        word = extent.wordOf(cycle);
+                        bits = 0L;
+                    } else if (extent.wordOf(cycle) != word) {
+                        extent.commit(word, bits);
+                        word = extent.wordOf(cycle);
+                        bits = 0L;
+                    }
+                    bits |= extent.put(cycle, results[i]);
+                    highest = Math.max(highest, cycle);
+                }
+            }
+            if (extent != null) {
+                extent.commit(word, bits);
+            }
+        } finally {
+            if (extent != null) {
+                extent.endMarking();
+            }
+        }
+        if (highest != Long.MIN_VALUE) {
+            onMarked(highest);
+        }
+    }
+
+    /**
+     * @return an extent which the cycle may be marked in, after {@link BitmapTrackerExtent#beginMarking()}
+     */
+    private BitmapTrackerExtent beginMarking(long cycle) {
+        long base = origin + Math.floorDiv(cycle - origin, (long) extentSize) * extentSize;
+        while (true) {
+            BitmapTrackerExtent extent = extents.get(base);
+            if (extent == null) {
+                BitmapTrackerExtent created = new BitmapTrackerExtent(base, extentSize);
+                extent = extents.putIfAbsent(base, created);
+                if (extent == null) {
+                    extent = created;
+                }
+            }
+            if (extent.beginMarking()) {
+                return extent;
+            }
+            // sealed, so it is being passed on; replace it with a new one for late results,
+            // which will be passed on out of cycle order
+            extents.remove(base, extent);
+        }
+    }
+
+    private void onMarked(long cycle) {
+        if (highestMarked.get() < cycle) {
+            highestMarked.accumulateAndGet(cycle, Math::max);
+        }
+        Map.Entry<Long, BitmapTrackerExtent> first = extents.firstEntry();
+        if (first != null && isComplete(first.getValue())) {
+            drain(false);
+        }
+    }
+
+    /**
+     * A full extent is only complete when no lower extent is still to be passed on. When
+     * lower extents have not been created yet, it waits for the lag like any other extent.
+     */
+    private boolean isComplete(BitmapTrackerExtent extent) {
+        if (extent.isFullyFilled() && extent.getMin() <= nextBase) {
+            return true;
+        }
+        return highestMarked.get() >= extent.getMin() + (long) extentSize * (lagExtents + 1);
+    }
+
+    /**
+     * Pass on the lowest extents while they are complete, or all of them when closing.
+     * If another thread is already doing this, it will see any extent which this thread
+     * completed, since it checks again after it stops.
+     */
+    private void drain(boolean all) {
+        while (draining.compareAndSet(false, true)) {
+            try {
+                Map.Entry<Long, BitmapTrackerExtent> head;
+                while ((head = extents.firstEntry()) != null && (all || isComplete(head.getValue()))) {
+                    BitmapTrackerExtent extent = head.getValue();
+                    List<CycleResultsSegment> segments = extent.sealAndRead();
+                    extents.remove(head.getKey(), extent);
+                    nextBase = Math.max(nextBase, extent.getMin() + extentSize);
+                    onFullyFilled(extent, segments);
+                }
+            } finally {
+                draining.set(false);
+            }
+            Map.Entry<Long, BitmapTrackerExtent> head = extents.firstEntry();
+            if (head == null || !(all || isComplete(head.getValue()))) {
+                return;
+            }
+        }
+    }
+
+    private void onFullyFilled(BitmapTrackerExtent extent, List<CycleResultsSegment> segments) {
+        logger.trace("MARKER>: passing on: " + extent);
+        for (CycleResultsSegment segment : segments) {
+            if (filter != null) {
+                segment = segment.filter(filter);
+                if (segment.getCount() == 0) {
+                    continue;
+                }
+            }
+            for (Output reader : readers) {
+                reader.onCycleResultSegment(segment);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        while (!extents.isEmpty()) {
+            drain(true);
+        }
+        for (Output reader : this.readers) {
+            logger.debug("closing downstream reader: " + reader);
+            reader.close();
+        }
+    }
+
+    public void addExtentReader(Output reader) {
+        this.readers.add(reader);
+    }
+
+    public void removeExtentReader(Output reader) {
+        this.readers.remove(reader);
+    }
+
+    /**
+     * @return the number of extents which have not been passed on yet
+     */
+    public int getPendingExtents() {
+        return extents.size();
+    }
+
+    @Override
+    public void setFilter(Predicate<ResultReadable> filter) {
+        this.filter = ResultFilterTable.compile(filter);
+    }
+
+    @Override
+    public String toString() {
+        return BitmapOutputChunker.class.getSimpleName() + "{" +
+                "extentSize=" + extentSize +
+                ", readers=" + readers +
+                ", origin=" + origin +
+                ", pendingExtents=" + extents.size() +
+                '}';
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityimpl.marker;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsIntervalSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A marker extent for a fixed range of cycles, which records which cycles have been
+ * marked as bits in a packed bitmap, and their results in a separate byte array.</p>
+ *
+ * <p>Marking is lock-free. Results are written into the result array first, and then the
+ * bits for them are set with one atomic OR for each 64 cycle word, so that the results
+ * for every set bit are visible to any thread which reads the bitmap afterwards.
+ * Cycles which are marked more than once are only counted once.</p>
+ *
+ * <p>Before an extent is read, it is sealed. Marking threads which find an extent sealed
+ * must mark into another extent for the same range instead. Reading waits for any
+ * marking which started before the extent was sealed, so that no marks are lost.</p>
+ */
+public class BitmapTrackerExtent {
+
+    private final long min;
+    private final int size;
+    private final AtomicLongArray words;
+    private final byte[] results;
+    private final AtomicInteger totalMarked = new AtomicInteger(0);
+    private final AtomicInteger activeMarkers = new AtomicInteger(0);
+    private volatile boolean sealed = false;
+
+    /**
+     * @param min  the first cycle in the extent
+     * @param size the number of cycles in the extent
+     */
+    public BitmapTrackerExtent(long min, int size) {
+        this.min = min;
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+        this.results = new byte[size];
+    }
+
+    /**
+     * Start marking. This must be followed by {@link #endMarking()} if it returns true.
+     * @return false if the extent has been sealed, and may not be marked
+     */
+    public boolean beginMarking() {
+        activeMarkers.incrementAndGet();
+        if (sealed) {
+            activeMarkers.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void endMarking() {
+        activeMarkers.decrementAndGet();
+    }
+
+    /**
+     * Record a result without setting its bit. The bits are set for a whole word at a time
+     * with {@link #commit(int, long)}.
+     * @param cycle a cycle within this extent
+     * @param result the result code
+     * @return the bit for the cycle, within its word
+     */
+    public long put(long cycle, int result) {
+        int position = (int) (cycle - min);
+        results[position] = (byte) (result & 127);
+        return 1L << (position & 63);
+    }
+
+    /**
+     * Set the bits for a word of results which were recorded with {@link #put(long, int)}.
+     * @param word the index of the word
+     * @param bits the bits to set
+     * @return the number of cycles which were not marked before
+     */
+    public int commit(int word, long bits) {
+        long before = words.getAndAccumulate(word, bits, (a, b) -> a | b);
+        int added = Long.bitCount(bits & ~before);
+        if (added > 0) {
+            totalMarked.addAndGet(added);
+        }
+        return added;
+    }
+
+    /**
+     * @param cycle a cycle within this extent
+     * @return the index of the word which holds the bit for the cycle
+     */
+    public int wordOf(long cycle) {
+        return (int) (cycle - min) >>> 6;
+    }
+
+    public boolean contains(long cycle) {
+        return cycle >= min && cycle < min + size;
+    }
+
+    public boolean isFullyFilled() {
+        return totalMarked.get() == size;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * Seal the extent, wait for any marking which is in progress, and return the marked
+     * results as segments of contiguous cycles, in order.
+     * @return the marked results
+     */
+    public List<CycleResultsSegment> sealAndRead() {
+        sealed = true;
+        while (activeMarkers.get() > 0) {
+            Thread.yield();
+        }
+        List<CycleResultsSegment> segments = new ArrayList<>();
+        if (isFullyFilled()) {
+            segments.add(CycleResultsIntervalSegment.forData(min, results));
+            return segments;
+        }
+        int runStart = -1;
+        for (int position = 0; position <= size; position++) {
+            boolean marked = position < size && (words.get(position >>> 6) & (1L << (position & 63))) != 0L;
+            if (marked && runStart < 0) {
+                runStart = position;
+            } else if (!marked && runStart >= 0) {
+                segments.add(CycleResultsIntervalSegment.forData(min + runStart, results, runStart, position - runStart));
+                runStart = -1;
+            }
+        }
+        return segments;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getMarkedCount() {
+        return totalMarked.get();
+    }
+
+    public String rangeSummary() {
+        return "[" + min + "," + (min + size) + ")";
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapTrackerExtent" + rangeSummary() + " marked=" + totalMarked.get() + (sealed ? " sealed" : "");
+    }
+}
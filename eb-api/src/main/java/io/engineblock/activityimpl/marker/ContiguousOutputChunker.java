@@ -18,7 +18,6 @@
 package io.engineblock.activityimpl.marker;
 
 import io.engineblock.activityapi.core.Activity;
-import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsIntervalSegment;
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
 import io.engineblock.activityapi.output.Output;
@@ -107,9 +106,7 @@ public class ContiguousOutputChunker implements Output {
     @Override
     public synchronized void onCycleResultSegment(CycleResultsSegment segment) {
         logger.trace("on-cycle-result-segment: (" + segment + ")");
-        for (CycleResult cr : segment) {
-            onCycleResult(cr.getCycle(), cr.getResult());
-        }
+        Output.super.onCycleResultSegment(segment);
     }
 
     @Override
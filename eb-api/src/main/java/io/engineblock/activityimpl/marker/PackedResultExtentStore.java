@@ -0,0 +1,459 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityimpl.marker;
+
+import io.engineblock.activityapi.cyclelog.buffers.CycleResultSegmentsReadable;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsPackedSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+import io.engineblock.activityapi.cyclelog.inputs.cyclelog.CanFilterResultValue;
+import io.engineblock.activityapi.output.Output;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * <p>Tracks the result of every cycle in a range, in buffers outside of the heap, so that
+ * runs of billions of cycles can be tracked without large extents on the heap or garbage
+ * collection. Results are bit-packed with 1, 2, 4 or 8 bits each, alongside a bitmap of
+ * which cycles have been marked.</p>
+ *
+ * <p>The range is divided into extents of <em>extentCycles</em> cycles, each held in one
+ * buffer. Extents are created when a cycle within them is first marked. They are either
+ * direct buffers, or, when a file is given, regions of the file mapped into memory, in
+ * which case the operating system pages them in and out as needed and the results are
+ * kept in the file. A file is truncated when it is opened, unless the existing results
+ * are to be kept, in which case it must be opened with the same range, result bits and
+ * extent size that it was written with.</p>
+ *
+ * <p>Marking is lock-free and may be done by any number of threads. A result is written
+ * into its packed word with compare-and-set, and then the bit for its cycle is set, so
+ * that a result is visible to any thread which sees it marked. Marking a cycle again
+ * replaces its result.</p>
+ *
+ * <p>The marked results can be read as segments of contiguous cycles, in cycle order.
+ * These are views of the extents, and can be passed to any other {@link Output}. When
+ * the store is closed, they are passed on to any extent readers, which are then closed.</p>
+ */
+public class PackedResultExtentStore implements Output, CycleResultSegmentsReadable, CanFilterResultValue {
+
+    private final static Logger logger = LoggerFactory.getLogger(PackedResultExtentStore.class);
+    private final static VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    public final static int DEFAULT_EXTENT_CYCLES = 1 << 24;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long min;
+    private final long count;
+    private final int resultBits;
+    private final int resultLimit;
+    private final int extentCycles;
+    private final int markBytes;
+    private final int extentBytes;
+    private final AtomicReferenceArray<ByteBuffer> extents;
+    private final List<Output> readers = new CopyOnWriteArrayList<>();
+    private Predicate<ResultReadable> filter;
+
+    /**
+     * Track results in direct buffers.
+     *
+     * @param min        The first cycle in the range
+     * @param count      The number of cycles in the range
+     * @param resultBits The number of bits for each result, which is 1, 2, 4 or 8
+     */
+    public PackedResultExtentStore(long min, long count, int resultBits) {
+        this(null, min, count, resultBits, DEFAULT_EXTENT_CYCLES);
+    }
+
+    /**
+     * Track results in a new file, or in direct buffers.
+     *
+     * @param file         The file to keep results in, which is truncated, or null to use direct buffers
+     * @param min          The first cycle in the range
+     * @param count        The number of cycles in the range
+     * @param resultBits   The number of bits for each result, which is 1, 2, 4 or 8
+     * @param extentCycles The number of cycles in each extent, which is a multiple of 64
+     */
+    public PackedResultExtentStore(File file, long min, long count, int resultBits, int extentCycles) {
+        this(file, min, count, resultBits, extentCycles, false);
+    }
+
+    /**
+     * @param file         The file to keep results in, or null to use direct buffers
+     * @param min          The first cycle in the range
+     * @param count        The number of cycles in the range
+     * @param resultBits   The number of bits for each result, which is 1, 2, 4 or 8
+     * @param extentCycles The number of cycles in each extent, which is a multiple of 64
+     * @param keepResults  Whether to keep the results already in the file, which must have
+     *                     been written with the same range, result bits and extent size
+     */
+    public PackedResultExtentStore(File file, long min, long count, int resultBits, int extentCycles,
+                                   boolean keepResults) {
+        if (resultBits != 1 && resultBits != 2 && resultBits != 4 && resultBits != 8) {
+            throw new RuntimeException("resultBits must be 1, 2, 4 or 8, not " + resultBits);
+        }
+        if (extentCycles <= 0 || (extentCycles & 63) != 0) {
+            throw new RuntimeException("extentCycles must be a positive multiple of 64, not " + extentCycles);
+        }
+        if ((long) extentCycles * (resultBits + 1) / 8 > Integer.MAX_VALUE) {
+            throw new RuntimeException("extentCycles of " + extentCycles + " is too large for "
+                    + resultBits + " result bits");
+        }
+        this.file = file;
+        this.min = min;
+        this.count = count;
+        this.resultBits = resultBits;
+        this.resultLimit = (1 << resultBits) - 1;
+        this.extentCycles = extentCycles;
+        this.markBytes = extentCycles / 8;
+        this.extentBytes = markBytes + (int) ((long) extentCycles * resultBits / 8);
+        long extentCount = (count + extentCycles - 1) / extentCycles;
+        if (extentCount > Integer.MAX_VALUE) {
+            throw new RuntimeException("Unable to track " + count + " cycles in extents of " + extentCycles);
+        }
+        this.extents = new AtomicReferenceArray<>((int) extentCount);
+        if (file != null) {
+            try {
+                this.channel = keepResults
+                        ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                        : FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to open result file " + file + ": " + e, e);
+            }
+            if (keepResults) {
+                validateSize(extentCount);
+            }
+        } else {
+            this.channel = null;
+        }
+    }
+
+    /**
+     * A file written with the same layout holds a whole number of extents, no more than
+     * the range has.
+     */
+    private void validateSize(long extentCount) {
+        long size;
+        try {
+            size = channel.size();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read size of result file " + file + ": " + e, e);
+        }
+        if (size % extentBytes != 0 || size > extentCount * extentBytes) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            throw new RuntimeException("Result file " + file + " of " + size + " bytes was not written for "
+                    + this + ", which uses extents of " + extentBytes + " bytes");
+        }
+    }
+
+    @Override
+    public boolean onCycleResult(long completedCycle, int result) {
+        mark(completedCycle, result);
+        return true;
+    }
+
+    /**
+     * Mark a cycle with a result.
+     *
+     * @param cycle  A cycle within the range
+     * @param result A result between 0 and 2^resultBits-1
+     * @return true if the cycle was not marked before
+     */
+    public boolean mark(long cycle, int result) {
+        if (result < 0 || result > resultLimit) {
+            throw new RuntimeException("Unable to track result value " + result + " with " + resultBits + " result bits.");
+        }
+        long index = indexOf(cycle);
+        ByteBuffer extent = getExtent((int) (index / extentCycles), true);
+        int position = (int) (index % extentCycles);
+
+        long bit = (long) position * resultBits;
+        int word = markBytes + (int) (bit >>> 6) * 8;
+        int shift = (int) (bit & 63);
+        long mask = (long) resultLimit << shift;
+        long value = (long) result << shift;
+        long before;
+        do {
+            before = (long) LONGS.getVolatile(extent, word);
+        } while (!LONGS.compareAndSet(extent, word, before, (before & ~mask) | value));
+
+        long markBit = 1L << (position & 63);
+        long marks = (long) LONGS.getAndBitwiseOrRelease(extent, (position >>> 6) * 8, markBit);
+        return (marks & markBit) == 0L;
+    }
+
+    /**
+     * @param cycle A cycle within the range
+     * @return the result of the cycle, or -1 if it has not been marked
+     */
+    public int getResult(long cycle) {
+        long index = indexOf(cycle);
+        ByteBuffer extent = getExtent((int) (index / extentCycles), false);
+        if (extent == null) {
+            return -1;
+        }
+        int position = (int) (index % extentCycles);
+        long marks = (long) LONGS.getAcquire(extent, (position >>> 6) * 8);
+        if ((marks & (1L << (position & 63))) == 0L) {
+            return -1;
+        }
+        return CycleResultsPackedSegment.getPacked(extent, markBytes, position, resultBits);
+    }
+
+    /**
+     * Count the marked cycles. This reads the whole bitmap of every extent.
+     *
+     * @return the number of marked cycles
+     */
+    public long getMarkedCount() {
+        long marked = 0L;
+        for (int i = 0; i < extents.length(); i++) {
+            ByteBuffer extent = getExtent(i, false);
+            if (extent != null) {
+                for (int word = 0; word < markBytes; word += 8) {
+                    marked += Long.bitCount((long) LONGS.getAcquire(extent, word));
+                }
+            }
+        }
+        return marked;
+    }
+
+    private long indexOf(long cycle) {
+        long index = cycle - min;
+        if (index < 0 || index >= count) {
+            throw new RuntimeException("cycle " + cycle + " is outside of the tracked range [" + min + "," + (min + count) + ")");
+        }
+        return index;
+    }
+
+    /**
+     * @param extentIndex The index of the extent
+     * @param create      Whether to create the extent if it does not exist
+     * @return the buffer for the extent, or null if it does not exist and was not created
+     */
+    private ByteBuffer getExtent(int extentIndex, boolean create) {
+        ByteBuffer extent = extents.get(extentIndex);
+        if (extent != null) {
+            return extent;
+        }
+        if (!create && !existsInFile(extentIndex)) {
+            return null;
+        }
+        synchronized (extents) {
+            extent = extents.get(extentIndex);
+            if (extent == null) {
+                extent = allocate(extentIndex);
+                extents.set(extentIndex, extent);
+            }
+            return extent;
+        }
+    }
+
+    private boolean existsInFile(int extentIndex) {
+        if (channel == null) {
+            return false;
+        }
+        try {
+            return channel.size() >= (long) (extentIndex + 1) * extentBytes;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read size of result file " + file + ": " + e, e);
+        }
+    }
+
+    private ByteBuffer allocate(int extentIndex) {
+        if (channel == null) {
+            logger.debug("allocating direct result extent " + extentIndex + " of " + extentBytes + " bytes");
+            return ByteBuffer.allocateDirect(extentBytes);
+        }
+        try {
+            logger.debug("mapping result extent " + extentIndex + " of " + extentBytes + " bytes from " + file);
+            return channel.map(FileChannel.MapMode.READ_WRITE, (long) extentIndex * extentBytes, extentBytes);
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to map result extent " + extentIndex + " of " + file + ": " + e, e);
+        }
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getResultBits() {
+        return resultBits;
+    }
+
+    public int getExtentCycles() {
+        return extentCycles;
+    }
+
+    /**
+     * @return the number of bytes used for each extent
+     */
+    public int getExtentBytes() {
+        return extentBytes;
+    }
+
+    /**
+     * @return an iterator over the runs of marked cycles, in cycle order. A run is split
+     * where it crosses from one extent to the next.
+     */
+    @Override
+    public Iterator<CycleResultsSegment> iterator() {
+        return new RunIterator();
+    }
+
+    public void addExtentReader(Output reader) {
+        this.readers.add(reader);
+    }
+
+    public void removeExtentReader(Output reader) {
+        this.readers.remove(reader);
+    }
+
+    @Override
+    public void setFilter(Predicate<ResultReadable> filter) {
+        this.filter = ResultFilterTable.compile(filter);
+    }
+
+    /**
+     * Pass on the marked results to any extent readers and close them. Then sync any
+     * mapped extents to the file, and close it.
+     */
+    @Override
+    public void close() throws Exception {
+        if (!readers.isEmpty()) {
+            for (CycleResultsSegment segment : this) {
+                if (filter != null) {
+                    segment = segment.filter(filter);
+                    if (segment.getCount() == 0) {
+                        continue;
+                    }
+                }
+                for (Output reader : readers) {
+                    reader.onCycleResultSegment(segment);
+                }
+            }
+            for (Output reader : readers) {
+                logger.debug("closing downstream reader: " + reader);
+                reader.close();
+            }
+        }
+        if (channel == null) {
+            return;
+        }
+        for (int i = 0; i < extents.length(); i++) {
+            ByteBuffer extent = extents.get(i);
+            if (extent instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) extent).force();
+            }
+        }
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return PackedResultExtentStore.class.getSimpleName() + "{" +
+                "range=[" + min + "," + (min + count) + ")" +
+                ", resultBits=" + resultBits +
+                ", extentCycles=" + extentCycles +
+                (file != null ? ", file=" + file : "") +
+                '}';
+    }
+
+    private class RunIterator implements Iterator<CycleResultsSegment> {
+        private int extentIndex = 0;
+        private int position = 0;
+        private CycleResultsSegment next;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                next = findNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public CycleResultsSegment next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            CycleResultsSegment segment = next;
+            next = null;
+            return segment;
+        }
+
+        private CycleResultsSegment findNext() {
+            while (extentIndex < extents.length()) {
+                ByteBuffer extent = getExtent(extentIndex, false);
+                int limit = (int) Math.min(extentCycles, count - (long) extentIndex * extentCycles);
+                if (extent != null) {
+                    int start = scan(extent, position, limit, true);
+                    if (start < limit) {
+                        int end = scan(extent, start, limit, false);
+                        position = end;
+                        long cycle = min + (long) extentIndex * extentCycles + start;
+                        return new CycleResultsPackedSegment(cycle, extent.duplicate(), markBytes, start, end - start, resultBits);
+                    }
+                }
+                extentIndex++;
+                position = 0;
+            }
+            return null;
+        }
+
+        /**
+         * @return the first position from the given one which is marked or unmarked, as given,
+         * or the limit if there is none
+         */
+        private int scan(ByteBuffer extent, int from, int limit, boolean marked) {
+            int position = from;
+            while (position < limit) {
+                long marks = (long) LONGS.getAcquire(extent, (position >>> 6) * 8);
+                long remaining = (marked ? marks : ~marks) & (-1L << (position & 63));
+                if (remaining != 0L) {
+                    return Math.min(limit, (position & ~63) + Long.numberOfTrailingZeros(remaining));
+                }
+                position = (position & ~63) + 64;
+            }
+            return limit;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.codahale.metrics.Timer;
 import io.engineblock.activityapi.core.*;
 import io.engineblock.activityapi.core.ops.fluent.OpTracker;
 import io.engineblock.activityapi.core.ops.fluent.OpTrackerImpl;
+import io.engineblock.activityapi.core.ops.fluent.Recycler;
 import io.engineblock.activityapi.core.ops.fluent.opfacets.TrackedOp;
 import io.engineblock.activityapi.cyclelog.buffers.op_output.StrideOutputConsumer;
 import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultSegmentBuffer;
@@ -29,6 +30,7 @@ import io.engineblock.activityapi.cyclelog.buffers.results.CycleSegment;
 import io.engineblock.activityapi.input.Input;
 import io.engineblock.activityapi.output.Output;
 import io.engineblock.activityapi.ratelimits.RateLimiter;
+import io.engineblock.activityapi.ratelimits.StripedRateLimiter;
 import io.engineblock.activityimpl.ActivityDef;
 import io.engineblock.activityimpl.SlotStateTracker;
 import org.slf4j.Logger;
@@ -65,6 +67,12 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
     private RateLimiter cycleRateLimiter;
     private Timer cyclesTimer;
     private Timer cycleResponseTimer;
+    private boolean strideBatch = false;
+    private long[] cycleSchedule;
+    private int scheduledCycles = 0;
+    private boolean scheduledResponseTime = false;
+    private long cycleScheduledAt;
+    private boolean recycleOps = false;
 
     private RateLimiter phaseRateLimiter;
     private Timer phasesTimer;
@@ -196,6 +204,7 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
 
             stridesServiceTimer = activity.getInstrumentation().getOrCreateStridesServiceTimer();
             stridesResponseTimer = activity.getInstrumentation().getStridesResponseTimerOrNull();
+            cycleResponseTimer = activity.getInstrumentation().getCyclesResponseTimerOrNull();
             optrackerBlockCounter = activity.getInstrumentation().getOrCreateOpTrackerBlockedCounter();
 
 
@@ -239,7 +248,9 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
                 @SuppressWarnings("unchecked")
                 AsyncAction<D> async = AsyncAction.class.cast(action);
 
-                opTracker = new OpTrackerImpl<>(activity, slotId);
+                OpTrackerImpl<D> tracker = new OpTrackerImpl<>(activity, slotId);
+                tracker.setRecycleOps(recycleOps);
+                opTracker = tracker;
                 opTracker.setCycleOpFunction(async.getOpInitFunction());
 
                 StrideOutputConsumer<D> outputreader = null;
@@ -247,6 +258,13 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
                     outputreader = (StrideOutputConsumer<D>) async;
                 }
 
+                Recycler<StrideTracker<D>> strideRecycler = null;
+                if (recycleOps) {
+                    StrideOutputConsumer<D> strideOutputReader = outputreader;
+                    strideRecycler = new Recycler<>(() -> new StrideTracker<>(
+                            stridesServiceTimer, stridesResponseTimer, 0L, 0L, stride, output, strideOutputReader));
+                }
+
                 while (slotState.get() == Running) {
 
                     CycleSegment cycleSegment = null;
@@ -266,14 +284,24 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
                         strideDelay = strideRateLimiter.maybeWaitForOp();
                     }
 
-                    StrideTracker<D> strideTracker = new StrideTracker<>(
-                            stridesServiceTimer,
-                            stridesResponseTimer,
-                            strideDelay,
-                            cycleSegment.peekNextCycle(),
-                            stride,
-                            output,
-                            outputreader);
+                    int cycleIndex = 0;
+                    scheduleStride();
+
+                    StrideTracker<D> strideTracker;
+                    if (strideRecycler != null) {
+                        strideTracker = strideRecycler.acquire();
+                        strideTracker.reset(strideDelay, cycleSegment.peekNextCycle(), stride);
+                        strideTracker.setRecycler(opTracker, strideRecycler);
+                    } else {
+                        strideTracker = new StrideTracker<>(
+                                stridesServiceTimer,
+                                stridesResponseTimer,
+                                strideDelay,
+                                cycleSegment.peekNextCycle(),
+                                stride,
+                                output,
+                                outputreader);
+                    }
                     strideTracker.start();
 
                     long strideStart = System.nanoTime();
@@ -294,23 +322,33 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
                         }
 
                         if (cycleRateLimiter != null) {
-                            // Block for cycle rate limiter
-                            cycleDelay = cycleRateLimiter.maybeWaitForOp();
+                            cycleDelay = nextCycleDelay(cycleIndex++);
                         }
 
                         try {
                             TrackedOp<D> op = opTracker.newOp(cyclenum,strideTracker);
                             op.setWaitTime(cycleDelay);
+                            if (scheduledResponseTime && cycleRateLimiter != null) {
+                                op.setScheduledStartTime(cycleScheduledAt);
+                            }
 
-                            synchronized (opTracker) {
+                            try {
                                 while (opTracker.isFull()) {
-                                    try {
-                                        logger.trace("Blocking for enqueue with (" + opTracker.getPendingOps() + "/" + opTracker.getMaxPendingOps() + ") queued ops");
-                                        optrackerBlockCounter.inc();
-                                        opTracker.wait(10000);
-                                    } catch (InterruptedException ignored) {
-                                    }
+                                    logger.trace("Blocking for enqueue with (" + opTracker.getPendingOps() + "/" + opTracker.getMaxPendingOps() + ") queued ops");
+                                    optrackerBlockCounter.inc();
+                                    opTracker.awaitCapacity(10000);
+                                }
+                            } catch (InterruptedException e) {
+                                logger.debug("interrupted while waiting to enqueue cycle " + cyclenum + ", stopping motor thread " + slotId);
+                                if (cycleRateLimiter != null) {
+                                    // this cycle was not started, so its op is returned with the rest of the stride
+                                    cycleIndex--;
+                                }
+                                // a forced stop has already moved the slot to Stopping before interrupting it
+                                if (slotState.get() == Running) {
+                                    slotStateTracker.enterState(Stopping);
                                 }
+                                continue;
                             }
 
                             async.enqueue(op);
@@ -328,12 +366,18 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
                             throw t;
                         }
                     }
+                    returnUnstartedCycles(cycleIndex);
 
 
                 }
 
                 if (slotState.get() == Finished) {
-                    boolean finished = opTracker.awaitCompletion(60000);
+                    boolean finished = false;
+                    try {
+                        finished = opTracker.awaitCompletion(60000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
                     if (finished) {
                         logger.debug("slot " + this.slotId + " completed successfully");
                     } else {
@@ -379,6 +423,9 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
                         strideDelay = strideRateLimiter.maybeWaitForOp();
                     }
 
+                    int cycleIndex = 0;
+                    scheduleStride();
+
                     long strideStart = System.nanoTime();
                     try {
 
@@ -399,8 +446,7 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
                             int result = -1;
 
                             if (cycleRateLimiter != null) {
-                                // Block for cycle rate limiter
-                                cycleDelay = cycleRateLimiter.maybeWaitForOp();
+                                cycleDelay = nextCycleDelay(cycleIndex++);
                             }
 
                             long cycleStart = System.nanoTime();
@@ -432,11 +478,15 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
                             } finally {
                                 long cycleEnd = System.nanoTime();
                                 cyclesTimer.update((cycleEnd - cycleStart) + cycleDelay, TimeUnit.NANOSECONDS);
+                                if (scheduledResponseTime && cycleResponseTimer != null && cycleRateLimiter != null) {
+                                    cycleResponseTimer.update(cycleEnd - cycleScheduledAt, TimeUnit.NANOSECONDS);
+                                }
                             }
                             segBuffer.append(cyclenum, result);
                         }
 
                     } finally {
+                        returnUnstartedCycles(cycleIndex);
                         long strideEnd = System.nanoTime();
                         stridesServiceTimer.update((strideEnd - strideStart) + strideDelay, TimeUnit.NANOSECONDS);
                     }
@@ -464,6 +514,67 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
         } catch (Throwable t) {
             logger.error("Error in core motor loop:" + t, t);
             throw t;
+        } finally {
+            releaseLeases();
+        }
+    }
+
+    /**
+     * When stride batching is enabled, block for the cycle rate limiter once for
+     * the whole stride, keeping the intended start time of each cycle.
+     */
+    private void scheduleStride() {
+        scheduledCycles = 0;
+        if (cycleRateLimiter != null && strideBatch) {
+            int cycles = stride;
+            cycleSchedule = cycleRateLimiter.maybeWaitForOps(cycles, cycleSchedule);
+            scheduledCycles = cycles;
+        }
+    }
+
+    /**
+     * When a stride ends with fewer cycles than were scheduled for it, such as the last
+     * segment of an input, a filtered segment, or when the motor is stopped, give the
+     * ops which were not started back to the cycle rate limiter.
+     * @param startedCycles The number of cycles of the stride which were started
+     */
+    private void returnUnstartedCycles(int startedCycles) {
+        if (startedCycles < scheduledCycles) {
+            cycleRateLimiter.returnOps(scheduledCycles - startedCycles);
+        }
+        scheduledCycles = 0;
+    }
+
+    /**
+     * Get the wait time for the next cycle. When stride batching is enabled, this is
+     * how late the cycle is relative to the schedule which was taken for the stride.
+     * Otherwise, this blocks on the cycle rate limiter for the cycle.
+     * When scheduled response times are enabled, the intended start time of the
+     * cycle is also kept, so that the cycle response time can be measured from it.
+     * @param cycleIndex The index of the cycle within the current stride
+     * @return The cycle wait time in nanoseconds
+     */
+    private long nextCycleDelay(int cycleIndex) {
+        if (cycleIndex < scheduledCycles) {
+            cycleScheduledAt = cycleSchedule[cycleIndex];
+            return Math.max(System.nanoTime() - cycleScheduledAt, 0L);
+        }
+        // Block for cycle rate limiter
+        if (scheduledResponseTime) {
+            cycleScheduledAt = cycleRateLimiter.maybeWaitForScheduledOp();
+            return Math.max(System.nanoTime() - cycleScheduledAt, 0L);
+        }
+        return cycleRateLimiter.maybeWaitForOp();
+    }
+
+    /**
+     * Return any tokens which this motor's thread has leased from striped rate limiters.
+     */
+    private void releaseLeases() {
+        for (RateLimiter rateLimiter : new RateLimiter[]{strideRateLimiter, cycleRateLimiter, phaseRateLimiter}) {
+            if (rateLimiter instanceof StripedRateLimiter) {
+                ((StripedRateLimiter) rateLimiter).releaseLease();
+            }
         }
     }
 
@@ -483,6 +594,9 @@ public class CoreMotor<D> implements ActivityDefObserver, Motor<D>, Stoppable {
         }
 
         this.stride = activityDef.getParams().getOptionalInteger("stride").orElse(1);
+        this.strideBatch = activityDef.getParams().getOptionalBoolean("stridebatch").orElse(false);
+        this.recycleOps = activityDef.getParams().getOptionalBoolean("recycleops").orElse(false);
+        this.scheduledResponseTime = activityDef.getParams().getOptionalString("responsetime").orElse("waittime").equals("scheduled");
         strideRateLimiter = activity.getStrideLimiter();
         cycleRateLimiter = activity.getCycleLimiter();
         phaseRateLimiter = activity.getPhaseLimiter();
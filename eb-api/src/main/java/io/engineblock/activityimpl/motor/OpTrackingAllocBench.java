@@ -0,0 +1,124 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityimpl.motor;
+
+import com.codahale.metrics.Timer;
+import io.engineblock.activityapi.core.ops.fluent.OpTrackerImpl;
+import io.engineblock.activityapi.core.ops.fluent.Recycler;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.StartedOp;
+import io.engineblock.activityapi.core.ops.fluent.opfacets.TrackedOp;
+import io.engineblock.activityimpl.ActivityDef;
+import io.engineblock.metrics.ActivityMetrics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH measurement of the allocation rate of the async op tracking path, with and
+ * without op recycling. Each invocation tracks one stride of ops through the same
+ * steps as the async motor and an async action which completes them: the stride
+ * tracker is created or acquired, and each op is created, started and succeeded.
+ *
+ * The op data is a shared constant, so that only the allocations of the tracking
+ * path itself are measured. Run the main method to report the allocated bytes per op.
+ */
+@State(Scope.Thread)
+public class OpTrackingAllocBench {
+
+    private final static Logger logger = LoggerFactory.getLogger(OpTrackingAllocBench.class);
+    private final static int STRIDE = 100;
+    private final static String OPDATA = "opdata";
+
+    @Param({"false", "true"})
+    public boolean recycleops;
+
+    private OpTrackerImpl<String> opTracker;
+    private Recycler<StrideTracker<String>> strideRecycler;
+    private Timer stridesTimer;
+    private long cycle = 0L;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=optrackingbench");
+        Timer cyclesTimer = ActivityMetrics.timer(def, "cycles");
+        stridesTimer = ActivityMetrics.timer(def, "strides");
+        opTracker = new OpTrackerImpl<>("bench", 0, cyclesTimer, null, ActivityMetrics.counter(def, "pending"));
+        opTracker.setCycleOpFunction(l -> OPDATA);
+        opTracker.setMaxPendingOps(STRIDE);
+        opTracker.setRecycleOps(recycleops);
+        if (recycleops) {
+            strideRecycler = new Recycler<>(() -> new StrideTracker<>(stridesTimer, null, 0L, 0L, STRIDE, null, null));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(STRIDE)
+    @Warmup(iterations = 2, timeUnit = TimeUnit.SECONDS, time = 5)
+    @Measurement(iterations = 3, timeUnit = TimeUnit.SECONDS, time = 5)
+    public long trackStride() {
+        StrideTracker<String> strideTracker;
+        if (strideRecycler != null) {
+            strideTracker = strideRecycler.acquire();
+            strideTracker.reset(0L, cycle, STRIDE);
+            strideTracker.setRecycler(opTracker, strideRecycler);
+        } else {
+            strideTracker = new StrideTracker<>(stridesTimer, null, 0L, cycle, STRIDE, null, null);
+        }
+        strideTracker.start();
+        for (int i = 0; i < STRIDE; i++) {
+            TrackedOp<String> op = opTracker.newOp(cycle++, strideTracker);
+            op.setWaitTime(0L);
+            StartedOp<String> started = op.start();
+            started.succeed(0);
+        }
+        return cycle;
+    }
+
+    public static void main(String[] args) {
+        try {
+            String logfile = Files.createTempFile("jmh_optracking", ".log").toString();
+            Options options = new OptionsBuilder()
+                    .forks(1)
+                    .include(OpTrackingAllocBench.class.getSimpleName())
+                    .addProfiler(GCProfiler.class)
+                    .output(logfile)
+                    .build();
+            logger.info("running op tracking allocation microbench; details in " + logfile);
+            for (RunResult result : new Runner(options).run()) {
+                Result allocated = result.getSecondaryResults().get("·gc.alloc.rate.norm");
+                logger.info(String.format("recycleops=%s %.3f ns/op %.1f bytes/op",
+                        result.getParams().getParam("recycleops"),
+                        result.getPrimaryResult().getScore(),
+                        (allocated != null) ? allocated.getScore() : Double.NaN));
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -18,6 +18,8 @@
 package io.engineblock.activityimpl.motor;
 
 import com.codahale.metrics.Timer;
+import io.engineblock.activityapi.core.ops.fluent.OpTracker;
+import io.engineblock.activityapi.core.ops.fluent.Recycler;
 import io.engineblock.activityapi.core.ops.fluent.opfacets.*;
 import io.engineblock.activityapi.cyclelog.buffers.Buffer;
 import io.engineblock.activityapi.cyclelog.buffers.op_output.StrideOutputConsumer;
@@ -41,6 +43,9 @@ public class StrideTracker<D> extends Buffer<CompletedOp<D>> implements OpEvents
     private final Output output;
     private final StrideOutputConsumer<D> outputReader;
 
+    private OpTracker<D> opTracker;
+    private Recycler<StrideTracker<D>> strideRecycler;
+
     public StrideTracker(
             Timer strideServiceTimer,
             Timer strideResponseTimer,
@@ -61,6 +66,34 @@ public class StrideTracker<D> extends Buffer<CompletedOp<D>> implements OpEvents
         this.outputReader = outputReader;
     }
 
+    /**
+     * Prepare this stride tracker to track another stride, as when it is reused.
+     *
+     * @param strideWaitTime The wait time of the stride
+     * @param initialCycle The first cycle of the stride
+     * @param size The number of ops in the stride
+     */
+    public void reset(long strideWaitTime, long initialCycle, int size) {
+        super.reset(size);
+        strideOp.reset();
+        strideOp.setCycle(initialCycle);
+        strideOp.setWaitTime(strideWaitTime);
+    }
+
+    /**
+     * When set, the completed ops of the stride are returned to the op tracker, and this
+     * stride tracker is returned to the stride recycler, once the stride output has been
+     * handled. Outputs and stride output consumers must not keep references to the ops
+     * or to this stride tracker after they return.
+     *
+     * @param opTracker The op tracker which created the ops of this stride
+     * @param strideRecycler The recycler which this stride tracker was acquired from
+     */
+    public void setRecycler(OpTracker<D> opTracker, Recycler<StrideTracker<D>> strideRecycler) {
+        this.opTracker = opTracker;
+        this.strideRecycler = strideRecycler;
+    }
+
     /**
      * Each strideOp opTracker must be started before any ops that it tracks
      *
@@ -108,6 +141,11 @@ public class StrideTracker<D> extends Buffer<CompletedOp<D>> implements OpEvents
             List<CompletedOp<D>> flippedData = getFlippedData();
             outputReader.onStrideOutput(flippedData);
         }
+        if (strideRecycler != null) {
+            opTracker.recycle(data);
+            data.clear();
+            strideRecycler.release(this);
+        }
     }
 
     @Override
@@ -126,6 +164,22 @@ public class StrideTracker<D> extends Buffer<CompletedOp<D>> implements OpEvents
         return data.get(0).getCycle();
     }
 
+    /**
+     * Copy cycles and results directly from the completed ops of the stride.
+     */
+    @Override
+    public int getResults(long index, long[] cycles, int[] results, int offset, int length) {
+        int copied = (int) Math.max(0L, Math.min(length, data.size() - index));
+        for (int i = 0; i < copied; i++) {
+            CompletedOp<D> op = data.get((int) index + i);
+            if (cycles != null) {
+                cycles[offset + i] = op.getCycle();
+            }
+            results[offset + i] = op.getResult();
+        }
+        return copied;
+    }
+
     @Override
     public Iterator<CycleResult> iterator() {
         return new CycleResultIterator<>(data.iterator());
@@ -8,6 +8,10 @@ import io.engineblock.activityapi.core.ops.fluent.opfacets.StartedOp;
 import io.engineblock.activityapi.core.ops.fluent.opfacets.TrackedOp;
 import org.testng.annotations.Test;
 
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
 @Test
 public class OpTrackerImplTest {
 
@@ -20,4 +24,56 @@ public class OpTrackerImplTest {
         SucceededOp stop = started.succeed(23);
     }
 
+    @Test
+    public void testAwaitCapacity() throws InterruptedException {
+        OpTrackerImpl<String> tracker = new OpTrackerImpl<String>("test", 0, new Timer(), new Timer(), new Counter());
+        tracker.setMaxPendingOps(1);
+
+        StartedOp<String> started = new EventedOpImpl<String>(tracker).start();
+        assertThat(tracker.isFull()).isTrue();
+        assertThat(tracker.awaitCapacity(10)).isFalse();
+
+        Thread completer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            started.succeed(0);
+        });
+        completer.start();
+        assertThat(tracker.awaitCapacity(10000)).isTrue();
+        assertThat(tracker.awaitCompletion(10000)).isTrue();
+        completer.join();
+    }
+
+    @Test(expectedExceptions = InterruptedException.class)
+    public void testInterruptedWaiterDoesNotSpin() throws InterruptedException {
+        OpTrackerImpl<String> tracker = new OpTrackerImpl<String>("test", 0, new Timer(), new Timer(), new Counter());
+        tracker.setMaxPendingOps(1);
+        new EventedOpImpl<String>(tracker).start();
+
+        Thread.currentThread().interrupt();
+        try {
+            tracker.awaitCapacity(10000);
+        } finally {
+            assertThat(Thread.interrupted()).isFalse();
+        }
+    }
+
+    @Test
+    public void testRecycledOpsAreReset() {
+        OpTrackerImpl<String> tracker = new OpTrackerImpl<String>("test", 0, new Timer(), new Timer(), new Counter());
+        tracker.setCycleOpFunction(l -> "cycle" + l);
+        tracker.setRecycleOps(true);
+
+        TrackedOp<String> first = tracker.newOp(1L, tracker);
+        SucceededOp<String> done = first.setWaitTime(100L).start().succeed(23);
+        tracker.recycle(Collections.singletonList(done));
+
+        TrackedOp<String> second = tracker.newOp(2L, tracker);
+        assertThat(second).isSameAs(first);
+        assertThat(second.getCycle()).isEqualTo(2L);
+        assertThat(second.getData()).isEqualTo("cycle2");
+    }
+
 }
\ No newline at end of file
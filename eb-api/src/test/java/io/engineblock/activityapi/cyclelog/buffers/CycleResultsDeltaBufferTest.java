@@ -0,0 +1,118 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.buffers;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsDeltaBufferReadable;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsDeltaBufferTarget;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class CycleResultsDeltaBufferTest {
+
+    @Test
+    public void testContiguousSpansAreCompact() {
+        CycleResultsDeltaBufferTarget tb = new CycleResultsDeltaBufferTarget(1024 * 1024, 0);
+        for (long cycle = 0; cycle < 10000; cycle++) {
+            tb.onCycleResult(cycle, (int) ((cycle / 10) % 3));
+        }
+        ByteBuffer extent = tb.toByteBuffer();
+        assertThat(extent.remaining()).isEqualTo(Integer.BYTES + 1000 * 2);
+
+        long expected = 0L;
+        for (CycleResult result : tb.toSegmentsReadable().getCycleResultIterable()) {
+            assertThat(result.getCycle()).isEqualTo(expected);
+            assertThat(result.getResult()).isEqualTo((int) ((expected / 10) % 3));
+            expected++;
+        }
+        assertThat(expected).isEqualTo(10000L);
+    }
+
+    @Test
+    public void testGappedAndUnorderedSpans() {
+        CycleResultsDeltaBufferTarget tb = new CycleResultsDeltaBufferTarget(1024, 0);
+        long big = 5_000_000_000L;
+        tb.onCycleResult(13L, 1);
+        tb.onCycleResult(14L, 1);
+        tb.onCycleResult(2L, -1);
+        tb.onCycleResult(big, 7);
+        tb.onCycleResult(big + 1, 7);
+        tb.onCycleResult(100L, 5);
+
+        List<String> spans = new ArrayList<>();
+        for (CycleResultsSegment segment : tb.toSegmentsReadable()) {
+            spans.add(segment.toString());
+        }
+        assertThat(spans).isEqualTo(Arrays.asList("[13,15)->1", "[2,3)->-1", "[" + big + "," + (big + 2) + ")->7", "[100,101)->5"));
+        assertThat(tb.getMinCycle()).isEqualTo(2L);
+    }
+
+    @Test
+    public void testPackedResults() {
+        CycleResultsDeltaBufferTarget tb = new CycleResultsDeltaBufferTarget(1024, 3);
+        for (long cycle = 0; cycle < 8; cycle++) {
+            tb.onCycleResult(cycle, (int) cycle);
+        }
+        ByteBuffer extent = tb.toByteBuffer();
+        assertThat(extent.remaining()).isEqualTo(Integer.BYTES + 8);
+
+        int expected = 0;
+        for (CycleResult result : new CycleResultsDeltaBufferReadable(extent, 3).getCycleResultIterable()) {
+            assertThat(result.getCycle()).isEqualTo((long) expected);
+            assertThat(result.getResult()).isEqualTo(expected);
+            expected++;
+        }
+        assertThat(expected).isEqualTo(8);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testPackedResultOutOfRange() {
+        CycleResultsDeltaBufferTarget tb = new CycleResultsDeltaBufferTarget(1024, 2);
+        tb.onCycleResult(0L, 4);
+        tb.toByteBuffer();
+    }
+
+    @Test
+    public void testReadsConsecutiveExtents() {
+        ByteBuffer data = ByteBuffer.allocate(4096);
+        for (int extent = 0; extent < 3; extent++) {
+            CycleResultsDeltaBufferTarget tb = new CycleResultsDeltaBufferTarget(256, 0);
+            for (long cycle = extent * 100; cycle < extent * 100 + 100; cycle++) {
+                tb.onCycleResult(cycle, (int) (cycle % 2));
+            }
+            data.put(tb.toByteBuffer());
+        }
+        // the unwritten remainder reads as an empty extent
+        data.limit(data.position() + 64);
+        data.position(0);
+
+        long expected = 0L;
+        for (CycleResult result : new CycleResultsDeltaBufferReadable(data, 0).getCycleResultIterable()) {
+            assertThat(result.getCycle()).isEqualTo(expected);
+            expected++;
+        }
+        assertThat(expected).isEqualTo(300L);
+    }
+}
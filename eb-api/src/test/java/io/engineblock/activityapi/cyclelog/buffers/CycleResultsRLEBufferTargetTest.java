@@ -102,4 +102,17 @@ public class CycleResultsRLEBufferTargetTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testSpansMergeWithCycles() {
+        CycleResultsRLEBufferTarget tb = new CycleResultsRLEBufferTarget(1024);
+        tb.onCycleResult(0L, 1);
+        tb.onCycleSpan(1L, 100L, 1);
+        tb.onCycleSpan(100L, 200L, 2);
+        tb.onCycleResult(200L, 2);
+        tb.onCycleSpan(300L, 310L, 2);
+
+        ArrayList<String> spans = new ArrayList<>();
+        tb.toSegmentsReadable().forEach(s -> spans.add(s.toString()));
+        assertThat(spans.toString()).isEqualTo("[[0,100)->1, [100,201)->2, [300,310)->2]");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.buffers.results;
+
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleSpanResults;
+import io.engineblock.activityimpl.input.InputInterval;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class CycleResultsSegmentBulkTest {
+
+    @Test
+    public void testBulkResultsMatchIteration() {
+        CycleResultSegmentBuffer buf = new CycleResultSegmentBuffer(5);
+        buf.append(302, 3);
+        buf.append(305, 2);
+        buf.append(23L, 1);
+        buf.append(24L, 1);
+        buf.append(7L, 0);
+
+        ByteBuffer packed = ByteBuffer.allocate(2);
+        packed.put(0, (byte) 0b11100100);
+        packed.put(1, (byte) 0b00000011);
+
+        List<CycleResultsSegment> segments = new ArrayList<>();
+        CycleResultsSegment readable = buf.toReader();
+        segments.add(readable);
+        segments.add(new CycleResultArray(readable));
+        segments.add(CycleResultsIntervalSegment.forData(100L, new byte[]{4, 5, 6, 7, 8, 9, 10}));
+        segments.add(new CycleSpanResults(50L, 57L, 3));
+        segments.add(new CycleResultsPackedSegment(10L, packed, 0, 0, 5, 2));
+
+        for (CycleResultsSegment segment : segments) {
+            List<Long> expectedCycles = new ArrayList<>();
+            List<Integer> expectedResults = new ArrayList<>();
+            for (CycleResult result : segment) {
+                expectedCycles.add(result.getCycle());
+                expectedResults.add(result.getResult());
+            }
+
+            long[] cycles = new long[8];
+            int[] results = new int[8];
+            long index = 0L;
+            int copied;
+            while ((copied = segment.getResults(index, cycles, results, 1, 2)) > 0) {
+                for (int i = 0; i < copied; i++) {
+                    assertThat(cycles[1 + i]).isEqualTo(expectedCycles.get((int) index + i));
+                    assertThat(results[1 + i]).isEqualTo(expectedResults.get((int) index + i));
+                }
+                index += copied;
+            }
+            assertThat(index).isEqualTo(segment.getCount());
+            assertThat(segment.getResults(index, null, results, 0, 8)).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testContiguousSegments() {
+        assertThat(CycleResultsIntervalSegment.forData(100L, new byte[]{1, 2}).isContiguous()).isTrue();
+        assertThat(new CycleSpanResults(5L, 10L, 1).isContiguous()).isTrue();
+        assertThat(new CycleResultSegmentBuffer(1).toReader().isContiguous()).isFalse();
+
+        int[] results = new int[3];
+        assertThat(new CycleSpanResults(5L, 10L, 1).getResults(3L, null, results, 0, 3)).isEqualTo(2);
+        assertThat(results).isEqualTo(new int[]{1, 1, 0});
+    }
+
+    @Test
+    public void testNextCyclesIntoArray() {
+        long[] cycles = new long[4];
+        CycleSegment interval = new InputInterval.Segment(10L, 15L);
+        assertThat(interval.nextCycles(cycles, 0, 4)).isEqualTo(4);
+        assertThat(cycles).isEqualTo(new long[]{10L, 11L, 12L, 13L});
+        assertThat(interval.nextCycles(cycles, 1, 3)).isEqualTo(1);
+        assertThat(cycles[1]).isEqualTo(14L);
+        assertThat(interval.isExhausted()).isTrue();
+
+        CycleSegment array = new CycleArray.ArraySegment(new long[]{3L, 1L, 2L});
+        assertThat(array.nextCycles(cycles, 0, 4)).isEqualTo(3);
+        assertThat(cycles[2]).isEqualTo(2L);
+        assertThat(array.nextCycle()).isEqualTo(-100L);
+    }
+}
@@ -23,6 +23,11 @@ import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -77,4 +82,118 @@ public class CycleLogInputTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testConcurrentReaders() throws Exception {
+        File spanfile = File.createTempFile("cycle-log-spans-test", "cyclelog");
+        spanfile.deleteOnExit();
+        CycleLogOutput out = new CycleLogOutput(spanfile, 10);
+        for (long cycle = 0; cycle < 10000; cycle++) {
+            out.onCycleResult(cycle, (int) ((cycle / 100) % 2));
+        }
+        out.close();
+
+        CycleLogInput cycleLogInput = new CycleLogInput(spanfile.getPath());
+        assertThat(cycleLogInput.getCycleCount()).isEqualTo(10000L);
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                CycleSegment segment;
+                while ((segment = cycleLogInput.getInputSegment(7)) != null) {
+                    while (!segment.isExhausted()) {
+                        assertThat(seen.add(segment.nextCycle())).isTrue();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(seen).hasSize(10000);
+        cycleLogInput.close();
+    }
+
+    @Test
+    public void testSegmentsSkipFilteredExtents() throws Exception {
+        File gapfile = File.createTempFile("cycle-log-gaps-test", "cyclelog");
+        gapfile.deleteOnExit();
+        // single cycle spans, with the result changing every 10 spans, so that some extents have no cycles
+        // which pass the filter
+        CycleLogOutput out = new CycleLogOutput(gapfile, 10);
+        for (long cycle = 0; cycle < 2000; cycle += 2) {
+            out.onCycleResult(cycle, (int) ((cycle / 20) % 2));
+        }
+        out.close();
+
+        CycleLogInput cycleLogInput = new CycleLogInput(gapfile.getPath());
+        cycleLogInput.setFilter(r -> r.getResult() == 1);
+        assertThat(cycleLogInput.getFormat().getExtentCount()).isGreaterThan(50);
+        assertThat(cycleLogInput.getCycleCount()).isEqualTo(500L);
+        List<Long> cycles = new ArrayList<>();
+        CycleSegment segment;
+        while ((segment = cycleLogInput.getInputSegment(7)) != null) {
+            while (!segment.isExhausted()) {
+                cycles.add(segment.nextCycle());
+            }
+        }
+        assertThat(cycles).hasSize(500);
+        assertThat(cycles.get(0)).isEqualTo(20L);
+        assertThat(cycles.get(10)).isEqualTo(60L);
+        assertThat(cycles.get(499)).isEqualTo(1998L);
+        cycleLogInput.close();
+    }
+
+    @Test
+    public void testConcurrentReadersOfFilteredExtents() throws Exception {
+        File gapfile = File.createTempFile("cycle-log-concurrent-gaps-test", "cyclelog");
+        gapfile.deleteOnExit();
+        CycleLogOutput out = new CycleLogOutput(gapfile, 10);
+        for (long cycle = 0; cycle < 20000; cycle += 2) {
+            out.onCycleResult(cycle, (int) ((cycle / 20) % 3));
+        }
+        out.close();
+
+        for (int round = 0; round < 20; round++) {
+            CycleLogInput cycleLogInput = new CycleLogInput(gapfile.getPath());
+            cycleLogInput.setFilter(r -> r.getResult() == 1);
+            assertThat(cycleLogInput.getFormat().getExtentCount()).isGreaterThan(500);
+            ConcurrentHashMap<Long, Integer> seen = new ConcurrentHashMap<>();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Thread thread = new Thread(() -> {
+                    CycleSegment segment;
+                    while ((segment = cycleLogInput.getInputSegment(1)) != null) {
+                        while (!segment.isExhausted()) {
+                            seen.merge(segment.nextCycle(), 1, Integer::sum);
+                        }
+                        Thread.yield();
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertThat(seen).hasSize(3330);
+            for (Map.Entry<Long, Integer> entry : seen.entrySet()) {
+                assertThat((entry.getKey() / 20) % 3).isEqualTo(1L);
+                assertThat(entry.getValue()).isEqualTo(1);
+            }
+            cycleLogInput.close();
+        }
+    }
+
+    @Test
+    public void testFilterBySpan() {
+        CycleLogInput cycleLogInput = new CycleLogInput(cyclefile.getPath());
+        cycleLogInput.setFilter(r -> r.getResult() > 30);
+        assertThat(cycleLogInput.getCycleCount()).isEqualTo(3L);
+        CycleSegment segment = cycleLogInput.getInputSegment(5);
+        assertThat(segment.nextCycles(4)).isEqualTo(new long[]{3L, 4L, 5L, -100L});
+        assertThat(cycleLogInput.getInputSegment(5)).isNull();
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.outputs;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultArray;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.MutableCycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleSpanResults;
+import io.engineblock.activityapi.output.Output;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class ReorderingConcurrentResultBufferTest {
+
+    @Test
+    public void testReleasesContiguousRunsAtWatermark() throws Exception {
+        CollectingOutput out = new CollectingOutput();
+        ReorderingConcurrentResultBuffer buffer = new ReorderingConcurrentResultBuffer(out, 1000, 10L);
+
+        buffer.onCycleResultSegment(new CycleSpanResults(20L, 30L, 0));
+        buffer.onCycleResultSegment(new CycleSpanResults(30L, 40L, 0));
+        assertThat(out.cycles).isEmpty();
+        assertThat(buffer.getPendingCount()).isEqualTo(20L);
+
+        buffer.onCycleResultSegment(new CycleSpanResults(10L, 20L, 0));
+        assertThat(out.cycles.size()).isEqualTo(30);
+        assertThat(buffer.getPendingCount()).isEqualTo(0L);
+        assertThat(buffer.getWatermark()).isEqualTo(40L);
+
+        buffer.onCycleResult(40L, 1);
+        assertThat(out.cycles.size()).isEqualTo(31);
+        buffer.close();
+        assertThat(out.isOrdered()).isTrue();
+        assertThat(out.closed).isTrue();
+    }
+
+    @Test
+    public void testWindowBoundsPendingCycles() throws Exception {
+        CollectingOutput out = new CollectingOutput();
+        ReorderingConcurrentResultBuffer buffer = new ReorderingConcurrentResultBuffer(out, 50, 0L);
+
+        // cycles [0,10) never arrive
+        for (long start = 10; start < 100; start += 10) {
+            buffer.onCycleResultSegment(new CycleSpanResults(start, start + 10, 0));
+        }
+        assertThat(buffer.getPendingCount()).isLessThanOrEqualTo(50L);
+        assertThat(out.cycles.get(0)).isEqualTo(10L);
+        buffer.close();
+        assertThat(out.cycles.size()).isEqualTo(90);
+        assertThat(out.isOrdered()).isTrue();
+    }
+
+    @Test
+    public void testFilteredResultsDoNotHoldBackWatermark() throws Exception {
+        CollectingOutput out = new CollectingOutput();
+        ReorderingConcurrentResultBuffer buffer = new ReorderingConcurrentResultBuffer(out, 1000, 0L);
+        buffer.setFilter(r -> r.getResult() == 1);
+
+        buffer.onCycleResultSegment(new CycleSpanResults(10L, 20L, 1));
+        buffer.onCycleResultSegment(new CycleSpanResults(0L, 10L, 0));
+        assertThat(out.cycles.size()).isEqualTo(10);
+        assertThat(out.cycles.get(0)).isEqualTo(10L);
+        assertThat(buffer.getWatermark()).isEqualTo(20L);
+    }
+
+    @Test
+    public void testConcurrentStridesAreOrdered() throws Exception {
+        CollectingOutput out = new CollectingOutput();
+        ReorderingConcurrentResultBuffer buffer = new ReorderingConcurrentResultBuffer(out, 100000, 0L);
+        AtomicLong input = new AtomicLong(0L);
+        int stride = 17;
+        long total = 100000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                long start;
+                while ((start = input.getAndAdd(stride)) < total) {
+                    List<CycleResult> results = new ArrayList<>();
+                    for (long cycle = start; cycle < Math.min(start + stride, total); cycle++) {
+                        results.add(new MutableCycleResult(cycle, 0));
+                    }
+                    Collections.shuffle(results);
+                    buffer.onCycleResultSegment(new CycleResultArray(results.toArray(new CycleResult[0])));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(buffer.getPendingCount()).isEqualTo(0L);
+        buffer.close();
+        assertThat((long) out.cycles.size()).isEqualTo(total);
+        assertThat(out.isOrdered()).isTrue();
+    }
+
+    private static class CollectingOutput implements Output {
+        private final List<Long> cycles = new ArrayList<>();
+        private boolean closed = false;
+
+        @Override
+        public boolean onCycleResult(long completedCycle, int result) {
+            cycles.add(completedCycle);
+            return true;
+        }
+
+        @Override
+        public void onCycleResultSegment(CycleResultsSegment segment) {
+            for (CycleResult result : segment) {
+                cycles.add(result.getCycle());
+            }
+        }
+
+        private boolean isOrdered() {
+            Long[] values = cycles.toArray(new Long[0]);
+            Long[] sorted = values.clone();
+            Arrays.sort(sorted);
+            return Arrays.equals(values, sorted);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
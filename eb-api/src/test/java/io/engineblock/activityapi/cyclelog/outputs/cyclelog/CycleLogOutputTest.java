@@ -0,0 +1,242 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.cyclelog.outputs.cyclelog;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsIntervalSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleResultsRLEBufferTarget;
+import io.engineblock.activityapi.cyclelog.inputs.cyclelog.CycleLogInput;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@Test
+public class CycleLogOutputTest {
+
+    @Test
+    public void testManyExtentsAreWrittenInOrder() throws Exception {
+        File cyclefile = File.createTempFile("cycle-log-output-test", ".cyclelog");
+        cyclefile.deleteOnExit();
+
+        CycleLogOutput out = new CycleLogOutput(cyclefile, 10);
+        for (long cycle = 0; cycle < 1000; cycle++) {
+            out.onCycleResult(cycle, (int) (cycle % 3));
+        }
+        out.close();
+
+        long expected = 0L;
+        CycleLogInput input = new CycleLogInput(cyclefile.getPath());
+        CycleLogFormat format = input.getFormat();
+        assertThat(format.getDataEnd() - format.getDataStart()).isEqualTo(1000 * CycleResultsRLEBufferTarget.BYTES);
+        for (CycleResultsSegment segment : input) {
+            for (CycleResult result : segment) {
+                assertThat(result.getCycle()).isEqualTo(expected);
+                assertThat(result.getResult()).isEqualTo((int) (expected % 3));
+                expected++;
+            }
+        }
+        input.close();
+        assertThat(expected).isEqualTo(1000L);
+    }
+
+    @Test
+    public void testHeaderAndLegend() throws Exception {
+        File cyclefile = File.createTempFile("cycle-log-header-test", ".cyclelog");
+        cyclefile.deleteOnExit();
+
+        CycleLogOutput out = new CycleLogOutput(cyclefile, 10);
+        Map<Integer, String> legend = new HashMap<>();
+        legend.put(0, "OK");
+        legend.put(5, "SERVER_ERROR");
+        out.setLegend(legend);
+        for (long cycle = 100; cycle < 200; cycle++) {
+            out.onCycleResult(cycle, 0);
+        }
+        out.close();
+
+        CycleLogInput input = new CycleLogInput(cyclefile.getPath());
+        CycleLogFormat format = input.getFormat();
+        assertThat(format.getVersion()).isEqualTo(CycleLogFormat.VERSION);
+        assertThat(format.getAlias()).isEqualTo(cyclefile.getName().replaceAll("\\.cyclelog$", ""));
+        assertThat(format.getMinCycle()).isEqualTo(100L);
+        assertThat(format.getEndCycle()).isEqualTo(200L);
+        assertThat(format.getLegend()).isEqualTo(legend);
+        input.close();
+    }
+
+    @Test
+    public void testResumeFromCycle() throws Exception {
+        File cyclefile = File.createTempFile("cycle-log-resume-test", ".cyclelog");
+        cyclefile.deleteOnExit();
+
+        CycleLogOutput out = new CycleLogOutput(cyclefile, 10);
+        for (long cycle = 0; cycle < 10000; cycle++) {
+            out.onCycleResult(cycle, (int) ((cycle / 7) % 2));
+        }
+        out.close();
+
+        CycleLogInput input = new CycleLogInput(cyclefile.getPath(), 5003L);
+        assertThat(input.getFormat().getIndexSize()).isGreaterThan(1);
+        assertThat(input.getFormat().seek(5003L)).isGreaterThan(input.getFormat().getDataStart());
+        assertThat(input.getCycleCount()).isEqualTo(4997L);
+        assertThat(input.getInputSegment(3).nextCycles(3)).isEqualTo(new long[]{5003L, 5004L, 5005L});
+        input.close();
+    }
+
+    @Test
+    public void testResumeFromCycleWithExtentsOutOfOrder() throws Exception {
+        File cyclefile = File.createTempFile("cycle-log-unordered-test", ".cyclelog");
+        cyclefile.deleteOnExit();
+
+        // the extents for 5000-5099 are written before the extents for all lower cycles
+        CycleLogOutput out = new CycleLogOutput(cyclefile, 10);
+        for (long cycle = 5000; cycle < 5100; cycle++) {
+            out.onCycleResult(cycle, (int) (cycle % 2));
+        }
+        for (long cycle = 0; cycle < 5000; cycle++) {
+            out.onCycleResult(cycle, (int) (cycle % 2));
+        }
+        for (long cycle = 5100; cycle < 10000; cycle++) {
+            out.onCycleResult(cycle, (int) (cycle % 2));
+        }
+        out.close();
+
+        CycleLogInput input = new CycleLogInput(cyclefile.getPath(), 5003L);
+        assertThat(input.getFormat().seek(5003L)).isEqualTo(input.getFormat().getDataStart());
+        assertThat(input.getCycleCount()).isEqualTo(4997L);
+        assertThat(input.getInputSegment(3).nextCycles(3)).isEqualTo(new long[]{5003L, 5004L, 5005L});
+        input.close();
+
+        CycleLogInput later = new CycleLogInput(cyclefile.getPath(), 9000L);
+        assertThat(later.getFormat().seek(9000L)).isGreaterThan(later.getFormat().getDataStart());
+        assertThat(later.getCycleCount()).isEqualTo(1000L);
+        assertThat(later.getInputSegment(3).nextCycles(3)).isEqualTo(new long[]{9000L, 9001L, 9002L});
+        later.close();
+    }
+
+    @Test
+    public void testDeltaEncodedLog() throws Exception {
+        File cyclefile = File.createTempFile("cycle-log-delta-test", ".cyclelog");
+        cyclefile.deleteOnExit();
+
+        CycleLogOutput out = new CycleLogOutput(cyclefile, 10, CycleLogFormat.Encoding.delta, 1);
+        for (long cycle = 0; cycle < 10000; cycle++) {
+            out.onCycleResult(cycle, (int) ((cycle / 7) % 2));
+        }
+        out.close();
+
+        CycleLogInput input = new CycleLogInput(cyclefile.getPath());
+        CycleLogFormat format = input.getFormat();
+        assertThat(format.getEncoding()).isEqualTo(CycleLogFormat.Encoding.delta);
+        assertThat(format.getResultBits()).isEqualTo(1);
+        assertThat(format.getIndexSize()).isGreaterThan(1);
+        assertThat(format.getDataEnd() - format.getDataStart()).isLessThan(10000 / 7 * CycleResultsRLEBufferTarget.BYTES / 8);
+        long expected = 0L;
+        for (CycleResultsSegment segment : input) {
+            for (CycleResult result : segment) {
+                assertThat(result.getCycle()).isEqualTo(expected);
+                assertThat(result.getResult()).isEqualTo((int) ((expected / 7) % 2));
+                expected++;
+            }
+        }
+        assertThat(expected).isEqualTo(10000L);
+        input.close();
+
+        CycleLogInput resumed = new CycleLogInput(cyclefile.getPath(), 5003L);
+        assertThat(resumed.getCycleCount()).isEqualTo(4997L);
+        assertThat(resumed.getInputSegment(3).nextCycles(3)).isEqualTo(new long[]{5003L, 5004L, 5005L});
+        resumed.close();
+    }
+
+    @Test
+    public void testFilteredOutput() throws Exception {
+        File cyclefile = File.createTempFile("cycle-log-filter-test", ".cyclelog");
+        cyclefile.deleteOnExit();
+
+        CycleLogOutput out = new CycleLogOutput(cyclefile, 10);
+        out.setFilter(r -> r.getResult() != 1);
+        out.onCycleResultSegment(CycleResultsIntervalSegment.forData(0L, new byte[]{0, 1, 1, 2, 0, 1}));
+        out.close();
+
+        CycleLogInput input = new CycleLogInput(cyclefile.getPath());
+        List<Long> cycles = new ArrayList<>();
+        for (CycleResultsSegment segment : input) {
+            for (CycleResult result : segment) {
+                cycles.add(result.getCycle());
+            }
+        }
+        input.close();
+        assertThat(cycles.toString()).isEqualTo("[0, 3, 4]");
+    }
+
+    @Test
+    public void testWriterTruncatesPreallocatedSpace() throws Exception {
+        File file = File.createTempFile("cycle-log-extent-writer-test", ".cyclelog");
+        file.deleteOnExit();
+
+        CycleLogExtentWriter writer = new CycleLogExtentWriter(file, 4096L, 0L, 0L, 2);
+        for (int i = 0; i < 100; i++) {
+            ByteBuffer extent = ByteBuffer.allocate(100);
+            extent.put(new byte[100]);
+            extent.flip();
+            writer.write(extent);
+        }
+        writer.close();
+
+        assertThat(writer.getWrittenBytes()).isEqualTo(10000L);
+        assertThat(file.length()).isEqualTo(10000L);
+    }
+
+    @Test
+    public void testInterruptedWriteKeepsInterruptStatus() throws Exception {
+        File file = File.createTempFile("cycle-log-extent-writer-test", ".cyclelog");
+        file.deleteOnExit();
+
+        CycleLogExtentWriter writer = new CycleLogExtentWriter(file, 4096L, 0L, 0L, 2);
+        Thread.currentThread().interrupt();
+        try {
+            writer.write(ByteBuffer.allocate(100));
+            fail("An interrupted write should not wait for room in the backlog");
+        } catch (RuntimeException expected) {
+            assertThat(expected.getMessage()).contains("Interrupted");
+        } finally {
+            assertThat(Thread.interrupted()).isTrue();
+        }
+        writer.close();
+        assertThat(file.length()).isEqualTo(0L);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testWriteAfterCloseFails() throws Exception {
+        File file = File.createTempFile("cycle-log-extent-writer-test", ".cyclelog");
+        file.deleteOnExit();
+
+        CycleLogExtentWriter writer = new CycleLogExtentWriter(file, 4096L, 0L, 0L, 2);
+        writer.close();
+        writer.write(ByteBuffer.allocate(100));
+    }
+}
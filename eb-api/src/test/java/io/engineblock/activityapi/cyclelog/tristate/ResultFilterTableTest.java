@@ -0,0 +1,91 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityapi.cyclelog.tristate;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsIntervalSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsPackedSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.MutableCycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results.ResultReadable;
+import io.engineblock.activityapi.cyclelog.filters.CoreResultValueFilter;
+import io.engineblock.activityapi.cyclelog.filters.ResultFilterTable;
+import io.engineblock.activityapi.cyclelog.filters.tristate.ResultFilteringSieve;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class ResultFilterTableTest {
+
+    @Test
+    public void testCompiledSieveMatchesSieve() {
+        Predicate<ResultReadable> sieve = new ResultFilteringSieve.Builder()
+                .include(3).exclude(10, 20).include(5, 40).build().toExclusivePredicate();
+        ResultFilterTable table = ResultFilterTable.compile(sieve);
+        for (int result = -10; result < 300; result++) {
+            assertThat(table.test(result)).isEqualTo(sieve.test(new MutableCycleResult(0L, result)));
+        }
+        assertThat(ResultFilterTable.compile(table)).isSameAs(table);
+        assertThat(table.toString()).isEqualTo("ResultFilterTable{keep=3,5-9,21-40}");
+    }
+
+    @Test
+    public void testCoreFilterIsCompiled() {
+        Predicate<ResultReadable> filter = new CoreResultValueFilter().getDispenser("in:5,ex:6,in:7").getResultFilter();
+        assertThat(filter instanceof ResultFilterTable).isTrue();
+        assertThat(((ResultFilterTable) filter).keepsAll()).isFalse();
+        assertThat(((ResultFilterTable) filter).keepsNone()).isFalse();
+    }
+
+    @Test
+    public void testIntervalSegmentFilter() {
+        CycleResultsIntervalSegment segment = CycleResultsIntervalSegment.forData(100L, new byte[]{1, 2, 1, 1, 2});
+        assertThat(segment.filter(ResultFilterTable.compile(r -> r.getResult() > 0))).isSameAs(segment);
+        assertThat(segment.filter(ResultFilterTable.compile(r -> r.getResult() > 2)).getCount()).isEqualTo(0L);
+
+        CycleResultsSegment ones = segment.filter(ResultFilterTable.compile(r -> r.getResult() == 1));
+        assertThat(cyclesOf(ones)).isEqualTo(new long[]{100L, 102L, 103L});
+    }
+
+    @Test
+    public void testPackedSegmentFilter() {
+        ByteBuffer buffer = ByteBuffer.allocate(2);
+        buffer.put(0, (byte) 0b11100100);
+        buffer.put(1, (byte) 0b00000011);
+        CycleResultsPackedSegment segment = new CycleResultsPackedSegment(10L, buffer, 0, 1, 4, 2);
+        assertThat(segment.getResult(0)).isEqualTo(1);
+        assertThat(segment.getResult(3)).isEqualTo(3);
+
+        CycleResultsSegment filtered = segment.filter(ResultFilterTable.compile(r -> r.getResult() != 2));
+        assertThat(cyclesOf(filtered)).isEqualTo(new long[]{10L, 12L, 13L});
+        assertThat(segment.filter(ResultFilterTable.compile(r -> true))).isSameAs(segment);
+    }
+
+    private static long[] cyclesOf(CycleResultsSegment segment) {
+        List<Long> cycles = new ArrayList<>();
+        for (CycleResult result : segment) {
+            cycles.add(result.getCycle());
+        }
+        return cycles.stream().mapToLong(Long::longValue).toArray();
+    }
+}
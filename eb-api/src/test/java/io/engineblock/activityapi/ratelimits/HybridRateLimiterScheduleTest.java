@@ -0,0 +1,92 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import io.engineblock.activityimpl.ActivityDef;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class HybridRateLimiterScheduleTest {
+
+    public void testScheduleForOps() {
+        AtomicLong clock = new AtomicLong(1_000_000_000L);
+        ActivityDef def = ActivityDef.parseActivityDef("alias=scheduletest");
+        TestableHybridRateLimiter rl = new TestableHybridRateLimiter(clock, new RateSpec(1E6, 1.1, RateSpec.Verb.configure), def);
+        TokenPool pool = rl.getTokenPool();
+
+        // 10 ops worth of tokens, with no backlog
+        pool.refill(9000L);
+        long[] schedule = rl.maybeWaitForOps(10);
+        assertThat(schedule.length).isEqualTo(10);
+        assertThat(schedule[9]).isEqualTo(1_000_000_000L);
+        assertThat(schedule[0]).isEqualTo(1_000_000_000L - 9000L);
+        assertThat(pool.getWaitTime()).isEqualTo(0L);
+
+        // 10 ops worth of tokens, with 10 ops of backlog
+        pool.refill(20000L);
+        long[] reused = rl.maybeWaitForOps(10, schedule);
+        assertThat(reused).isSameAs(schedule);
+        assertThat(reused[9]).isEqualTo(1_000_000_000L - 10000L);
+        assertThat(reused[0]).isEqualTo(1_000_000_000L - 19000L);
+    }
+
+    public void testScheduledStartTimes() {
+        AtomicLong clock = new AtomicLong(1_000_000_000L);
+        ActivityDef def = ActivityDef.parseActivityDef("alias=scheduledtest;responsetime=scheduled");
+        TestableHybridRateLimiter rl = new TestableHybridRateLimiter(clock, new RateSpec(1E6, 1.1, RateSpec.Verb.configure), def);
+        rl.getTokenPool().refill(100000L);
+
+        assertThat(rl.maybeWaitForScheduledOp()).isEqualTo(1_000_000_000L);
+
+        // ops which are late are measured from their intended start time
+        clock.set(1_000_005_000L);
+        assertThat(rl.maybeWaitForScheduledOp()).isEqualTo(1_000_001_000L);
+        assertThat(rl.maybeWaitForOp()).isEqualTo(3000L);
+        long[] schedule = rl.maybeWaitForOps(3);
+        assertThat(schedule).containsExactly(1_000_003_000L, 1_000_004_000L, 1_000_005_000L);
+
+        // ops which are early are measured from when they actually start
+        assertThat(rl.maybeWaitForScheduledOp()).isEqualTo(1_000_005_000L);
+    }
+
+    public void testReturnedOps() {
+        AtomicLong clock = new AtomicLong(1_000_000_000L);
+        ActivityDef def = ActivityDef.parseActivityDef("alias=returnedopstest;responsetime=scheduled");
+        TestableHybridRateLimiter rl = new TestableHybridRateLimiter(clock, new RateSpec(1E6, 1.1, RateSpec.Verb.configure), def);
+        TokenPool pool = rl.getTokenPool();
+        pool.refill(100000L);
+        long active = pool.getActivePool();
+
+        long[] schedule = rl.maybeWaitForOps(10);
+        assertThat(schedule[9]).isEqualTo(1_000_000_000L);
+        assertThat(pool.getActivePool()).isEqualTo(active - 10000L);
+
+        // a stride of 10 which only started 4 ops
+        rl.returnOps(6);
+        assertThat(pool.getActivePool()).isEqualTo(active - 4000L);
+        assertThat(pool.getWaitPool()).isEqualTo(0L);
+
+        clock.set(1_000_010_000L);
+        assertThat(rl.maybeWaitForScheduledOp()).isEqualTo(1_000_004_000L);
+    }
+
+}
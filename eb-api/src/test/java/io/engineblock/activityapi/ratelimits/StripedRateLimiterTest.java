@@ -0,0 +1,127 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import io.engineblock.activityimpl.ActivityDef;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class StripedRateLimiterTest {
+
+    public void testLeaseIsSpentLocally() {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=stripedtest;tokenlease=10");
+        RateLimiter rl = RateLimiters.createOrUpdate(def, "cycles", null, new RateSpec(1E6, 1.1, RateSpec.Verb.configure));
+        assertThat(rl).isInstanceOf(StripedRateLimiter.class);
+        StripedRateLimiter striped = (StripedRateLimiter) rl;
+
+        TokenPool pool = striped.getDelegate().getTokenPool();
+        pool.refill(100000L);
+        long active = pool.getActivePool();
+
+        striped.maybeWaitForOp();
+        assertThat(pool.getActivePool()).isEqualTo(active - 10000L);
+        assertThat(striped.getLeasedTime()).isEqualTo(9000L);
+
+        for (int i = 0; i < 9; i++) {
+            striped.maybeWaitForOp();
+        }
+        assertThat(pool.getActivePool()).isEqualTo(active - 10000L);
+        assertThat(striped.getLeasedTime()).isEqualTo(0L);
+
+        striped.maybeWaitForOp();
+        assertThat(pool.getActivePool()).isEqualTo(active - 20000L);
+
+        striped.releaseLease();
+        assertThat(striped.getLeasedTime()).isEqualTo(0L);
+        assertThat(pool.getWaitTime()).isEqualTo(active - 11000L);
+    }
+
+    public void testWaitTimeFollowsTheLeaseSchedule() {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=stripedscheduletest;tokenlease=10");
+        TestableHybridRateLimiter hybrid = new TestableHybridRateLimiter(
+                new AtomicLong(1_000_000L), new RateSpec(1E6, 1.1, RateSpec.Verb.configure), def);
+        StripedRateLimiter striped = new StripedRateLimiter(def, "cycles", hybrid, 10);
+        hybrid.getTokenPool().refill(100000L);
+
+        long first = striped.maybeWaitForOp();
+        // each op takes 5us to run, while ops are due every 1us
+        for (int i = 1; i < 10; i++) {
+            hybrid.setClock(hybrid.getClock() + 5000L);
+            assertThat(striped.maybeWaitForOp()).isEqualTo(first + i * 4000L);
+        }
+
+        // the returned ops are due again at the 9th op of the lease, 50us after the first one ran
+        striped.returnOps(2);
+        hybrid.setClock(hybrid.getClock() + 5000L);
+        assertThat(striped.maybeWaitForOp()).isEqualTo(first + 50000L - 8 * 1000L);
+    }
+
+    public void testReleasedLeaseIsNotBackfilled() {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=stripedreleasetest;tokenlease=10");
+        RateLimiter rl = RateLimiters.createOrUpdate(def, "cycles", null, new RateSpec(1E6, 1.1, RateSpec.Verb.configure));
+        StripedRateLimiter striped = (StripedRateLimiter) rl;
+
+        TokenPool pool = striped.getDelegate().getTokenPool();
+        // more than the active pool, which holds two filler intervals
+        pool.refill(10_000_000L);
+        long active = pool.getActivePool();
+        long waiting = pool.getWaitPool();
+        assertThat(waiting).isGreaterThan(0L);
+
+        striped.maybeWaitForOp();
+        striped.releaseLease();
+        assertThat(pool.getActivePool()).isEqualTo(active - 10000L);
+        assertThat(pool.getWaitPool()).isEqualTo(waiting + 9000L);
+    }
+
+    public void testStripesOfEndedThreadsAreReclaimed() throws Exception {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=stripedreclaimtest;tokenlease=10");
+        RateLimiter rl = RateLimiters.createOrUpdate(def, "cycles", null, new RateSpec(1E6, 1.1, RateSpec.Verb.configure));
+        StripedRateLimiter striped = (StripedRateLimiter) rl;
+
+        TokenPool pool = striped.getDelegate().getTokenPool();
+        pool.refill(100000L);
+        long active = pool.getActivePool();
+
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(striped::maybeWaitForOp);
+            thread.start();
+            thread.join();
+        }
+        assertThat(striped.getStripeCount()).isEqualTo(1);
+        assertThat(striped.getLeasedTime()).isEqualTo(9000L);
+
+        striped.maybeWaitForOp();
+        assertThat(striped.getStripeCount()).isEqualTo(1);
+        assertThat(striped.getLeasedTime()).isEqualTo(9000L);
+        assertThat(pool.getWaitTime()).isEqualTo(active - 5 * 10000L + 4 * 9000L);
+
+        striped.releaseLease();
+        assertThat(striped.getStripeCount()).isEqualTo(0);
+    }
+
+    public void testUnstripedWithoutLease() {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=unstripedtest");
+        RateLimiter rl = RateLimiters.createOrUpdate(def, "cycles", null, new RateSpec(1E6, 1.1, RateSpec.Verb.configure));
+        assertThat(rl).isInstanceOf(HybridRateLimiter.class);
+    }
+}
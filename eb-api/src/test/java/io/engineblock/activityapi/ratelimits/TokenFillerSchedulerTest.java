@@ -0,0 +1,50 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import io.engineblock.activityimpl.ActivityDef;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class TokenFillerSchedulerTest {
+
+    public void testSharedFillersAreRefilled() throws InterruptedException {
+        ActivityDef def = ActivityDef.parseActivityDef("alias=sharedfillertest;tokenfiller=shared");
+        TokenFiller slow = new TokenFiller(new RateSpec(100, 1.1), def);
+        TokenFiller fast = new TokenFiller(new RateSpec(1E5, 1.1), def);
+        long slowStart = slow.getTokenPool().getWaitTime();
+        long fastStart = fast.getTokenPool().getWaitTime();
+
+        slow.start();
+        fast.start();
+        assertThat(TokenFillerScheduler.get().isRegistered(slow)).isTrue();
+        assertThat(TokenFillerScheduler.get().isRegistered(fast)).isTrue();
+
+        Thread.sleep(250);
+        assertThat(slow.getTokenPool().getWaitTime()).isGreaterThan(slowStart);
+        assertThat(fast.getTokenPool().getWaitTime()).isGreaterThan(fastStart);
+
+        slow.stop();
+        fast.stop();
+        assertThat(TokenFillerScheduler.get().isRegistered(slow)).isFalse();
+        assertThat(TokenFillerScheduler.get().isRegistered(fast)).isFalse();
+    }
+
+}
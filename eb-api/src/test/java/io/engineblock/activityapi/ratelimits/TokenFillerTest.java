@@ -0,0 +1,71 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.activityapi.ratelimits;
+
+import io.engineblock.activityapi.sysperf.SysPerfData;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class TokenFillerTest {
+
+    public void testMinIntervalFromParkNanos() {
+        assertThat(TokenFiller.computeMinInterval(null, TokenFiller.MAX_PER_SECOND)).isEqualTo(1_000_000L);
+        assertThat(TokenFiller.computeMinInterval(null, 10000D)).isEqualTo(100_000L);
+
+        SysPerfData perfData = new SysPerfData();
+        Map<String, Double> values = new HashMap<>();
+        values.put(SysPerfData.METHOD_LOCKSUPPORT_PARKNANOS, 60_000D);
+        perfData.setValues(values);
+        assertThat(TokenFiller.computeMinInterval(perfData, TokenFiller.MAX_PER_SECOND)).isEqualTo(1_000_000L);
+        assertThat(TokenFiller.computeMinInterval(perfData, 10000D)).isEqualTo(240_000L);
+    }
+
+    public void testIntervalFollowsRate() {
+        // low rates are limited by the minimum refills per second
+        assertThat(TokenFiller.computeInterval(new RateSpec(1, 1.1), 100_000L)).isEqualTo(100_000_000L);
+        // moderate rates are refilled once per op
+        assertThat(TokenFiller.computeInterval(new RateSpec(2000, 1.1), 100_000L)).isEqualTo(500_000L);
+        // high rates are limited by the minimum interval
+        assertThat(TokenFiller.computeInterval(new RateSpec(1E6, 1.0), 100_000L)).isEqualTo(100_000L);
+        // even when the minimum interval is larger than the active pool for the rate
+        assertThat(TokenFiller.computeInterval(new RateSpec(1E6, 1.0), 10_000_000L)).isEqualTo(10_000_000L);
+    }
+
+    public void testActivePoolHoldsTwoIntervals() {
+        for (TokenPool pool : new TokenPool[]{
+                new SynchronizedTokenPool(new RateSpec(1E6, 1.0)),
+                new AtomicTokenPool(new RateSpec(1E6, 1.0))}) {
+            pool.refill(100_000_000L);
+            assertThat(pool.getActivePool()).isEqualTo(1_000_000L);
+
+            pool.setMinActivePool(20_000_000L);
+            pool.refill(100_000_000L);
+            assertThat(pool.getActivePool()).isEqualTo(20_000_000L);
+
+            pool.apply(new RateSpec(2E6, 1.0));
+            pool.refill(100_000_000L);
+            assertThat(pool.getActivePool()).isEqualTo(20_000_000L);
+        }
+    }
+
+}
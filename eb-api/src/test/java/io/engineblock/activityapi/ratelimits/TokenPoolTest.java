@@ -14,18 +14,33 @@
  *    limitations under the License.
  * /
  */
-
 package io.engineblock.activityapi.ratelimits;
 
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 @Test
 public class TokenPoolTest {
 
-    public void testBackfillFullRate() {
-        TokenPool p = new TokenPool(100, 1.1);
+    @DataProvider(name = "pools")
+    public static Object[][] pools() {
+        return new Object[][]{
+                {(BiFunction<Long, Double, TokenPool>) SynchronizedTokenPool::new,
+                        (Function<RateSpec, TokenPool>) SynchronizedTokenPool::new},
+                {(BiFunction<Long, Double, TokenPool>) AtomicTokenPool::new,
+                        (Function<RateSpec, TokenPool>) AtomicTokenPool::new}
+        };
+    }
+
+    @Test(dataProvider = "pools")
+    public void testBackfillFullRate(BiFunction<Long, Double, TokenPool> sized, Function<RateSpec, TokenPool> specced) {
+        TokenPool p = sized.apply(100L, 1.1D);
         assertThat(p.refill(100L)).isEqualTo(100L);
         assertThat(p.getWaitPool()).isEqualTo(0L);
         assertThat(p.refill(100L)).isEqualTo(200);
@@ -38,19 +53,20 @@ public class TokenPoolTest {
 
     }
 
-    public void testTakeRanges() {
-        TokenPool p = new TokenPool(100, 10);
+    @Test(dataProvider = "pools")
+    public void testTakeRanges(BiFunction<Long, Double, TokenPool> sized, Function<RateSpec, TokenPool> specced) {
+        TokenPool p = sized.apply(100L, 10D);
         p.refill(100);
         assertThat(p.takeUpTo(99)).isEqualTo(99L);
         assertThat(p.takeUpTo(10)).isEqualTo(1L);
         assertThat(p.takeUpTo(1L)).isEqualTo(0L);
     }
 
-    @Test
-    public void testChangedParameters() {
+    @Test(dataProvider = "pools")
+    public void testChangedParameters(BiFunction<Long, Double, TokenPool> sized, Function<RateSpec, TokenPool> specced) {
 
         RateSpec s1 = new RateSpec(1000L, 1.10D);
-        TokenPool p = new TokenPool(s1);
+        TokenPool p = specced.apply(s1);
         long r = p.refill(10000000);
         assertThat(r).isEqualTo(10000000L);
         assertThat(p.getWaitTime()).isEqualTo(10000000L);
@@ -60,4 +76,26 @@ public class TokenPoolTest {
 
 
     }
-}
\ No newline at end of file
+
+    @Test(dataProvider = "pools")
+    public void testRestartClearsPools(BiFunction<Long, Double, TokenPool> sized, Function<RateSpec, TokenPool> specced) {
+        TokenPool p = specced.apply(new RateSpec(1000L, 1.1D));
+        p.refill(10000000);
+        assertThat(p.restart()).isEqualTo(10000000L);
+        assertThat(p.getWaitTime()).isEqualTo(0L);
+    }
+
+    @Test(dataProvider = "pools")
+    public void testBlockedTakerIsWokenByRefill(BiFunction<Long, Double, TokenPool> sized, Function<RateSpec, TokenPool> specced) throws Exception {
+        RateSpec spec = new RateSpec(1000L, 1.1D);
+        TokenPool p = specced.apply(spec);
+        AtomicLong remaining = new AtomicLong(-1L);
+        Thread taker = new Thread(() -> remaining.set(p.blockAndTake()));
+        taker.start();
+        Thread.sleep(10);
+        assertThat(remaining.get()).isEqualTo(-1L);
+        p.refill(spec.getNanosPerOp());
+        taker.join(1000);
+        assertThat(remaining.get()).isEqualTo(0L);
+    }
+}
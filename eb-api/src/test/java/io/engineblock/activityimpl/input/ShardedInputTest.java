@@ -0,0 +1,173 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityimpl.input;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleSegment;
+import io.engineblock.activityimpl.ActivityDef;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class ShardedInputTest {
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testEmptyIntervalIsRejected() {
+        new ShardedInput(ActivityDef.parseActivityDef("alias=foo;cycles=23..23"), 4);
+    }
+
+    @Test
+    public void testShardsAreStolenWhenExhausted() {
+        ShardedInput i = new ShardedInput(ActivityDef.parseActivityDef("alias=foo;cycles=10..20;stride=3"), 2);
+        BitSet seen = new BitSet();
+        CycleSegment segment;
+        int segments = 0;
+        while ((segment = i.getInputSegment(3)) != null) {
+            while (!segment.isExhausted()) {
+                long cycle = segment.nextCycle();
+                assertThat(seen.get((int) cycle)).isFalse();
+                seen.set((int) cycle);
+            }
+            segments++;
+        }
+        assertThat(seen.cardinality()).isEqualTo(10);
+        assertThat(seen.nextSetBit(0)).isEqualTo(10);
+        assertThat(segments).isEqualTo(4);
+        assertThat(i.getProgress()).isEqualTo(10.0D);
+        assertThat(i.getTotal()).isEqualTo(10.0D);
+        assertThat(i.getProgressDetails()).contains("steals=2");
+    }
+
+    @Test
+    public void testMaxChangeKeepsPositions() {
+        ActivityDef ad = ActivityDef.parseActivityDef("alias=foo;cycles=0..100;stride=10");
+        ShardedInput i = new ShardedInput(ad, 3);
+        BitSet seen = new BitSet();
+        for (int n = 0; n < 4; n++) {
+            take(i.getInputSegment(10), seen);
+        }
+        assertThat(seen.cardinality()).isEqualTo(40);
+
+        ad.setEndCycle(50L);
+        i.onActivityDefUpdate(ad);
+        ad.setEndCycle(250L);
+        i.onActivityDefUpdate(ad);
+        CycleSegment segment;
+        while ((segment = i.getInputSegment(10)) != null) {
+            take(segment, seen);
+        }
+        assertThat(seen.cardinality()).isEqualTo(250);
+        assertThat(seen.nextClearBit(0)).isEqualTo(250);
+        assertThat(i.getTotal()).isEqualTo(250.0D);
+    }
+
+    @Test
+    public void testLowerMaxCutsShardsShort() {
+        ActivityDef ad = ActivityDef.parseActivityDef("alias=foo;cycles=0..100;stride=10");
+        ShardedInput i = new ShardedInput(ad, 2);
+        BitSet seen = new BitSet();
+        take(i.getInputSegment(10), seen);
+
+        ad.setEndCycle(30L);
+        i.onActivityDefUpdate(ad);
+        CycleSegment segment;
+        while ((segment = i.getInputSegment(10)) != null) {
+            take(segment, seen);
+        }
+        assertThat(seen.cardinality()).isEqualTo(30);
+        assertThat(seen.nextSetBit(30)).isEqualTo(-1);
+        assertThat(i.getProgress()).isEqualTo(30.0D);
+    }
+
+    @Test
+    public void testMinChangeRestarts() {
+        ActivityDef ad = ActivityDef.parseActivityDef("alias=foo;cycles=0..100;stride=10");
+        ShardedInput i = new ShardedInput(ad, 2);
+        BitSet seen = new BitSet();
+        take(i.getInputSegment(10), seen);
+
+        ad.setStartCycle(0L);
+        i.onActivityDefUpdate(ad);
+        assertThat(i.getProgress()).isEqualTo(10.0D);
+
+        ad.setStartCycle(20L);
+        i.onActivityDefUpdate(ad);
+        assertThat(i.getProgress()).isEqualTo(0.0D);
+        CycleSegment segment = i.getInputSegment(10);
+        assertThat(segment.nextCycle()).isEqualTo(20L);
+    }
+
+    @Test
+    public void testRecycles() {
+        ShardedInput i = new ShardedInput(ActivityDef.parseActivityDef("alias=foo;cycles=0..8;recycles=2"), 3);
+        long[] counts = new long[8];
+        CycleSegment segment;
+        while ((segment = i.getInputSegment(1)) != null) {
+            counts[(int) segment.nextCycle()]++;
+        }
+        assertThat(counts).isEqualTo(new long[]{3, 3, 3, 3, 3, 3, 3, 3});
+        assertThat(i.getProgressDetails()).contains("recycles=2/2");
+    }
+
+    @Test
+    public void testConcurrentClaimsCoverAllCycles() throws Exception {
+        int threads = 8;
+        ShardedInput i = new ShardedInput(ActivityDef.parseActivityDef("alias=foo;cycles=0..100000;recycles=1"), threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                long[] counts = new long[100000];
+                long[] cycles = new long[7];
+                CycleSegment segment;
+                while ((segment = i.getInputSegment(7)) != null) {
+                    int taken = segment.nextCycles(cycles, 0, cycles.length);
+                    for (int c = 0; c < taken; c++) {
+                        counts[(int) cycles[c]]++;
+                    }
+                }
+                return counts;
+            }));
+        }
+        long[] totals = new long[100000];
+        for (Future<long[]> future : futures) {
+            long[] counts = future.get();
+            for (int c = 0; c < counts.length; c++) {
+                totals[c] += counts[c];
+            }
+        }
+        pool.shutdown();
+        for (int c = 0; c < totals.length; c++) {
+            assertThat(totals[c]).isEqualTo(2L);
+        }
+    }
+
+    private void take(CycleSegment segment, BitSet seen) {
+        while (!segment.isExhausted()) {
+            long cycle = segment.nextCycle();
+            assertThat(seen.get((int) cycle)).isFalse();
+            seen.set((int) cycle);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityimpl.marker;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultArray;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results.MutableCycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleSpanResults;
+import io.engineblock.activityapi.output.Output;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class BitmapOutputChunkerTest {
+
+    @Test
+    public void testMarksSegmentsAcrossExtents() throws Exception {
+        BitmapOutputChunker chunker = new BitmapOutputChunker(0L, 100, 3);
+        TestReader r = new TestReader();
+        chunker.addExtentReader(r);
+
+        chunker.onCycleResultSegment(new CycleSpanResults(0L, 250L, 2));
+        assertThat(r.cycles.size()).isEqualTo(200);
+        assertThat(chunker.getPendingExtents()).isEqualTo(1);
+
+        chunker.close();
+        assertThat(r.cycles.size()).isEqualTo(250);
+        assertThat(r.isOrderedFrom(0L)).isTrue();
+        assertThat(r.results.get(249)).isEqualTo(2);
+        assertThat(r.closed).isTrue();
+    }
+
+    @Test
+    public void testExtentsArePassedOnInOrder() throws Exception {
+        BitmapOutputChunker chunker = new BitmapOutputChunker(1000L, 100, 3);
+        TestReader r = new TestReader();
+        chunker.addExtentReader(r);
+
+        chunker.onCycleResultSegment(new CycleSpanResults(1100L, 1200L, 0));
+        assertThat(r.cycles).isEmpty();
+        for (long cycle = 1099; cycle >= 1000; cycle--) {
+            chunker.onCycleResult(cycle, 1);
+        }
+        assertThat(r.cycles.size()).isEqualTo(200);
+        assertThat(r.isOrderedFrom(1000L)).isTrue();
+        assertThat(r.results.get(0)).isEqualTo(1);
+        assertThat(r.results.get(100)).isEqualTo(0);
+    }
+
+    @Test
+    public void testIncompleteExtentsArePassedOnAfterLag() throws Exception {
+        BitmapOutputChunker chunker = new BitmapOutputChunker(0L, 100, 1);
+        TestReader r = new TestReader();
+        chunker.addExtentReader(r);
+
+        for (long cycle = 0; cycle < 100; cycle += 2) {
+            chunker.onCycleResult(cycle, 0);
+        }
+        chunker.onCycleResult(150L, 0);
+        assertThat(r.cycles).isEmpty();
+
+        chunker.onCycleResult(200L, 0);
+        assertThat(r.cycles.size()).isEqualTo(50);
+        assertThat(r.segments).isEqualTo(50);
+        assertThat(r.cycles.get(49)).isEqualTo(98L);
+    }
+
+    @Test
+    public void testLateResultsArePassedOnOutOfOrder() throws Exception {
+        BitmapOutputChunker chunker = new BitmapOutputChunker(0L, 100, 1);
+        TestReader r = new TestReader();
+        chunker.addExtentReader(r);
+
+        for (long cycle = 0; cycle < 100; cycle += 2) {
+            chunker.onCycleResult(cycle, 0);
+        }
+        chunker.onCycleResult(150L, 0);
+        chunker.onCycleResult(200L, 0);
+        assertThat(r.cycles.size()).isEqualTo(50);
+
+        chunker.onCycleResult(1L, 3);
+        assertThat(r.cycles.size()).isEqualTo(51);
+        assertThat(r.cycles.get(50)).isEqualTo(1L);
+        assertThat(r.results.get(50)).isEqualTo(3);
+        assertThat(chunker.getPendingExtents()).isEqualTo(2);
+
+        chunker.close();
+        assertThat(r.cycles.subList(51, r.cycles.size())).containsExactly(150L, 200L);
+    }
+
+    @Test
+    public void testFilterIsAppliedWhenPassedOn() throws Exception {
+        BitmapOutputChunker chunker = new BitmapOutputChunker(0L, 10, 3);
+        chunker.setFilter(result -> result.getResult() == 1);
+        TestReader r = new TestReader();
+        chunker.addExtentReader(r);
+
+        for (long cycle = 0; cycle < 10; cycle++) {
+            chunker.onCycleResult(cycle, (int) (cycle % 2));
+        }
+        assertThat(r.cycles.size()).isEqualTo(5);
+        assertThat(r.cycles.get(0)).isEqualTo(1L);
+    }
+
+    @Test
+    public void testConcurrentMarking() throws Exception {
+        BitmapOutputChunker chunker = new BitmapOutputChunker(0L, 1000, 1000);
+        TestReader r = new TestReader();
+        chunker.addExtentReader(r);
+        AtomicLong input = new AtomicLong(0L);
+        int stride = 37;
+        long total = 200000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                long start;
+                while ((start = input.getAndAdd(stride)) < total) {
+                    List<CycleResult> results = new ArrayList<>();
+                    for (long cycle = start; cycle < Math.min(start + stride, total); cycle++) {
+                        results.add(new MutableCycleResult(cycle, (int) (cycle % 5)));
+                    }
+                    Collections.shuffle(results);
+                    chunker.onCycleResultSegment(new CycleResultArray(results.toArray(new CycleResult[0])));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat((long) r.cycles.size()).isEqualTo(total);
+        assertThat(chunker.getPendingExtents()).isEqualTo(0);
+        chunker.close();
+        assertThat(r.isOrderedFrom(0L)).isTrue();
+        for (int i = 0; i < total; i++) {
+            assertThat(r.results.get(i)).isEqualTo(i % 5);
+        }
+    }
+
+    private static class TestReader implements Output {
+        private final List<Long> cycles = new ArrayList<>();
+        private final List<Integer> results = new ArrayList<>();
+        private int segments = 0;
+        private boolean closed = false;
+
+        @Override
+        public boolean onCycleResult(long completedCycle, int result) {
+            cycles.add(completedCycle);
+            results.add(result);
+            return true;
+        }
+
+        @Override
+        public void onCycleResultSegment(CycleResultsSegment segment) {
+            segments++;
+            for (CycleResult result : segment) {
+                onCycleResult(result.getCycle(), result.getResult());
+            }
+        }
+
+        private boolean isOrderedFrom(long first) {
+            for (int i = 0; i < cycles.size(); i++) {
+                if (cycles.get(i) != first + i) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
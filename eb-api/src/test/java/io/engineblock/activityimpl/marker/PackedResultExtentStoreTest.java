@@ -0,0 +1,202 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+package io.engineblock.activityimpl.marker;
+
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResult;
+import io.engineblock.activityapi.cyclelog.buffers.results.CycleResultsSegment;
+import io.engineblock.activityapi.cyclelog.buffers.results_rle.CycleSpanResults;
+import io.engineblock.activityapi.output.Output;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@Test
+public class PackedResultExtentStoreTest {
+
+    @Test
+    public void testPackedResultsAndRuns() throws Exception {
+        for (int bits : new int[]{1, 2, 4, 8}) {
+            int limit = (1 << bits) - 1;
+            PackedResultExtentStore store = new PackedResultExtentStore(null, 1000L, 1000L, bits, 128);
+            for (long cycle = 1000; cycle < 2000; cycle++) {
+                if (cycle % 100 != 50) {
+                    store.mark(cycle, (int) (cycle % (limit + 1)));
+                }
+            }
+            assertThat(store.getMarkedCount()).isEqualTo(990L);
+            assertThat(store.getResult(1050L)).isEqualTo(-1);
+            assertThat(store.getResult(1999L)).isEqualTo((int) (1999 % (limit + 1)));
+
+            long expected = 1000L;
+            int segments = 0;
+            for (CycleResultsSegment segment : store) {
+                segments++;
+                for (CycleResult result : segment) {
+                    if (expected % 100 == 50) {
+                        expected++;
+                    }
+                    assertThat(result.getCycle()).isEqualTo(expected);
+                    assertThat(result.getResult()).isEqualTo((int) (expected % (limit + 1)));
+                    expected++;
+                }
+            }
+            assertThat(expected).isEqualTo(2000L);
+            assertThat(segments).isEqualTo(18);
+            store.close();
+        }
+    }
+
+    @Test
+    public void testMarkingAgainReplacesResult() throws Exception {
+        PackedResultExtentStore store = new PackedResultExtentStore(0L, 100L, 2);
+        assertThat(store.mark(5L, 3)).isTrue();
+        assertThat(store.mark(5L, 1)).isFalse();
+        assertThat(store.getResult(5L)).isEqualTo(1);
+        assertThat(store.getResult(4L)).isEqualTo(-1);
+        store.close();
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testResultTooLargeForBits() throws Exception {
+        PackedResultExtentStore store = new PackedResultExtentStore(0L, 100L, 1);
+        store.mark(0L, 2);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testCycleOutsideOfRange() throws Exception {
+        PackedResultExtentStore store = new PackedResultExtentStore(0L, 100L, 1);
+        store.mark(100L, 0);
+    }
+
+    @Test
+    public void testResultsAreKeptInFile() throws Exception {
+        File file = File.createTempFile("packed-result-store-test", ".results");
+        file.deleteOnExit();
+
+        PackedResultExtentStore store = new PackedResultExtentStore(file, 0L, 10000L, 4, 1024);
+        store.onCycleResultSegment(new CycleSpanResults(0L, 5000L, 7));
+        store.onCycleResultSegment(new CycleSpanResults(6000L, 10000L, 9));
+        store.close();
+        assertThat(file.length()).isEqualTo(10L * store.getExtentBytes());
+
+        PackedResultExtentStore reopened = new PackedResultExtentStore(file, 0L, 10000L, 4, 1024, true);
+        assertThat(reopened.getMarkedCount()).isEqualTo(9000L);
+        assertThat(reopened.getResult(4999L)).isEqualTo(7);
+        assertThat(reopened.getResult(5000L)).isEqualTo(-1);
+        assertThat(reopened.getResult(9999L)).isEqualTo(9);
+        List<Long> starts = new ArrayList<>();
+        for (CycleResultsSegment segment : reopened) {
+            starts.add(segment.getMinCycle());
+        }
+        assertThat(starts.get(0)).isEqualTo(0L);
+        assertThat(starts.contains(6000L)).isTrue();
+        reopened.close();
+    }
+
+    @Test
+    public void testStaleResultsAreTruncated() throws Exception {
+        File file = File.createTempFile("packed-result-store-test", ".results");
+        file.deleteOnExit();
+
+        PackedResultExtentStore store = new PackedResultExtentStore(file, 0L, 10000L, 4, 1024);
+        store.onCycleResultSegment(new CycleSpanResults(0L, 5000L, 7));
+        store.close();
+
+        PackedResultExtentStore fresh = new PackedResultExtentStore(file, 0L, 10000L, 4, 1024);
+        assertThat(file.length()).isEqualTo(0L);
+        assertThat(fresh.getMarkedCount()).isEqualTo(0L);
+        assertThat(fresh.getResult(0L)).isEqualTo(-1);
+        fresh.close();
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void testKeptResultsMustMatchLayout() throws Exception {
+        File file = File.createTempFile("packed-result-store-test", ".results");
+        file.deleteOnExit();
+
+        PackedResultExtentStore store = new PackedResultExtentStore(file, 0L, 10000L, 4, 1024);
+        store.onCycleResultSegment(new CycleSpanResults(0L, 5000L, 7));
+        store.close();
+
+        new PackedResultExtentStore(file, 0L, 10000L, 2, 1024, true);
+    }
+
+    @Test
+    public void testReadersGetResultsAtClose() throws Exception {
+        PackedResultExtentStore store = new PackedResultExtentStore(null, 0L, 1000L, 2, 128);
+        store.setFilter(result -> result.getResult() != 2);
+        List<Long> cycles = new ArrayList<>();
+        boolean[] closed = new boolean[1];
+        store.addExtentReader(new Output() {
+            @Override
+            public boolean onCycleResult(long completedCycle, int result) {
+                cycles.add(completedCycle);
+                return true;
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        });
+        for (long cycle = 999; cycle >= 0; cycle--) {
+            store.mark(cycle, (int) (cycle % 3));
+        }
+        assertThat(cycles).isEmpty();
+
+        store.close();
+        assertThat(closed[0]).isTrue();
+        assertThat(cycles.size()).isEqualTo(667);
+        assertThat(cycles.get(0)).isEqualTo(0L);
+        assertThat(cycles.get(1)).isEqualTo(1L);
+        assertThat(cycles.get(2)).isEqualTo(3L);
+    }
+
+    @Test
+    public void testConcurrentMarking() throws Exception {
+        PackedResultExtentStore store = new PackedResultExtentStore(null, 0L, 1000000L, 2, 65536);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                for (long cycle = offset; cycle < 1000000L; cycle += 8) {
+                    store.mark(cycle, (int) (cycle % 3));
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(store.getMarkedCount()).isEqualTo(1000000L);
+        long expected = 0L;
+        for (CycleResultsSegment segment : store) {
+            for (CycleResult result : segment) {
+                assertThat(result.getCycle()).isEqualTo(expected);
+                assertThat(result.getResult()).isEqualTo((int) (expected % 3));
+                expected++;
+            }
+        }
+        assertThat(expected).isEqualTo(1000000L);
+        store.close();
+    }
+}
@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -69,13 +70,31 @@ public class ActivityExecutor implements ActivityController, ParameterMap.Listen
                 0, Integer.MAX_VALUE,
                 0L, TimeUnit.SECONDS,
                 new SynchronousQueue<>(),
-                new IndexedThreadFactory(activity.getAlias(), new ActivityExceptionHandler(this))
+                newThreadFactory()
         );
         activity.getActivityDef().getParams().addListener(this);
         activity.setActivityController(this);
     }
 
 
+    /**
+     * Create the thread factory for motor threads, as selected by the <em>executor</em> activity
+     * parameter. The default is <em>platform</em>, which runs each motor on its own platform thread.
+     * Setting it to <em>virtual</em> runs each motor on a virtual thread instead, which allows for
+     * very high thread counts with blocking sync actions.
+     */
+    private ThreadFactory newThreadFactory() {
+        String executorType = activityDef.getParams().getOptionalString("executor").orElse("platform");
+        switch (executorType) {
+            case "platform":
+                return new IndexedThreadFactory(activity.getAlias(), new ActivityExceptionHandler(this));
+            case "virtual":
+                return new VirtualThreadFactory(activity.getAlias(), new ActivityExceptionHandler(this));
+            default:
+                throw new RuntimeException("Unknown executor type '" + executorType + "', valid values are platform or virtual");
+        }
+    }
+
     // TODO: Doc how uninitialized activities do not propagate parameter map changes and how
     // TODO: this is different from preventing modification to uninitialized activities
 
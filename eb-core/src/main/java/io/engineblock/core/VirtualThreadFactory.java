@@ -0,0 +1,69 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>A named and indexed thread factory which creates virtual threads, as
+ * {@link IndexedThreadFactory} does for platform threads. Threads are named
+ * with the activity alias and an index, so that they can be told apart in logs
+ * and dumps.</p>
+ *
+ * <p>Since this project is built for an earlier Java release, the virtual thread
+ * builder is looked up reflectively. Virtual threads require a Java 21 or newer
+ * runtime, and an error is thrown when this factory is created on an older one.</p>
+ */
+public class VirtualThreadFactory implements ThreadFactory {
+
+    private final ThreadFactory factory;
+
+    public VirtualThreadFactory(String name, Thread.UncaughtExceptionHandler exceptionHandler) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + ":", 1L);
+            if (exceptionHandler != null) {
+                builder = builderType.getMethod("uncaughtExceptionHandler", Thread.UncaughtExceptionHandler.class)
+                        .invoke(builder, exceptionHandler);
+            }
+            this.factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Virtual threads are not supported by this Java runtime (" +
+                    System.getProperty("java.version") + "). Use a Java 21 or newer runtime for executor=virtual.", e);
+        }
+    }
+
+    /**
+     * @return true, if the current Java runtime supports virtual threads
+     */
+    public static boolean isSupported() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            return ofVirtual != null;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+        return factory.newThread(r);
+    }
+}
@@ -1,6 +1,8 @@
 package io.engineblock.activitycore;
 
 import io.engineblock.activityapi.core.*;
+import io.engineblock.activityapi.ratelimits.RateLimiter;
+import io.engineblock.activityapi.ratelimits.RateSpec;
 import io.engineblock.activitycore.fortesting.BlockingSegmentInput;
 import io.engineblock.activityimpl.ActivityDef;
 import io.engineblock.activityimpl.SimpleActivity;
@@ -76,6 +78,77 @@ public class CoreMotorTest {
 
     }
 
+    @Test
+    public void testShortStrideReturnsUnstartedOps() {
+        BlockingSegmentInput lockstepper = new BlockingSegmentInput();
+        Activity activity = new SimpleActivity("alias=shortstride;stride=3;stridebatch=true");
+        RecordingRateLimiter limiter = new RecordingRateLimiter();
+        activity.setCycleLimiter(limiter);
+        Motor cm = new CoreMotor(activity, 1L, lockstepper);
+        AtomicLongArray ary = new AtomicLongArray(10);
+        cm.setAction(getTestArrayConsumer(ary));
+        cm.getSlotStateTracker().enterState(RunState.Starting);
+
+        Thread t = new Thread(cm);
+        t.setName("shortstride");
+        t.start();
+        try {
+            Thread.sleep(500); // allow action time to be waiting in monitor for test fixture
+        } catch (InterruptedException ignored) {}
+
+        lockstepper.publishSegment(21L, 22L);
+
+        awaitCondition(returned -> (returned.get() == 1L), limiter.returned, 5000, 100);
+        assertThat(ary.get(0)).isEqualTo(21L);
+        assertThat(ary.get(1)).isEqualTo(22L);
+        assertThat(limiter.waited.get()).isEqualTo(3L);
+        assertThat(limiter.returned.get()).isEqualTo(1L);
+    }
+
+    private static class RecordingRateLimiter implements RateLimiter {
+        private final AtomicLong waited = new AtomicLong(0L);
+        private final AtomicLong returned = new AtomicLong(0L);
+
+        @Override
+        public long maybeWaitForOp() {
+            waited.incrementAndGet();
+            return 0L;
+        }
+
+        @Override
+        public void returnOps(int n) {
+            returned.addAndGet(n);
+        }
+
+        @Override
+        public long getTotalWaitTime() {
+            return 0L;
+        }
+
+        @Override
+        public long getWaitTime() {
+            return 0L;
+        }
+
+        @Override
+        public void applyRateSpec(RateSpec spec) {
+        }
+
+        @Override
+        public long getStartTime() {
+            return 0L;
+        }
+
+        @Override
+        public RateSpec getRateSpec() {
+            return null;
+        }
+
+        @Override
+        public void start() {
+        }
+    }
+
     private SyncAction getTestArrayConsumer(final AtomicLongArray ary) {
         return new SyncAction() {
             private int offset=0;
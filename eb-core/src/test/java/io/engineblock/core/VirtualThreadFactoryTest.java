@@ -0,0 +1,50 @@
+/*
+ *
+ *    Copyright 2016 jshook
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ * /
+ */
+
+package io.engineblock.core;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+@Test
+public class VirtualThreadFactoryTest {
+
+    public void testVirtualThreadsWhenSupported() throws Exception {
+        if (!VirtualThreadFactory.isSupported()) {
+            try {
+                new VirtualThreadFactory("vtest", null);
+                fail("Expected virtual threads to be unsupported");
+            } catch (RuntimeException e) {
+                assertThat(e.getMessage()).contains("Java 21");
+            }
+            return;
+        }
+        VirtualThreadFactory factory = new VirtualThreadFactory("vtest", null);
+        AtomicBoolean ran = new AtomicBoolean(false);
+        Thread thread = factory.newThread(() -> ran.set(true));
+        assertThat(thread.getName()).isEqualTo("vtest:1");
+        assertThat((Boolean) Thread.class.getMethod("isVirtual").invoke(thread)).isTrue();
+        thread.start();
+        thread.join();
+        assertThat(ran.get()).isTrue();
+    }
+
+}